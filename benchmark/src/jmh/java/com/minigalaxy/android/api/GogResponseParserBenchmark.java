@@ -0,0 +1,53 @@
+package com.minigalaxy.android.api;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.minigalaxy.android.benchmark.SyntheticLibrary;
+import com.minigalaxy.android.model.Game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning a library sync and a product details response into models,
+ * from the raw response body as GogApi receives it
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GogResponseParserBenchmark {
+
+    @Param({"100", "1000", "5000", "20000"})
+    public int librarySize;
+
+    private String libraryBody;
+    private String detailsBody;
+
+    @Setup
+    public void setUp() {
+        libraryBody = SyntheticLibrary.libraryJson(librarySize);
+        // Installer count scales with the library only to keep one @Param
+        detailsBody = SyntheticLibrary.gameDetailsJson(Math.max(4, librarySize / 1000));
+    }
+
+    @Benchmark
+    public List<Game> parseLibrary() {
+        JsonObject response = JsonParser.parseString(libraryBody).getAsJsonObject();
+        return GogResponseParser.parseGames(response);
+    }
+
+    @Benchmark
+    public Game parseGameDetails() {
+        JsonObject response = JsonParser.parseString(detailsBody).getAsJsonObject();
+        return GogResponseParser.parseGameDetails(response);
+    }
+}
@@ -0,0 +1,268 @@
+package com.minigalaxy.android.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.HttpUrl;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+
+/**
+ * In-process stand-in for the GOG endpoints the app uses: token, library,
+ * product details, downlinks and the CDN serving the files and their
+ * checksum XML. As on GOG, checksums are only reachable through a downlink.
+ * Files support Range requests, and latency, bandwidth, dropped connections
+ * and link expiry can be changed at any time.
+ */
+public class MockGogServer {
+
+    public static final long GAME_ID = 1207658924L;
+
+    private static final String ACCESS_TOKEN = "mock-access-token";
+
+    private final MockWebServer server = new MockWebServer();
+    private final Map<String, byte[]> files = new LinkedHashMap<>();
+    private final Map<String, String> checksums = new LinkedHashMap<>();
+    private final Random random = new Random(42);
+
+    private volatile long latencyMillis;
+    private volatile long bytesPerSecond;
+    private volatile double dropRate;
+    private volatile long linkTtlMillis = TimeUnit.HOURS.toMillis(1);
+    private volatile int librarySize = 100;
+
+    public MockGogServer() {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return handle(request);
+            }
+        });
+    }
+
+    /**
+     * Add an installer part with deterministic content of the given size
+     */
+    public void addFile(String fileId, int size) {
+        byte[] content = new byte[size];
+        new Random(fileId.hashCode()).nextBytes(content);
+        files.put(fileId, content);
+        checksums.put(fileId, md5(content));
+    }
+
+    public void start() throws IOException {
+        server.start();
+    }
+
+    public void shutdown() throws IOException {
+        server.shutdown();
+    }
+
+    public String url(String path) {
+        return server.url(path).toString();
+    }
+
+    public String getAccessToken() {
+        return ACCESS_TOKEN;
+    }
+
+    /**
+     * Delay before the headers of every response
+     */
+    public void setLatency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Per-connection bandwidth for file bodies; 0 for unlimited
+     */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Share of file responses cut off halfway through the body
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    /**
+     * How long a signed file link stays valid
+     */
+    public void setLinkTtl(long linkTtlMillis) {
+        this.linkTtlMillis = linkTtlMillis;
+    }
+
+    public void setLibrarySize(int librarySize) {
+        this.librarySize = librarySize;
+    }
+
+    private MockResponse handle(RecordedRequest request) {
+        HttpUrl url = request.getRequestUrl();
+        String[] path = url.encodedPath().substring(1).split("/");
+
+        MockResponse response;
+        if ("files".equals(path[0]) && path.length == 2) {
+            response = serveFile(request, path[1], url);
+        } else if ("checksums".equals(path[0]) && path.length == 2) {
+            response = checksum(path[1]);
+        } else if (!isAuthorized(request) && !"token".equals(path[0])) {
+            response = new MockResponse().setResponseCode(401);
+        } else if ("token".equals(path[0])) {
+            response = json(token());
+        } else if ("account".equals(path[0])) {
+            response = new MockResponse().setBody(SyntheticLibrary.libraryJson(librarySize));
+        } else if ("products".equals(path[0]) && path.length == 2) {
+            response = json(details());
+        } else if ("products".equals(path[0]) && path.length == 5 && "downlink".equals(path[2])) {
+            response = json(downlink(path[4]));
+        } else {
+            response = new MockResponse().setResponseCode(404);
+        }
+
+        return response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isAuthorized(RecordedRequest request) {
+        return ("Bearer " + ACCESS_TOKEN).equals(request.getHeader("Authorization"));
+    }
+
+    private MockResponse serveFile(RecordedRequest request, String fileId, HttpUrl url) {
+        byte[] content = files.get(fileId);
+        if (content == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+
+        String expires = url.queryParameter("expires");
+        if (expires == null || Long.parseLong(expires) < System.currentTimeMillis()) {
+            // What the CDN answers for an expired signature
+            return new MockResponse().setResponseCode(403);
+        }
+
+        int start = 0;
+        String range = request.getHeader("Range");
+        if (range != null && range.startsWith("bytes=")) {
+            start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+            if (start >= content.length) {
+                return new MockResponse().setResponseCode(416)
+                        .setHeader("Content-Range", "bytes */" + content.length);
+            }
+        }
+
+        MockResponse response = new MockResponse()
+                .setBody(new Buffer().write(content, start, content.length - start));
+        if (start > 0) {
+            response.setResponseCode(206)
+                    .setHeader("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+        }
+
+        long bandwidth = bytesPerSecond;
+        if (bandwidth > 0) {
+            // Ten slices a second keeps the rate smooth
+            response.throttleBody(Math.max(1, bandwidth / 10), 100, TimeUnit.MILLISECONDS);
+        }
+        if (dropRate > 0 && random.nextDouble() < dropRate) {
+            response.setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY);
+        }
+        return response;
+    }
+
+    private JsonObject token() {
+        JsonObject token = new JsonObject();
+        token.addProperty("access_token", ACCESS_TOKEN);
+        token.addProperty("refresh_token", "mock-refresh-token");
+        token.addProperty("expires_in", 3600);
+        return token;
+    }
+
+    /**
+     * One Linux installer per file, each in a single part
+     */
+    private JsonObject details() {
+        JsonArray installers = new JsonArray();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            String fileId = file.getKey();
+
+            JsonObject part = new JsonObject();
+            part.addProperty("id", fileId);
+            part.addProperty("size", file.getValue().length);
+            part.addProperty("downlink", url("/products/" + GAME_ID + "/downlink/installer/" + fileId));
+
+            JsonArray parts = new JsonArray();
+            parts.add(part);
+
+            JsonObject installer = new JsonObject();
+            installer.addProperty("id", "installer_" + fileId);
+            installer.addProperty("name", "Mock Game " + fileId);
+            installer.addProperty("os", "linux");
+            installer.addProperty("language", "en");
+            installer.addProperty("version", "1.0");
+            installer.add("files", parts);
+            installers.add(installer);
+        }
+
+        JsonObject downloads = new JsonObject();
+        downloads.add("installers", installers);
+
+        JsonObject game = new JsonObject();
+        game.addProperty("id", GAME_ID);
+        game.addProperty("title", "Mock Game");
+        game.add("downloads", downloads);
+        return game;
+    }
+
+    private JsonObject downlink(String fileId) {
+        long expires = System.currentTimeMillis() + linkTtlMillis;
+        JsonObject downlink = new JsonObject();
+        downlink.addProperty("downlink", url("/files/" + fileId + "?expires=" + expires));
+        downlink.addProperty("checksum", url("/checksums/" + fileId));
+        return downlink;
+    }
+
+    /**
+     * Same shape as GOG's checksum XML, without the per-chunk hashes
+     */
+    private MockResponse checksum(String fileId) {
+        byte[] content = files.get(fileId);
+        if (content == null) {
+            return new MockResponse().setResponseCode(404);
+        }
+        return new MockResponse()
+                .setHeader("Content-Type", "application/xml")
+                .setBody("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                        + "<file name=\"" + fileId + "\" available=\"1\" md5=\"" + checksums.get(fileId)
+                        + "\" chunks=\"0\" total_size=\"" + content.length + "\"></file>");
+    }
+
+    private static MockResponse json(JsonObject body) {
+        return new MockResponse()
+                .setHeader("Content-Type", "application/json")
+                .setBody(body.toString());
+    }
+
+    static String md5(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(content);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
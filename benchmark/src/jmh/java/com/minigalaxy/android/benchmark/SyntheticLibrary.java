@@ -0,0 +1,125 @@
+package com.minigalaxy.android.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.minigalaxy.android.model.Game;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic stand-ins for GOG API payloads, shaped like the real responses
+ */
+public final class SyntheticLibrary {
+
+    private static final String[] WORDS = {
+            "Shadow", "Legend", "Quest", "Tactics", "Chronicles", "Dungeon", "Star", "Empire",
+            "Knight", "Space", "Witch", "Realm", "Frontier", "Tales", "Origins", "Gold",
+            "Edition", "Remastered", "Night", "Island", "Kingdom", "Heroes", "Saga", "Wasteland"
+    };
+    private static final String[] CATEGORIES = {"Action", "Adventure", "RPG", "Strategy", "Simulation"};
+
+    private SyntheticLibrary() {
+    }
+
+    /**
+     * A library page with {@code size} products, as returned by the user games endpoint
+     */
+    public static String libraryJson(int size) {
+        Random random = new Random(size);
+        JsonArray products = new JsonArray();
+        for (int i = 0; i < size; i++) {
+            JsonObject product = new JsonObject();
+            product.addProperty("id", 1000000000L + i);
+            product.addProperty("title", title(random));
+            product.addProperty("url", "/game/product_" + i);
+            product.addProperty("image", "//images.gog.com/" + Long.toHexString(random.nextLong()));
+            product.addProperty("category", CATEGORIES[random.nextInt(CATEGORIES.length)]);
+            product.addProperty("worksOn", "Linux");
+            products.add(product);
+        }
+
+        JsonObject page = new JsonObject();
+        page.addProperty("totalProducts", size);
+        page.add("products", products);
+        return page.toString();
+    }
+
+    /**
+     * Product details with installers in several languages, patches and bonus content
+     */
+    public static String gameDetailsJson(int installers) {
+        Random random = new Random(installers);
+        JsonObject downloads = new JsonObject();
+        downloads.add("installers", section(random, installers, "installer", false));
+        downloads.add("patches", section(random, installers / 2 + 1, "patch", true));
+        downloads.add("language_packs", section(random, installers / 4 + 1, "installer", false));
+        downloads.add("bonus_content", section(random, installers / 2 + 1, "bonus_content", false));
+
+        JsonObject description = new JsonObject();
+        description.addProperty("full", "<p>" + title(random) + " " + title(random) + "</p>");
+
+        JsonObject game = new JsonObject();
+        game.addProperty("id", 1207658924L);
+        game.addProperty("title", title(random));
+        game.add("description", description);
+        game.add("downloads", downloads);
+        return game.toString();
+    }
+
+    /**
+     * Parsed games for code that works on the in-memory library
+     */
+    public static List<Game> games(int size) {
+        Random random = new Random(size);
+        List<Game> games = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Game game = new Game();
+            game.setId(1000000000L + i);
+            game.setName(title(random));
+            games.add(game);
+        }
+        return games;
+    }
+
+    private static JsonArray section(Random random, int count, String downlinkType, boolean patch) {
+        String[] systems = {"linux", "windows", "mac"};
+        JsonArray installers = new JsonArray();
+        for (int i = 0; i < count; i++) {
+            JsonObject installer = new JsonObject();
+            String id = downlinkType + "_" + i;
+            installer.addProperty("id", id);
+            installer.addProperty("name", title(random));
+            installer.addProperty("os", systems[i % systems.length]);
+            installer.addProperty("language", i % 2 == 0 ? "en" : "de");
+            installer.addProperty("version", patch ? "1." + i + " -> 1." + (i + 1) : "1." + count);
+
+            JsonArray files = new JsonArray();
+            int parts = 1 + random.nextInt(3);
+            for (int part = 0; part < parts; part++) {
+                JsonObject file = new JsonObject();
+                file.addProperty("id", id + "_" + part);
+                file.addProperty("size", 1L + random.nextInt(Integer.MAX_VALUE));
+                file.addProperty("downlink", "https://api.gog.com/products/1207658924/downlink/"
+                        + downlinkType + "/" + id + "_" + part);
+                files.add(file);
+            }
+            installer.add("files", files);
+            installers.add(installer);
+        }
+        return installers;
+    }
+
+    private static String title(Random random) {
+        int words = 2 + random.nextInt(3);
+        StringBuilder title = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                title.append(' ');
+            }
+            title.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return title.toString();
+    }
+}
@@ -0,0 +1,357 @@
+package com.minigalaxy.android.download;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.minigalaxy.android.api.GogResponseParser;
+import com.minigalaxy.android.benchmark.MockGogServer;
+import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.model.FileInfo;
+import com.minigalaxy.android.model.Game;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * End-to-end transfer through {@link RangedTransfer} against {@link MockGogServer}:
+ * resolve a downlink, fetch with resume on dropped connections and expired
+ * links, then verify the MD5 like DownloadManager does. A corrupt resume
+ * fails the run. Failures go through {@link DownloadException#classify} and
+ * the app's {@link RetryPolicy}, backoff included, and downloads take slots
+ * from a {@link ConcurrencyController} that starts at {@code concurrency} and
+ * is sampled every second like the download queue does.
+ * <p>
+ * Each operation downloads every file once; the "megabytes" counter is the
+ * throughput in MB/s, and CPU and allocation per MB of the client threads (the
+ * mock server excluded) are printed after each iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class DownloadThroughputBenchmark {
+
+    private static final int FILE_COUNT = 8;
+    private static final int FILE_SIZE = 16 * 1024 * 1024;
+    // Same as DownloadManager: an attempt that got this far does not use up a retry
+    private static final long RETRY_PROGRESS_RESET_BYTES = 1024 * 1024;
+
+    // Starting limit of the concurrency controller, as set in the app's settings
+    @Param({"1", "4", "8"})
+    public int concurrency;
+
+    @Param({"8", "64", "1024"})
+    public int bufferKb;
+
+    @Param({"0", "50"})
+    public long latencyMillis;
+
+    @Param({"0", "0.1"})
+    public double dropRate;
+
+    // 0 keeps links valid for the whole run; otherwise links used to resume
+    // after a retry backoff have expired and must be renewed
+    @Param({"0", "500"})
+    public long linkTtlMillis;
+
+    private MockGogServer server;
+    private OkHttpClient client;
+    private ExecutorService workers;
+    private ScheduledExecutorService sampler;
+    private ConcurrencyController controller;
+    private RetryPolicy retryPolicy;
+    private List<FileInfo> files;
+    // Expected MD5 by file id, from the checksum XML of each file's downlink
+    private final Map<String, String> checksums = new ConcurrentHashMap<>();
+    private File downloadDir;
+
+    private final AtomicLong cpuNanos = new AtomicLong();
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong transferredBytes = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong renewedLinks = new AtomicLong();
+
+    // Download slots handed out against the controller's limit
+    private final Object slots = new Object();
+    private int activeDownloads;
+    private int waitingDownloads;
+
+    /**
+     * Bytes downloaded, reported by JMH as a rate
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megabytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        server = new MockGogServer();
+        for (int i = 0; i < FILE_COUNT; i++) {
+            server.addFile("file" + i, FILE_SIZE);
+        }
+        server.setLatency(latencyMillis);
+        server.setDropRate(dropRate);
+        if (linkTtlMillis > 0) {
+            server.setLinkTtl(linkTtlMillis);
+        }
+        server.start();
+
+        client = new OkHttpClient.Builder()
+                .readTimeout(30, TimeUnit.SECONDS)
+                .build();
+        workers = Executors.newFixedThreadPool(FILE_COUNT);
+        retryPolicy = RetryPolicy.defaultPolicy();
+        controller = new ConcurrencyController(concurrency, 1, Constants.MAX_CONCURRENT_DOWNLOADS);
+        sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleWithFixedDelay(() -> {
+            synchronized (slots) {
+                controller.sample(System.currentTimeMillis(), activeDownloads, waitingDownloads);
+                // A raised limit lets waiting downloads start
+                slots.notifyAll();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+
+        Game game = GogResponseParser.parseGameDetails(JsonParser.parseString(
+                get(server.url("/products/" + MockGogServer.GAME_ID))).getAsJsonObject());
+        files = game.getFiles();
+
+        downloadDir = new File(System.getProperty("java.io.tmpdir"), "minigalaxy-benchmark");
+        downloadDir.mkdirs();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        sampler.shutdownNow();
+        workers.shutdownNow();
+        server.shutdown();
+        for (FileInfo file : files) {
+            partialFile(file).delete();
+        }
+        downloadDir.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStats() {
+        cpuNanos.set(0);
+        allocatedBytes.set(0);
+        transferredBytes.set(0);
+        retries.set(0);
+        renewedLinks.set(0);
+    }
+
+    @TearDown(Level.Iteration)
+    public void printStats() {
+        double megabytes = transferredBytes.get() / (1024.0 * 1024.0);
+        if (megabytes > 0) {
+            System.out.printf("%n  client CPU %.2f ms/MB, allocated %.1f KB/MB, %d retries, %d renewed links,"
+                            + " concurrency limit %d%n",
+                    cpuNanos.get() / 1e6 / megabytes, allocatedBytes.get() / 1024.0 / megabytes,
+                    retries.get(), renewedLinks.get(), controller.getLimit());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearDownloads() {
+        for (FileInfo file : files) {
+            partialFile(file).delete();
+        }
+    }
+
+    @Benchmark
+    public void downloadAll(Counters counters) throws Exception {
+        List<Future<?>> pending = new ArrayList<>();
+        for (final FileInfo file : files) {
+            pending.add(workers.submit(() -> {
+                download(file);
+                return null;
+            }));
+        }
+
+        for (Future<?> future : pending) {
+            future.get();
+        }
+        counters.megabytes += FILE_COUNT * (FILE_SIZE / (1024.0 * 1024.0));
+    }
+
+    private void download(FileInfo file) throws IOException, InterruptedException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long cpuStart = threads.getCurrentThreadCpuTime();
+        long allocatedStart = threads.getThreadAllocatedBytes(threadId);
+
+        File partialFile = partialFile(file);
+        RangedTransfer transfer = new RangedTransfer(client, bufferKb * 1024);
+        String url = null;
+        int retryCount = 0;
+
+        while (true) {
+            long attemptStart = partialFile.length();
+            IOException failure;
+            acquireSlot();
+            try {
+                if (url == null) {
+                    url = resolveDownlink(file);
+                }
+                if (transfer.fetch(url, partialFile, file.getSize(), listener) == file.getSize()) {
+                    break;
+                }
+                failure = new EOFException("Incomplete download of " + file.getId());
+            } catch (IOException e) {
+                failure = e;
+            } finally {
+                // The slot is free during the backoff, as with a scheduled retry in the app
+                releaseSlot();
+            }
+
+            DownloadException.Reason reason = DownloadException.classify(failure);
+            controller.onError();
+            if (reason == DownloadException.Reason.RANGE_NOT_SATISFIABLE) {
+                partialFile.delete();
+            } else if (reason == DownloadException.Reason.LINK_EXPIRED) {
+                url = null;
+                renewedLinks.incrementAndGet();
+            }
+
+            if (partialFile.length() - attemptStart >= RETRY_PROGRESS_RESET_BYTES) {
+                retryCount = 0;
+            }
+            if (!retryPolicy.shouldRetry(reason, retryCount)) {
+                throw failure;
+            }
+
+            long delay = retryPolicy.getDelay(reason, retryCount);
+            retryCount++;
+            retries.incrementAndGet();
+            Thread.sleep(delay);
+        }
+
+        String actual = md5(partialFile);
+        if (!actual.equalsIgnoreCase(checksums.get(file.getId()))) {
+            throw new IllegalStateException("Resumed download of " + file.getId() + " is corrupt");
+        }
+
+        cpuNanos.addAndGet(threads.getCurrentThreadCpuTime() - cpuStart);
+        allocatedBytes.addAndGet(threads.getThreadAllocatedBytes(threadId) - allocatedStart);
+        transferredBytes.addAndGet(file.getSize());
+    }
+
+    private void acquireSlot() throws InterruptedException {
+        synchronized (slots) {
+            waitingDownloads++;
+            try {
+                while (activeDownloads >= controller.getLimit()) {
+                    slots.wait();
+                }
+            } finally {
+                waitingDownloads--;
+            }
+            activeDownloads++;
+        }
+    }
+
+    private void releaseSlot() {
+        synchronized (slots) {
+            activeDownloads--;
+            slots.notifyAll();
+        }
+    }
+
+    private String resolveDownlink(FileInfo file) throws IOException {
+        JsonObject downlink = JsonParser.parseString(get(file.getUrl())).getAsJsonObject();
+        if (!checksums.containsKey(file.getId())) {
+            checksums.put(file.getId(),
+                    GogResponseParser.parseChecksumMd5(get(downlink.get("checksum").getAsString())));
+        }
+        return downlink.get("downlink").getAsString();
+    }
+
+    private String get(String url) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + server.getAccessToken())
+                .build();
+        try (Response response = client.newCall(request).execute()) {
+            if (!response.isSuccessful()) {
+                throw DownloadException.fromHttpStatus(response.code());
+            }
+            return response.body().string();
+        }
+    }
+
+    private File partialFile(FileInfo file) {
+        return new File(downloadDir, file.getId() + ".partial");
+    }
+
+    private static String md5(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), digest)) {
+            while (in.read(buffer) != -1) {
+                // Digest is updated as a side effect
+            }
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    // Feeds the controller the same samples as DownloadManager's transfer listener
+    private final RangedTransfer.Listener listener = new RangedTransfer.Listener() {
+        @Override
+        public void onConnected(long latencyMillis) {
+            controller.onLatencySample(latencyMillis);
+        }
+
+        @Override
+        public void onSizeKnown(long totalSize) {
+        }
+
+        @Override
+        public void onProgress(long position, int bytesRead) {
+            controller.onBytesTransferred(bytesRead);
+        }
+    };
+}
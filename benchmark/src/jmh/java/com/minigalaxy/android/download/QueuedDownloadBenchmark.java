@@ -0,0 +1,65 @@
+package com.minigalaxy.android.download;
+
+import com.minigalaxy.android.model.Download;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling and draining the download queues, as when a whole library or a
+ * large DLC set is queued at once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class QueuedDownloadBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int queueSize;
+
+    private QueuedDownload[] entries;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(queueSize);
+        long now = System.currentTimeMillis();
+        entries = new QueuedDownload[queueSize];
+        for (int i = 0; i < queueSize; i++) {
+            Download download = new Download();
+            download.setId("download_" + i);
+            download.setTotalSize(1 + random.nextInt(Integer.MAX_VALUE));
+            entries[i] = new QueuedDownload(download, random.nextInt(4), now - random.nextInt(600000));
+        }
+    }
+
+    @Benchmark
+    public QueuedDownload drainByPriority() {
+        return drain(new PriorityBlockingQueue<QueuedDownload>());
+    }
+
+    @Benchmark
+    public QueuedDownload drainShortestFirst() {
+        return drain(new PriorityBlockingQueue<>(11, QueuedDownload.SHORTEST_FIRST));
+    }
+
+    private QueuedDownload drain(PriorityBlockingQueue<QueuedDownload> queue) {
+        for (QueuedDownload entry : entries) {
+            queue.offer(entry);
+        }
+        QueuedDownload last = null;
+        while (!queue.isEmpty()) {
+            last = queue.poll();
+        }
+        return last;
+    }
+}
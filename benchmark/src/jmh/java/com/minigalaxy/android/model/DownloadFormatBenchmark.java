@@ -0,0 +1,35 @@
+package com.minigalaxy.android.model;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Progress text formatting, done for every download on every progress update
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DownloadFormatBenchmark {
+
+    private static final long[] SIZES = {512, 48 * 1024, 700L * 1024 * 1024, 37L * 1024 * 1024 * 1024};
+    private static final long[] SECONDS = {9, 540, 7300};
+
+    private int next;
+
+    @Benchmark
+    public String formatFileSize() {
+        return Download.formatFileSize(SIZES[next++ & 3]);
+    }
+
+    @Benchmark
+    public String formatTime() {
+        next = (next + 1) % SECONDS.length;
+        return Download.formatTime(SECONDS[next]);
+    }
+}
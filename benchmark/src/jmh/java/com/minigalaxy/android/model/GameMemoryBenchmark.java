@@ -0,0 +1,160 @@
+package com.minigalaxy.android.model;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.minigalaxy.android.api.GogResponseParser;
+import com.minigalaxy.android.benchmark.SyntheticLibrary;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heap held by a synced library, per game. The score is only the time to
+ * parse and walk it; read the bytesPerGame counter, which JOL computes from
+ * everything reachable from the games, counting shared objects such as
+ * interned strings once. The JSON tree is not included since it is garbage
+ * once a sync is done.
+ * <p>
+ * The "baseline" layout copies each game into {@link BaselineGame}, the shape
+ * Game had before its progress moved to {@link GameProgressTable}: four
+ * collections allocated per game, category, platform and language strings
+ * per game, and formatted speed and ETA strings. Compare the two with
+ * {@code gradle -p benchmark jmhJar} and then
+ * {@code java -jar benchmark/build/libs/minigalaxy-benchmark-jmh.jar GameMemoryBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class GameMemoryBenchmark {
+
+    @Param({"1000", "10000"})
+    public int librarySize;
+
+    // Every n-th game downloading; a quarter of the library at once is far more than usual
+    @Param({"0", "4"})
+    public int inFlightEvery;
+
+    @Param({"current", "baseline"})
+    public String layout;
+
+    private String libraryJson;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long bytesPerGame;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesPerGame = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        libraryJson = SyntheticLibrary.libraryJson(librarySize);
+    }
+
+    @Benchmark
+    public List<Game> syncedLibrary(Footprint footprint) {
+        JsonObject page = JsonParser.parseString(libraryJson).getAsJsonObject();
+        List<Game> games = GogResponseParser.parseGames(page);
+
+        GameProgressTable progress = GameProgressTable.getInstance();
+        progress.clear();
+        for (int i = 0; inFlightEvery > 0 && i < games.size(); i += inFlightEvery) {
+            Game game = games.get(i);
+            game.setDownloadState(Game.DownloadState.DOWNLOADING);
+            progress.update(game.getId(), 42, 5L * 1024 * 1024, 600);
+        }
+
+        if ("baseline".equals(layout)) {
+            List<BaselineGame> baseline = new ArrayList<>(games.size());
+            for (Game game : games) {
+                baseline.add(new BaselineGame(game));
+            }
+            footprint.bytesPerGame = GraphLayout.parseInstance(baseline).totalSize() / games.size();
+            return games;
+        }
+
+        footprint.bytesPerGame = GraphLayout.parseInstance(games, progress).totalSize() / games.size();
+        return games;
+    }
+
+    /**
+     * Fields of Game as they were when progress lived on every game
+     */
+    static final class BaselineGame {
+        private final String name;
+        private final String url;
+        private final Map<String, String> md5sum = new HashMap<>();
+        private final long id;
+        private final String installDir;
+        private final String imageUrl;
+        private final String platform;
+        private final List<DLC> dlcs = new ArrayList<>();
+        private final List<FileInfo> files = new ArrayList<>();
+        private final String category;
+        private final String description;
+        private final List<String> screenshots = new ArrayList<>();
+        private final String version;
+        private final long fileSize;
+        private final long installedSize;
+        private final String language;
+        private final boolean isInstalled;
+        private final boolean isDownloading;
+        private final boolean isQueued;
+        private final int downloadProgress;
+        private final String downloadSpeed;
+        private final String downloadEta;
+        private final Game.DownloadState downloadState;
+
+        BaselineGame(Game game) {
+            name = game.getName();
+            url = game.getUrl();
+            md5sum.putAll(game.getMd5sum());
+            id = game.getId();
+            installDir = game.getInstallDir();
+            imageUrl = game.getImageUrl();
+            // Each of these came from the game's own JSON node, not a shared instance
+            platform = copyOf(game.getPlatform());
+            dlcs.addAll(game.getDlcs());
+            files.addAll(game.getFiles());
+            category = copyOf(game.getCategory());
+            description = game.getDescription();
+            screenshots.addAll(game.getScreenshots());
+            version = game.getVersion();
+            fileSize = game.getFileSize();
+            installedSize = game.getInstalledSize();
+            language = copyOf(game.getLanguage());
+            isInstalled = game.isInstalled();
+            isDownloading = game.isDownloading();
+            isQueued = game.isQueued();
+            downloadProgress = game.getDownloadProgress();
+            downloadState = game.getDownloadState();
+            boolean inFlight = GameProgressTable.getInstance().contains(id);
+            downloadSpeed = inFlight ? game.getDownloadSpeed() : null;
+            downloadEta = inFlight ? game.getDownloadEta() : null;
+        }
+
+        private static String copyOf(String value) {
+            return value != null ? new String(value) : null;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.minigalaxy.android.repository;
+
+import com.minigalaxy.android.benchmark.SyntheticLibrary;
+import com.minigalaxy.android.model.Game;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Library search as run on every keystroke in the search box
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GameFilterBenchmark {
+
+    @Param({"100", "1000", "5000", "20000"})
+    public int librarySize;
+
+    // Typing progress: a single letter matches most titles, a full word only a few
+    @Param({"s", "que", "Chronicles", "zzz"})
+    public String query;
+
+    private List<Game> games;
+
+    @Setup
+    public void setUp() {
+        games = SyntheticLibrary.games(librarySize);
+    }
+
+    @Benchmark
+    public List<Game> searchByName() {
+        return GameFilter.searchByName(games, query);
+    }
+}
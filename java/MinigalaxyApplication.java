@@ -0,0 +1,209 @@
+package com.minigalaxy.android;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Trace;
+
+import com.minigalaxy.android.api.GogApi;
+import com.minigalaxy.android.auth.AuthenticationManager;
+import com.minigalaxy.android.config.Config;
+import com.minigalaxy.android.download.DownloadManager;
+import com.minigalaxy.android.install.GameUpdater;
+import com.minigalaxy.android.repository.GameRepository;
+
+/**
+ * Owns the app-wide managers. Nothing is built in onCreate: each manager is
+ * created on first use, so a cold start only pays for what the first screen
+ * touches. The download subsystem stays in DownloadManager.getInstance and is
+ * only started once something actually downloads.
+ */
+public class MinigalaxyApplication extends Application {
+
+    private final Lazy<Config> config = new Lazy<Config>("Config") {
+        @Override
+        protected Config create() {
+            return new Config(MinigalaxyApplication.this);
+        }
+    };
+
+    // One client and one access token shared by every manager
+    private final Lazy<GogApi> gogApi = new Lazy<GogApi>("GogApi") {
+        @Override
+        protected GogApi create() {
+            return new GogApi(getConfig());
+        }
+    };
+
+    private final Lazy<AuthenticationManager> authenticationManager =
+            new Lazy<AuthenticationManager>("AuthenticationManager") {
+        @Override
+        protected AuthenticationManager create() {
+            return new AuthenticationManager(getConfig(), getGogApi());
+        }
+    };
+
+    private final Lazy<GameRepository> gameRepository = new Lazy<GameRepository>("GameRepository") {
+        @Override
+        protected GameRepository create() {
+            return new GameRepository(getConfig(), getGogApi());
+        }
+    };
+
+    // Starts the download subsystem, so only created once an installed game needs checking
+    private final Lazy<GameUpdater> gameUpdater = new Lazy<GameUpdater>("GameUpdater") {
+        @Override
+        protected GameUpdater create() {
+            return new GameUpdater(getGogApi(), getDownloadManager(), getConfig());
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        registerActivityLifecycleCallbacks(new ForegroundTracker());
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // The process may be killed next, before a batched settings write is due
+        flushConfig();
+    }
+
+    public static MinigalaxyApplication from(Context context) {
+        return (MinigalaxyApplication) context.getApplicationContext();
+    }
+
+    public Config getConfig() {
+        return config.get();
+    }
+
+    public GogApi getGogApi() {
+        return gogApi.get();
+    }
+
+    public AuthenticationManager getAuthenticationManager() {
+        return authenticationManager.get();
+    }
+
+    public GameRepository getGameRepository() {
+        return gameRepository.get();
+    }
+
+    public DownloadManager getDownloadManager() {
+        return DownloadManager.getInstance(this);
+    }
+
+    public GameUpdater getGameUpdater() {
+        return gameUpdater.get();
+    }
+
+    /**
+     * Write batched settings changes now, if settings were ever loaded
+     */
+    private void flushConfig() {
+        Config current = config.peek();
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * Games run in another app, so Minigalaxy leaving the foreground is the
+     * sign that one is being played. Integrity checks are slowed down
+     * meanwhile so the game keeps its disk bandwidth. Batched settings are
+     * written out then too, as a background process can be killed at any time.
+     */
+    private class ForegroundTracker implements ActivityLifecycleCallbacks {
+
+        private int startedActivities;
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+            if (startedActivities++ == 0) {
+                setGameRunning(false);
+            }
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            // A rotating activity is stopped before its replacement starts
+            if (--startedActivities == 0 && !activity.isChangingConfigurations()) {
+                setGameRunning(true);
+                flushConfig();
+            }
+        }
+
+        private void setGameRunning(boolean running) {
+            // Nothing to slow down if the repository was never needed
+            GameRepository repository = gameRepository.peek();
+            if (repository != null) {
+                repository.setGameRunning(running);
+            }
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    }
+
+    /**
+     * Thread-safe lazy holder; the value is created at most once
+     */
+    private abstract static class Lazy<T> {
+
+        private final String traceSection;
+        private volatile T value;
+
+        Lazy(String traceSection) {
+            this.traceSection = traceSection;
+        }
+
+        protected abstract T create();
+
+        /**
+         * The value if it was already created, without creating it
+         */
+        T peek() {
+            return value;
+        }
+
+        T get() {
+            T result = value;
+            if (result == null) {
+                synchronized (this) {
+                    result = value;
+                    if (result == null) {
+                        // Shows up in startup traces so slow constructors are easy to spot
+                        Trace.beginSection("init " + traceSection);
+                        try {
+                            result = create();
+                            value = result;
+                        } finally {
+                            Trace.endSection();
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.minigalaxy.android.api;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Optional parts of a GOG product payload, named after the API's expand
+ * parameter. The product header (title, images, links) always comes along.
+ */
+public enum Expand {
+    /** Installers, patches, language packs and bonus content, with sizes */
+    DOWNLOADS("downloads"),
+    /** Store page text; HTML that often runs to tens of kilobytes */
+    DESCRIPTION("description"),
+    /** Screenshot URLs */
+    SCREENSHOTS("screenshots");
+
+    /** What the library list shows: sizes and versions */
+    public static final Set<Expand> LIST = Collections.unmodifiableSet(EnumSet.of(DOWNLOADS));
+    /** What the game details screen shows */
+    public static final Set<Expand> DETAILS = Collections.unmodifiableSet(EnumSet.of(DOWNLOADS, DESCRIPTION));
+    public static final Set<Expand> ALL = Collections.unmodifiableSet(EnumSet.allOf(Expand.class));
+
+    private final String param;
+
+    Expand(String param) {
+        this.param = param;
+    }
+
+    public String getParam() {
+        return param;
+    }
+
+    /**
+     * Value for the expand query parameter, e.g. "downloads,description"
+     */
+    public static String toQuery(Set<Expand> expand) {
+        StringBuilder query = new StringBuilder();
+        for (Expand part : expand) {
+            if (query.length() > 0) {
+                query.append(',');
+            }
+            query.append(part.param);
+        }
+        return query.toString();
+    }
+}
@@ -1,31 +1,37 @@
 package com.minigalaxy.android.api;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
 import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.reflect.TypeToken;
 import com.minigalaxy.android.config.Config;
 import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.metrics.EndpointMetrics;
+import com.minigalaxy.android.metrics.MetricsRegistry;
 import com.minigalaxy.android.model.FileInfo;
 import com.minigalaxy.android.model.Game;
 
 import java.io.IOException;
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import okhttp3.FormBody;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 
 /**
  * Main API client for GOG services
@@ -34,11 +40,19 @@ public class GogApi {
     
     private static final String TAG = "GogApi";
     
+    private static final EndpointMetrics TOKEN_METRICS = MetricsRegistry.getInstance().endpoint("api.token");
+    private static final EndpointMetrics LIBRARY_METRICS = MetricsRegistry.getInstance().endpoint("api.library");
+    private static final EndpointMetrics DETAILS_METRICS = MetricsRegistry.getInstance().endpoint("api.details");
+    private static final EndpointMetrics DOWNLINK_METRICS = MetricsRegistry.getInstance().endpoint("api.downlink");
+    private static final EndpointMetrics CHECKSUM_METRICS = MetricsRegistry.getInstance().endpoint("api.checksum");
+    private static final EndpointMetrics PING_METRICS = MetricsRegistry.getInstance().endpoint("api.ping");
+    
     private final Config config;
     private final OkHttpClient httpClient;
     private final Gson gson;
-    private String activeToken;
-    private long activeTokenExpirationTime;
+    // Shared by every manager, so requests on other threads see a refreshed token
+    private volatile String activeToken;
+    private volatile long activeTokenExpirationTime;
     
     public GogApi(Config config) {
         this.config = config;
@@ -85,9 +99,9 @@ public class GogApi {
                 .post(formBody)
                 .build();
         
-        try (Response response = httpClient.newCall(request).execute()) {
+        try (Response response = execute(request, TOKEN_METRICS, "GogApi.token")) {
             if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
+                String responseBody = readBody(response.body(), TOKEN_METRICS);
                 JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
                 
                 String accessToken = jsonResponse.get("access_token").getAsString();
@@ -122,9 +136,9 @@ public class GogApi {
                 .post(formBody)
                 .build();
         
-        try (Response response = httpClient.newCall(request).execute()) {
+        try (Response response = execute(request, TOKEN_METRICS, "GogApi.token")) {
             if (response.isSuccessful() && response.body() != null) {
-                String responseBody = response.body().string();
+                String responseBody = readBody(response.body(), TOKEN_METRICS);
                 JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
                 
                 String accessToken = jsonResponse.get("access_token").getAsString();
@@ -156,9 +170,9 @@ public class GogApi {
                     .addHeader("Authorization", "Bearer " + activeToken)
                     .build();
             
-            try (Response response = httpClient.newCall(request).execute()) {
+            try (Response response = execute(request, LIBRARY_METRICS, "GogApi.library")) {
                 if (response.isSuccessful() && response.body() != null) {
-                    String responseBody = response.body().string();
+                    String responseBody = readBody(response.body(), LIBRARY_METRICS);
                     JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
                     
                     List<Game> games = parseGamesFromResponse(jsonResponse);
@@ -174,42 +188,79 @@ public class GogApi {
     }
     
     /**
-     * Get detailed game information
+     * Get detailed game information with every optional part
      */
     public ApiResponse<Game> getGameDetails(long gameId) {
+        return getGameDetails(gameId, Expand.ALL);
+    }
+    
+    /**
+     * Get the product header plus only the requested parts, so asking for
+     * downloads does not pull in description HTML or screenshots. Not cached
+     * here; GameRepository caches what the screens show.
+     */
+    public ApiResponse<Game> getGameDetails(long gameId, Set<Expand> expand) {
         try {
-            if (!ensureValidToken()) {
-                return ApiResponse.error("Authentication required");
-            }
-            
-            String url = Constants.GOG_GAME_DETAILS_URL + gameId + "?expand=downloads,description,screenshots";
-            
-            Request request = new Request.Builder()
-                    .url(url)
-                    .addHeader("Authorization", "Bearer " + activeToken)
-                    .build();
-            
-            try (Response response = httpClient.newCall(request).execute()) {
-                if (response.isSuccessful() && response.body() != null) {
-                    String responseBody = response.body().string();
-                    JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
-                    
-                    Game game = parseGameDetails(jsonResponse);
-                    return ApiResponse.success(game);
-                } else {
-                    return ApiResponse.error("Failed to get game details: " + response.code());
-                }
-            }
+            return fetchGameDetails(gameId, expand);
         } catch (Exception e) {
             Log.e(TAG, "Error getting game details", e);
             return ApiResponse.error("Failed to get game details: " + e.getMessage());
         }
     }
     
+    private ApiResponse<Game> fetchGameDetails(long gameId, Set<Expand> expand) throws IOException {
+        if (!ensureValidToken()) {
+            return ApiResponse.error("Authentication required");
+        }
+        
+        String url = Constants.GOG_GAME_DETAILS_URL + gameId;
+        if (!expand.isEmpty()) {
+            url += "?expand=" + Expand.toQuery(expand);
+        }
+        
+        Request request = new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + activeToken)
+                .build();
+        
+        try (Response response = execute(request, DETAILS_METRICS, "GogApi.details")) {
+            if (response.isSuccessful() && response.body() != null) {
+                String responseBody = readBody(response.body(), DETAILS_METRICS);
+                JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
+                
+                Game game = parseGameDetails(jsonResponse, expand);
+                if (game == null) {
+                    return ApiResponse.error("Failed to parse game details");
+                }
+                return ApiResponse.success(game);
+            } else {
+                return ApiResponse.error("Failed to get game details: " + response.code());
+            }
+        }
+    }
+    
     /**
      * Get download link for a game file
      */
     public ApiResponse<String> getDownloadLink(long gameId, long fileId) {
+        return getDownloadLink(gameId, "installer", String.valueOf(fileId));
+    }
+    
+    /**
+     * Get a signed download link for a file of the given type (installer, patch, ...)
+     */
+    public ApiResponse<String> getDownloadLink(long gameId, String fileType, String fileId) {
+        ApiResponse<Downlink> response = getDownlink(gameId, fileType, fileId);
+        if (!response.isSuccess()) {
+            return ApiResponse.error(response.getErrorMessage());
+        }
+        return ApiResponse.success(response.getData().getUrl());
+    }
+    
+    /**
+     * Get a signed download link along with the link to the file's checksum
+     */
+    public ApiResponse<Downlink> getDownlink(long gameId, String fileType, String fileId) {
         try {
             if (!ensureValidToken()) {
                 return ApiResponse.error("Authentication required");
@@ -217,21 +268,23 @@ public class GogApi {
             
             String url = Constants.GOG_DOWNLOAD_URL
                     .replace("{id}", String.valueOf(gameId))
-                    .replace("{type}", "installer")
-                    .replace("{file_id}", String.valueOf(fileId));
+                    .replace("{type}", fileType)
+                    .replace("{file_id}", fileId);
             
             Request request = new Request.Builder()
                     .url(url)
                     .addHeader("Authorization", "Bearer " + activeToken)
                     .build();
             
-            try (Response response = httpClient.newCall(request).execute()) {
+            try (Response response = execute(request, DOWNLINK_METRICS, "GogApi.downlink")) {
                 if (response.isSuccessful() && response.body() != null) {
-                    String responseBody = response.body().string();
+                    String responseBody = readBody(response.body(), DOWNLINK_METRICS);
                     JsonObject jsonResponse = JsonParser.parseString(responseBody).getAsJsonObject();
                     
                     String downloadLink = jsonResponse.get("downlink").getAsString();
-                    return ApiResponse.success(downloadLink);
+                    String checksumLink = jsonResponse.has("checksum") && !jsonResponse.get("checksum").isJsonNull()
+                            ? jsonResponse.get("checksum").getAsString() : null;
+                    return ApiResponse.success(new Downlink(downloadLink, checksumLink));
                 } else {
                     return ApiResponse.error("Failed to get download link: " + response.code());
                 }
@@ -242,19 +295,53 @@ public class GogApi {
         }
     }
     
+    /**
+     * Get the MD5 of a file from the checksum XML its downlink points to.
+     * The product manifest has no checksums; this is the only place GOG serves them.
+     */
+    public ApiResponse<String> getChecksum(String checksumUrl) {
+        try {
+            // Signed like the file link itself, so no authorization header
+            Request request = new Request.Builder()
+                    .url(checksumUrl)
+                    .build();
+            
+            try (Response response = execute(request, CHECKSUM_METRICS, "GogApi.checksum")) {
+                if (response.isSuccessful() && response.body() != null) {
+                    String responseBody = readBody(response.body(), CHECKSUM_METRICS);
+                    
+                    String md5 = GogResponseParser.parseChecksumMd5(responseBody);
+                    if (md5 == null) {
+                        return ApiResponse.error("No checksum for this file");
+                    }
+                    return ApiResponse.success(md5);
+                } else {
+                    return ApiResponse.error("Failed to get checksum: " + response.code());
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error getting checksum", e);
+            return ApiResponse.error("Failed to get checksum: " + e.getMessage());
+        }
+    }
+    
     /**
      * Get file information for a game
      */
     public ApiResponse<List<FileInfo>> getGameFiles(long gameId, String platform, String language) {
         try {
-            ApiResponse<Game> gameResponse = getGameDetails(gameId);
+            ApiResponse<Game> gameResponse = getGameDetails(gameId, EnumSet.of(Expand.DOWNLOADS));
             if (!gameResponse.isSuccess()) {
                 return ApiResponse.error(gameResponse.getErrorMessage());
             }
+            List<FileInfo> manifest = gameResponse.getData().getFiles();
             
-            // Parse file information from game details
-            // This would need to be implemented based on GOG API response structure
             List<FileInfo> files = new ArrayList<>();
+            for (FileInfo file : manifest) {
+                if (file.matchesPlatform(platform) && file.matchesLanguage(language)) {
+                    files.add(file);
+                }
+            }
             
             return ApiResponse.success(files);
         } catch (Exception e) {
@@ -264,18 +351,34 @@ public class GogApi {
     }
     
     /**
-     * Check if current token is valid and refresh if necessary
+     * Run a request, recording latency to the response headers and the status
+     * under the endpoint's metrics. Body size is recorded by the caller once read.
      */
-    private boolean ensureValidToken() {
-        if (activeToken == null || activeToken.isEmpty()) {
-            return false;
+    private Response execute(Request request, EndpointMetrics endpoint, String traceSection) throws IOException {
+        Trace.beginSection(traceSection);
+        long start = SystemClock.elapsedRealtime();
+        try {
+            Response response = httpClient.newCall(request).execute();
+            endpoint.recordResponse(response.code(), SystemClock.elapsedRealtime() - start);
+            return response;
+        } catch (IOException e) {
+            endpoint.recordFailure(SystemClock.elapsedRealtime() - start);
+            throw e;
+        } finally {
+            Trace.endSection();
         }
-        
-        // Check if token is about to expire (5 minutes buffer)
-        if (System.currentTimeMillis() >= (activeTokenExpirationTime - 300000)) {
+    }
+    
+    /**
+     * Check if current token is valid and refresh if necessary
+     */
+    private synchronized boolean ensureValidToken() {
+        // Check if token is missing or about to expire (5 minutes buffer)
+        if (activeToken == null || activeToken.isEmpty()
+                || System.currentTimeMillis() >= (activeTokenExpirationTime - 300000)) {
             String refreshToken = config.getRefreshToken();
             if (refreshToken != null && !refreshToken.isEmpty()) {
-                ApiResponse<AuthResult> refreshResponse = refreshToken(refreshToken);
+                ApiResponse<AuthResult> refreshResponse = authenticate(null, refreshToken);
                 if (refreshResponse.isSuccess()) {
                     AuthResult result = refreshResponse.getData();
                     config.setRefreshToken(result.getRefreshToken());
@@ -295,96 +398,31 @@ public class GogApi {
      * Parse games from API response
      */
     private List<Game> parseGamesFromResponse(JsonObject response) {
-        List<Game> games = new ArrayList<>();
-        
+        List<RuntimeException> failures = new ArrayList<>();
         try {
-            JsonArray products = response.getAsJsonArray("products");
-            if (products != null) {
-                for (JsonElement element : products) {
-                    JsonObject gameObj = element.getAsJsonObject();
-                    
-                    long id = gameObj.get("id").getAsLong();
-                    
-                    // Skip ignored games
-                    if (Constants.IGNORE_GAME_IDS.contains(id)) {
-                        continue;
-                    }
-                    
-                    Game game = parseGameFromJson(gameObj);
-                    if (game != null) {
-                        games.add(game);
-                    }
-                }
+            List<Game> games = GogResponseParser.parseGames(response, failures);
+            for (RuntimeException failure : failures) {
+                Log.e(TAG, "Error parsing game", failure);
             }
-        } catch (Exception e) {
+            return games;
+        } catch (RuntimeException e) {
             Log.e(TAG, "Error parsing games", e);
+            return new ArrayList<>();
         }
-        
-        return games;
     }
     
     /**
-     * Parse single game from JSON
+     * Parse detailed game information with only the requested parts
      */
-    private Game parseGameFromJson(JsonObject gameObj) {
+    private Game parseGameDetails(JsonObject gameObj, Set<Expand> expand) {
         try {
-            Game game = new Game();
-            
-            game.setId(gameObj.get("id").getAsLong());
-            game.setName(gameObj.get("title").getAsString());
-            
-            if (gameObj.has("url")) {
-                game.setUrl(gameObj.get("url").getAsString());
-            }
-            
-            if (gameObj.has("image")) {
-                game.setImageUrl(gameObj.get("image").getAsString());
-            }
-            
-            if (gameObj.has("category")) {
-                game.setCategory(gameObj.get("category").getAsString());
-            }
-            
-            // Set platform based on available downloads
-            game.setPlatform("linux"); // Default to linux for Android client
-            
-            return game;
-        } catch (Exception e) {
-            Log.e(TAG, "Error parsing game from JSON", e);
+            return GogResponseParser.parseGameDetails(gameObj, expand);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Error parsing game details", e);
             return null;
         }
     }
     
-    /**
-     * Parse detailed game information
-     */
-    private Game parseGameDetails(JsonObject gameObj) {
-        Game game = parseGameFromJson(gameObj);
-        
-        if (game != null) {
-            try {
-                if (gameObj.has("description")) {
-                    JsonObject description = gameObj.getAsJsonObject("description");
-                    if (description.has("full")) {
-                        game.setDescription(description.get("full").getAsString());
-                    }
-                }
-                
-                if (gameObj.has("downloads")) {
-                    JsonObject downloads = gameObj.getAsJsonObject("downloads");
-                    // Parse download information
-                    // This would need to be implemented based on actual GOG API structure
-                }
-                
-                // Parse additional fields as needed
-            } catch (Exception e) {
-                Log.e(TAG, "Error parsing game details", e);
-            }
-        }
-        
-        return game;
-    }
-    
     /**
      * Check network connectivity
      */
@@ -395,7 +433,7 @@ public class GogApi {
                     .head()
                     .build();
             
-            try (Response response = httpClient.newCall(request).execute()) {
+            try (Response response = execute(request, PING_METRICS, "GogApi.ping")) {
                 return response.isSuccessful();
             }
         } catch (Exception e) {
@@ -403,6 +441,40 @@ public class GogApi {
         }
     }
     
+    /**
+     * Signed file link as returned by the downlink endpoint
+     */
+    public static class Downlink {
+        private final String url;
+        private final String checksumUrl;
+        
+        public Downlink(String url, String checksumUrl) {
+            this.url = url;
+            this.checksumUrl = checksumUrl;
+        }
+        
+        public String getUrl() {
+            return url;
+        }
+        
+        /**
+         * Link to the checksum XML, or null if GOG has none for this file
+         */
+        public String getChecksumUrl() {
+            return checksumUrl;
+        }
+    }
+    
+    /**
+     * Read a JSON body and record its size in bytes; {@code String.length()}
+     * would count UTF-16 chars instead
+     */
+    private static String readBody(ResponseBody body, EndpointMetrics metrics) throws IOException {
+        byte[] bytes = body.bytes();
+        metrics.recordBytes(bytes.length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
     /**
      * Authentication result class
      */
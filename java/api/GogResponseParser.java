@@ -0,0 +1,321 @@
+package com.minigalaxy.android.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.model.FileInfo;
+import com.minigalaxy.android.model.Game;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+/**
+ * Turns GOG API payloads into model objects. Kept free of Android and
+ * networking so it can run on a plain JVM, e.g. in the benchmark module.
+ * Malformed payloads surface as the RuntimeException Gson throws.
+ */
+public final class GogResponseParser {
+
+    private static final Pattern PATCH_VERSIONS_PATTERN =
+            Pattern.compile("([\\w.\\-]+)\\s*(?:->|\\bto\\b)\\s*([\\w.\\-]+)");
+
+    private GogResponseParser() {
+    }
+
+    /**
+     * Parse the products of a library page, skipping ignored and malformed entries
+     */
+    public static List<Game> parseGames(JsonObject response) {
+        return parseGames(response, null);
+    }
+
+    /**
+     * Parse the products of a library page, skipping ignored and malformed entries.
+     * The error for each malformed product is added to {@code failures} if it is not null.
+     */
+    public static List<Game> parseGames(JsonObject response, List<RuntimeException> failures) {
+        List<Game> games = new ArrayList<>();
+
+        JsonArray products = response.getAsJsonArray("products");
+        if (products == null) {
+            return games;
+        }
+
+        for (JsonElement element : products) {
+            try {
+                JsonObject gameObj = element.getAsJsonObject();
+
+                // Skip ignored games
+                if (Constants.IGNORE_GAME_IDS.contains(gameObj.get("id").getAsLong())) {
+                    continue;
+                }
+
+                games.add(parseGame(gameObj));
+            } catch (RuntimeException e) {
+                // One broken product should not hide the rest of the library
+                if (failures != null) {
+                    failures.add(e);
+                }
+            }
+        }
+
+        return games;
+    }
+
+    /**
+     * Parse single game from JSON
+     */
+    public static Game parseGame(JsonObject gameObj) {
+        Game game = new Game();
+
+        game.setId(gameObj.get("id").getAsLong());
+        game.setName(gameObj.get("title").getAsString());
+
+        if (gameObj.has("url")) {
+            game.setUrl(gameObj.get("url").getAsString());
+        }
+
+        if (gameObj.has("image")) {
+            game.setImageUrl(gameObj.get("image").getAsString());
+        }
+
+        if (gameObj.has("category")) {
+            game.setCategory(gameObj.get("category").getAsString());
+        }
+
+        // Set platform based on available downloads
+        game.setPlatform("linux"); // Default to linux for Android client
+
+        return game;
+    }
+
+    /**
+     * Parse detailed game information, including the download manifest when present
+     */
+    public static Game parseGameDetails(JsonObject gameObj) {
+        return parseGameDetails(gameObj, Expand.ALL);
+    }
+
+    /**
+     * Parse the header plus only the given parts; anything else in the payload is left alone
+     */
+    public static Game parseGameDetails(JsonObject gameObj, Set<Expand> expand) {
+        Game game = parseGame(gameObj);
+
+        if (expand.contains(Expand.DESCRIPTION)) {
+            game.setDescription(parseDescription(gameObj));
+        }
+
+        if (expand.contains(Expand.DOWNLOADS) && gameObj.has("downloads") && gameObj.get("downloads").isJsonObject()) {
+            applyDownloads(game, parseDownloads(game.getId(), gameObj.getAsJsonObject("downloads")));
+        }
+
+        if (expand.contains(Expand.SCREENSHOTS)) {
+            game.setScreenshots(parseScreenshots(gameObj));
+        }
+
+        return game;
+    }
+
+    /**
+     * Full store description, or null when the product has none
+     */
+    public static String parseDescription(JsonObject gameObj) {
+        if (gameObj.has("description") && gameObj.get("description").isJsonObject()) {
+            return getString(gameObj.getAsJsonObject("description"), "full");
+        }
+        return null;
+    }
+
+    /**
+     * Full-size screenshot URLs, in store order
+     */
+    public static List<String> parseScreenshots(JsonObject gameObj) {
+        List<String> screenshots = new ArrayList<>();
+        if (!gameObj.has("screenshots") || !gameObj.get("screenshots").isJsonArray()) {
+            return screenshots;
+        }
+
+        for (JsonElement element : gameObj.getAsJsonArray("screenshots")) {
+            // "https://images.gog-statics.com/<hash>_{formatter}.jpg"; no formatter is the original
+            String template = getString(element.getAsJsonObject(), "formatter_template_url");
+            if (template != null) {
+                screenshots.add(template.replace("_{formatter}", "").replace("{formatter}", ""));
+            }
+        }
+        return screenshots;
+    }
+
+    /**
+     * Set the manifest along with the Linux installer size and version derived from it
+     */
+    private static void applyDownloads(Game game, List<FileInfo> files) {
+        game.setFiles(files);
+
+        long installerSize = 0;
+        for (FileInfo file : files) {
+            if (file.isInstaller() && file.isLinuxCompatible()) {
+                installerSize += file.getSize();
+                if (game.getLatestVersion() == null) {
+                    game.setLatestVersion(file.getVersion());
+                }
+            }
+        }
+        game.setFileSize(installerSize);
+    }
+
+    /**
+     * Parse the installers, patches, language packs and bonus content of an
+     * expand=downloads payload into one FileInfo per downloadable part
+     */
+    public static List<FileInfo> parseDownloads(long gameId, JsonObject downloads) {
+        List<FileInfo> files = new ArrayList<>();
+
+        parseDownloadSection(gameId, downloads, "installers", "installer", files);
+        parseDownloadSection(gameId, downloads, "patches", "patch", files);
+        parseDownloadSection(gameId, downloads, "language_packs", "language_pack", files);
+        parseDownloadSection(gameId, downloads, "bonus_content", "bonus", files);
+
+        return files;
+    }
+
+    private static void parseDownloadSection(long gameId, JsonObject downloads, String section,
+                                             String type, List<FileInfo> files) {
+        if (!downloads.has(section) || !downloads.get(section).isJsonArray()) {
+            return;
+        }
+
+        for (JsonElement element : downloads.getAsJsonArray(section)) {
+            JsonObject installer = element.getAsJsonObject();
+
+            String installerId = getString(installer, "id");
+            String name = getString(installer, "name");
+            String os = getString(installer, "os");
+            String language = getString(installer, "language");
+            String version = getString(installer, "version");
+
+            if (!installer.has("files") || !installer.get("files").isJsonArray()) {
+                continue;
+            }
+
+            JsonArray parts = installer.getAsJsonArray("files");
+            for (int i = 0; i < parts.size(); i++) {
+                JsonObject part = parts.get(i).getAsJsonObject();
+
+                FileInfo file = new FileInfo();
+                file.setId(getString(part, "id"));
+                file.setGameId(gameId);
+                file.setInstallerId(installerId);
+                file.setPartIndex(i);
+                file.setType(type);
+                file.setPlatform(os);
+                file.setLanguage(language);
+                file.setVersion(version);
+                file.setSize(part.has("size") ? part.get("size").getAsLong() : 0);
+                // Parts carry no checksum; it comes from the XML the resolved downlink points to
+                if ("patch".equals(type)) {
+                    parsePatchVersions(file, name, version);
+                }
+
+                String downlink = getString(part, "downlink");
+                file.setUrl(downlink);
+                file.setDownlinkType(getDownlinkType(downlink, type));
+                file.setFilename(buildPartFilename(name != null ? name : installerId, os, i));
+
+                files.add(file);
+            }
+        }
+    }
+
+    /**
+     * MD5 of the whole file from a downlink's checksum XML, which looks like
+     * {@code <file name="setup.exe" md5="..." total_size="..."><chunk .../></file>}
+     *
+     * @return the checksum, or null if the document has none
+     */
+    public static String parseChecksumMd5(String xml) {
+        Element file;
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setExpandEntityReferences(false);
+            Document document = factory.newDocumentBuilder()
+                    .parse(new InputSource(new StringReader(xml)));
+            file = document.getDocumentElement();
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            throw new IllegalArgumentException("Malformed checksum document", e);
+        }
+
+        String md5 = file.getAttribute("md5");
+        return md5.isEmpty() ? null : md5.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Patches are named like "Patch (1.2 to 1.3)" or versioned "1.2 -> 1.3"
+     */
+    private static void parsePatchVersions(FileInfo file, String name, String version) {
+        for (String text : new String[]{version, name}) {
+            if (text == null) {
+                continue;
+            }
+            Matcher matcher = PATCH_VERSIONS_PATTERN.matcher(text);
+            if (matcher.find()) {
+                file.setFromVersion(matcher.group(1));
+                file.setVersion(matcher.group(2));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Extract {type} from ".../products/{id}/downlink/{type}/{file_id}"
+     */
+    private static String getDownlinkType(String downlink, String fallback) {
+        if (downlink != null) {
+            int index = downlink.indexOf("/downlink/");
+            if (index != -1) {
+                String rest = downlink.substring(index + "/downlink/".length());
+                int slash = rest.indexOf('/');
+                if (slash > 0) {
+                    return rest.substring(0, slash);
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * Local file name for a part; GOG only reveals the real name once the link is resolved
+     */
+    private static String buildPartFilename(String name, String os, int partIndex) {
+        String base = name.trim().replaceAll("[^a-zA-Z0-9\\-_]+", "_");
+
+        if (Constants.PLATFORM_LINUX.equals(os)) {
+            return partIndex == 0 ? base + ".sh" : base + "-" + partIndex + ".sh";
+        } else if (Constants.PLATFORM_MAC.equals(os) || "osx".equals(os)) {
+            return partIndex == 0 ? base + ".pkg" : base + "-" + partIndex + ".pkg";
+        }
+        return partIndex == 0 ? base + ".exe" : base + "-" + partIndex + ".bin";
+    }
+
+    private static String getString(JsonObject obj, String key) {
+        if (obj.has(key) && !obj.get(key).isJsonNull()) {
+            return obj.get(key).getAsString();
+        }
+        return null;
+    }
+}
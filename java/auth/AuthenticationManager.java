@@ -1,14 +1,13 @@
 package com.minigalaxy.android.auth;
 
-import android.content.Context;
 import android.util.Log;
 
 import com.minigalaxy.android.api.ApiResponse;
 import com.minigalaxy.android.api.GogApi;
+import com.minigalaxy.android.concurrent.AppExecutors;
 import com.minigalaxy.android.config.Config;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Manager for handling GOG authentication
@@ -21,13 +20,13 @@ public class AuthenticationManager {
     private final GogApi gogApi;
     private final ExecutorService executorService;
     
-    private boolean isAuthenticated = false;
+    private volatile boolean isAuthenticated = false;
     private String currentUsername = "";
     
-    public AuthenticationManager(Context context, Config config) {
+    public AuthenticationManager(Config config, GogApi gogApi) {
         this.config = config;
-        this.gogApi = new GogApi(config);
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.gogApi = gogApi;
+        this.executorService = AppExecutors.getInstance().io();
         
         // Check if already authenticated
         checkExistingAuthentication();
@@ -248,13 +247,6 @@ public class AuthenticationManager {
         return url != null && url.startsWith(com.minigalaxy.android.config.Constants.GOG_LOGIN_SUCCESS_URL);
     }
     
-    /**
-     * Cleanup resources
-     */
-    public void cleanup() {
-        executorService.shutdown();
-    }
-    
     // Callback interfaces
     public interface AuthenticationCallback {
         void onAuthenticationSuccess(String username);
@@ -0,0 +1,89 @@
+package com.minigalaxy.android.concurrent;
+
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The app's background threads, sized to the device rather than to whichever
+ * class needed one:
+ * <ul>
+ *   <li>{@link #io()} for network calls and other work that mostly waits</li>
+ *   <li>{@link #cpu()} for parsing, hashing and other computation, one thread per core</li>
+ *   <li>{@link #disk()} for writing, patching and moving files; flash storage gains little from more threads</li>
+ * </ul>
+ * Their queues are bounded; see {@link BoundedExecutor} for what happens when one fills up.
+ * Nothing here is ever shut down, so callers must not shut these pools down either.
+ */
+public final class AppExecutors {
+
+    private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+
+    private static final int IO_THREADS = Math.max(4, CPU_COUNT * 2);
+    private static final int IO_QUEUE_CAPACITY = 128;
+    private static final int CPU_THREADS = Math.max(2, CPU_COUNT);
+    private static final int CPU_QUEUE_CAPACITY = 64;
+    private static final int DISK_THREADS = 2;
+    private static final int DISK_QUEUE_CAPACITY = 64;
+
+    private static volatile AppExecutors instance;
+
+    private final BoundedExecutor io;
+    private final BoundedExecutor cpu;
+    private final BoundedExecutor disk;
+
+    private AppExecutors() {
+        this.io = new BoundedExecutor("io", IO_THREADS, new ArrayBlockingQueue<Runnable>(IO_QUEUE_CAPACITY));
+        this.cpu = new BoundedExecutor("cpu", CPU_THREADS, new ArrayBlockingQueue<Runnable>(CPU_QUEUE_CAPACITY));
+        this.disk = new BoundedExecutor("disk", DISK_THREADS, new ArrayBlockingQueue<Runnable>(DISK_QUEUE_CAPACITY));
+    }
+
+    public static AppExecutors getInstance() {
+        AppExecutors result = instance;
+        if (result == null) {
+            synchronized (AppExecutors.class) {
+                result = instance;
+                if (result == null) {
+                    result = new AppExecutors();
+                    instance = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    public BoundedExecutor io() {
+        return io;
+    }
+
+    public BoundedExecutor cpu() {
+        return cpu;
+    }
+
+    public BoundedExecutor disk() {
+        return disk;
+    }
+
+    /**
+     * Dedicated pool for long-running work that would otherwise hold the shared
+     * pools' threads for minutes, such as downloads. The queue is not bounded, so
+     * the owner must limit how much it submits, as DownloadManager does with slots.
+     */
+    public static BoundedExecutor newDedicatedPool(String name, int threads) {
+        return new BoundedExecutor(name, threads, new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Threads named "name-1", "name-2"... running at background priority
+     */
+    public static ThreadFactory threadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, name + "-" + count.incrementAndGet());
+    }
+}
@@ -0,0 +1,175 @@
+package com.minigalaxy.android.concurrent;
+
+import android.os.Looper;
+import android.util.Log;
+
+import com.minigalaxy.android.metrics.Counter;
+import com.minigalaxy.android.metrics.Gauge;
+import com.minigalaxy.android.metrics.Histogram;
+import com.minigalaxy.android.metrics.MetricsRegistry;
+
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pool with named threads that reports under "executor.&lt;name&gt;":
+ * active threads, queue length, time spent queued and running, and how often
+ * the submitter had to run a task itself because the queue was full.
+ * <p>
+ * The main thread never runs a task itself; what it submits to a full pool
+ * waits in an unbounded overflow queue that workers move into the pool's
+ * queue as they free up, so UI entry points never see a rejection.
+ */
+public class BoundedExecutor extends ThreadPoolExecutor {
+
+    private static final String TAG = "BoundedExecutor";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String name;
+    private final Gauge activeGauge;
+    private final Gauge queuedGauge;
+    private final Histogram queueWait;
+    private final Histogram runTime;
+    private final Counter callerRuns;
+    private final Counter overflowed;
+    // Main-thread tasks that did not fit in the queue, oldest first
+    private final Queue<Runnable> overflow = new ConcurrentLinkedQueue<>();
+
+    public BoundedExecutor(String name, int threads, BlockingQueue<Runnable> queue) {
+        super(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, queue,
+                AppExecutors.threadFactory(name), new CallerRunsUnlessMainThread());
+        this.name = name;
+        // Idle pools give their threads back
+        allowCoreThreadTimeOut(true);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String prefix = "executor." + name;
+        this.activeGauge = metrics.gauge(prefix + ".active");
+        this.queuedGauge = metrics.gauge(prefix + ".queued");
+        this.queueWait = metrics.histogram(prefix + ".queue_wait_ms");
+        this.runTime = metrics.histogram(prefix + ".run_ms");
+        this.callerRuns = metrics.counter(prefix + ".caller_runs");
+        this.overflowed = metrics.counter(prefix + ".overflowed");
+        metrics.gauge(prefix + ".threads").set(threads);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        super.execute(new TimedTask(command));
+        queuedGauge.set(getQueue().size());
+    }
+
+    /**
+     * Queue a task only if there is room, for work that is fine to drop
+     * (prefetching and the like) rather than slow the caller down
+     *
+     * @return false if the pool is saturated or shut down
+     */
+    public boolean tryExecute(Runnable command) {
+        if (isShutdown() || getQueue().remainingCapacity() == 0) {
+            return false;
+        }
+        try {
+            super.execute(new TimedTask(command));
+            queuedGauge.set(getQueue().size());
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        super.beforeExecute(thread, task);
+        if (task instanceof TimedTask) {
+            TimedTask timed = (TimedTask) task;
+            timed.startedAt = System.nanoTime();
+            queueWait.record(TimeUnit.NANOSECONDS.toMillis(timed.startedAt - timed.queuedAt));
+        }
+        activeGauge.set(getActiveCount());
+        queuedGauge.set(getQueue().size());
+    }
+
+    @Override
+    protected void afterExecute(Runnable task, Throwable error) {
+        super.afterExecute(task, error);
+        if (task instanceof TimedTask) {
+            TimedTask timed = (TimedTask) task;
+            runTime.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timed.startedAt));
+        }
+        if (error != null) {
+            Log.e(TAG, "Uncaught error in " + name + " task", error);
+        }
+        drainOverflow();
+        // This thread still counts as active until it returns
+        activeGauge.set(getActiveCount() - 1);
+    }
+
+    /**
+     * Move overflowed tasks into the pool's queue while it has room. Called
+     * by a worker before it takes its next task, so the queue is never left
+     * with overflow waiting and no thread to run it.
+     */
+    private void drainOverflow() {
+        synchronized (overflow) {
+            Runnable next;
+            while (!isShutdown() && (next = overflow.peek()) != null && getQueue().offer(next)) {
+                overflow.poll();
+            }
+        }
+    }
+
+    private static class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long queuedAt = System.nanoTime();
+        private long startedAt;
+
+        TimedTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    /**
+     * Backpressure: a full queue makes the submitting thread run the task.
+     * Never on the main thread though, where that would block the UI or
+     * do network I/O on it; its tasks go to the overflow queue instead.
+     */
+    private static class CallerRunsUnlessMainThread implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                throw new RejectedExecutionException("Executor is shut down");
+            }
+
+            BoundedExecutor pool = (BoundedExecutor) executor;
+            if (Looper.myLooper() == Looper.getMainLooper()) {
+                pool.overflowed.increment();
+                pool.overflow.add(task);
+                // The workers may all have finished since the queue was found full
+                pool.drainOverflow();
+                return;
+            }
+            pool.callerRuns.increment();
+            task.run();
+        }
+    }
+}
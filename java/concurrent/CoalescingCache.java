@@ -0,0 +1,239 @@
+package com.minigalaxy.android.concurrent;
+
+import com.minigalaxy.android.metrics.Counter;
+import com.minigalaxy.android.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Loads values by key at most once at a time: callers asking for a key that
+ * is already being loaded wait for that load instead of starting another, and
+ * results are kept for a while afterwards. Failures are not cached.
+ * Hits, misses and joined loads are counted under "cache.&lt;name&gt;".
+ */
+public class CoalescingCache<K, V> {
+
+    public interface Loader<K, V> {
+        /**
+         * Runs on the executor; throw to report a failure to every waiting caller
+         */
+        V load(K key) throws Exception;
+    }
+
+    public interface Callback<V> {
+        void onSuccess(V value);
+        void onError(Exception error);
+    }
+
+    private final Loader<K, V> loader;
+    private final Executor executor;
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    // Guarded by this
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Map<K, List<Callback<V>>> inFlight = new HashMap<>();
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter joined;
+
+    public CoalescingCache(String name, long ttlMillis, int maxEntries, Executor executor, Loader<K, V> loader) {
+        this.loader = loader;
+        this.executor = executor;
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+        // Access order, so the least recently used entry is evicted first
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        this.hits = metrics.counter("cache." + name + ".hits");
+        this.misses = metrics.counter("cache." + name + ".misses");
+        this.joined = metrics.counter("cache." + name + ".joined");
+    }
+
+    /**
+     * Deliver a cached value on the calling thread, or load it and deliver on the executor
+     */
+    public void get(K key, Callback<V> callback) {
+        V cached = getIfPresent(key);
+        if (cached != null) {
+            hits.increment();
+            callback.onSuccess(cached);
+            return;
+        }
+        load(key, callback);
+    }
+
+    /**
+     * Skip the cached value but still share a load that is already running
+     */
+    public void refresh(K key, Callback<V> callback) {
+        load(key, callback);
+    }
+
+    public synchronized V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.loadedAt > ttlMillis) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Whether a fresh value is cached or a load for it is running
+     */
+    public synchronized boolean isCachedOrLoading(K key) {
+        return inFlight.containsKey(key) || getIfPresent(key) != null;
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value));
+        if (entries.size() > maxEntries) {
+            Iterator<K> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    /**
+     * Warm the cache for keys not cached or loading yet, with at most
+     * {@code maxConcurrent} loads running at once. Best effort: when the
+     * executor is busy the rest of the batch is dropped rather than slowing
+     * down the caller.
+     */
+    public void prefetch(Collection<K> keys, int maxConcurrent) {
+        List<K> missing = new ArrayList<>();
+        synchronized (this) {
+            for (K key : keys) {
+                if (!isCachedOrLoading(key)) {
+                    missing.add(key);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        // Each worker loads one key, then moves on to the next unclaimed one
+        Iterator<K> pending = missing.iterator();
+        int workers = Math.min(maxConcurrent, missing.size());
+        for (int i = 0; i < workers; i++) {
+            boolean queued = tryExecute(() -> {
+                K key;
+                while ((key = claimNext(pending)) != null) {
+                    runLoad(key);
+                }
+            });
+            if (!queued) {
+                return;
+            }
+        }
+    }
+
+    private boolean tryExecute(Runnable task) {
+        if (executor instanceof BoundedExecutor) {
+            return ((BoundedExecutor) executor).tryExecute(task);
+        }
+        try {
+            executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private synchronized K claimNext(Iterator<K> pending) {
+        while (pending.hasNext()) {
+            K key = pending.next();
+            // May have been requested by someone else since the batch started
+            if (!isCachedOrLoading(key)) {
+                inFlight.put(key, new ArrayList<Callback<V>>());
+                return key;
+            }
+        }
+        return null;
+    }
+
+    private void load(K key, Callback<V> callback) {
+        synchronized (this) {
+            List<Callback<V>> waiting = inFlight.get(key);
+            if (waiting != null) {
+                joined.increment();
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            inFlight.put(key, waiting);
+        }
+
+        try {
+            executor.execute(() -> runLoad(key));
+        } catch (RejectedExecutionException e) {
+            complete(key, null, e);
+        }
+    }
+
+    /**
+     * Load a key claimed in {@link #inFlight} and hand the result to everyone waiting for it
+     */
+    private void runLoad(K key) {
+        misses.increment();
+        V value;
+        try {
+            value = loader.load(key);
+        } catch (Exception e) {
+            complete(key, null, e);
+            return;
+        }
+        complete(key, value, null);
+    }
+
+    private void complete(K key, V value, Exception error) {
+        List<Callback<V>> waiting;
+        synchronized (this) {
+            waiting = inFlight.remove(key);
+            if (error == null && value != null) {
+                put(key, value);
+            }
+        }
+
+        for (Callback<V> waiter : waiting) {
+            if (error != null) {
+                waiter.onError(error);
+            } else {
+                waiter.onSuccess(value);
+            }
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long loadedAt = System.currentTimeMillis();
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+}
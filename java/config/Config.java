@@ -3,12 +3,25 @@ package com.minigalaxy.android.config;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.minigalaxy.android.MinigalaxyApplication;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Configuration manager using SharedPreferences
  * Equivalent to the Python config.py but for Android
+ * <p>
+ * Preferences are read from disk once into an immutable {@link Snapshot}, so
+ * getters are plain field loads. Setters swap in a new snapshot right away and
+ * queue the change; changes made in quick succession reach disk as one write.
  */
 public class Config {
     
@@ -33,6 +46,13 @@ public class Config {
     private static final String KEY_USE_SYSTEM_SCUMMVM = "use_system_scummvm";
     private static final String KEY_CREATE_SHORTCUTS = "create_shortcuts";
     private static final String KEY_SHOW_WINE_PREFIX = "show_wine_prefix";
+    private static final String KEY_DOWNLOAD_UNMETERED_ONLY = "download_unmetered_only";
+    private static final String KEY_DOWNLOAD_CHARGING_ONLY = "download_charging_only";
+    private static final String KEY_DOWNLOAD_STORAGE_NOT_LOW = "download_storage_not_low";
+    private static final String KEY_DOWNLOAD_SPEED_LIMIT = "download_speed_limit";
+    private static final String KEY_AUTO_DOWNLOAD_UPDATES = "auto_download_updates";
+    private static final String KEY_DOWNLOAD_NOTIFICATIONS = "download_notifications";
+    private static final String KEY_UPDATE_NOTIFICATIONS = "update_notifications";
     
     // Default values
     private static final String DEFAULT_LOCALE = "";
@@ -50,181 +70,280 @@ public class Config {
     private static final boolean DEFAULT_USE_SYSTEM_SCUMMVM = false;
     private static final boolean DEFAULT_CREATE_SHORTCUTS = true;
     private static final boolean DEFAULT_SHOW_WINE_PREFIX = false;
+    private static final boolean DEFAULT_DOWNLOAD_UNMETERED_ONLY = false;
+    private static final boolean DEFAULT_DOWNLOAD_CHARGING_ONLY = false;
+    private static final boolean DEFAULT_DOWNLOAD_STORAGE_NOT_LOW = true;
+    private static final int DEFAULT_DOWNLOAD_SPEED_LIMIT = 0;
+    private static final boolean DEFAULT_AUTO_DOWNLOAD_UPDATES = false;
+    private static final boolean DEFAULT_DOWNLOAD_NOTIFICATIONS = true;
+    private static final boolean DEFAULT_UPDATE_NOTIFICATIONS = true;
+    
+    // Changes within this window are written to disk together; the application
+    // flushes early when it goes to the background
+    private static final long WRITE_DELAY_MS = 500;
     
     private final SharedPreferences prefs;
     private final Context context;
+    private final String defaultInstallDir;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable flushRunnable = this::flush;
+    
+    private final Object lock = new Object();
+    private volatile Snapshot snapshot;
+    // Changes not yet on disk; a null value removes the key
+    private final Map<String, Object> pendingWrites = new HashMap<>();
+    private boolean flushScheduled;
+    
+    private final List<OnConfigChangedListener> listeners = new ArrayList<>();
+    
+    /**
+     * Shared instance owned by the application
+     */
+    public static Config getInstance(Context context) {
+        return MinigalaxyApplication.from(context).getConfig();
+    }
     
     public Config(Context context) {
         this.context = context.getApplicationContext();
         this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        this.defaultInstallDir = new File(Environment.getExternalStorageDirectory(), "Minigalaxy/Games")
+                .getAbsolutePath();
+        this.snapshot = new Snapshot(new HashMap<String, Object>(prefs.getAll()), defaultInstallDir);
+    }
+    
+    /**
+     * All settings as of now, for reading several values consistently
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
     
     // Locale
     public String getLocale() {
-        return prefs.getString(KEY_LOCALE, DEFAULT_LOCALE);
+        return snapshot.locale;
     }
     
     public void setLocale(String locale) {
-        prefs.edit().putString(KEY_LOCALE, locale).apply();
+        put(KEY_LOCALE, locale);
     }
     
     // Language
     public String getLang() {
-        return prefs.getString(KEY_LANG, DEFAULT_LANG);
+        return snapshot.lang;
     }
     
     public void setLang(String lang) {
-        prefs.edit().putString(KEY_LANG, lang).apply();
+        put(KEY_LANG, lang);
     }
     
     // View type (grid/list)
     public String getView() {
-        return prefs.getString(KEY_VIEW, DEFAULT_VIEW);
+        return snapshot.view;
     }
     
     public void setView(String view) {
-        prefs.edit().putString(KEY_VIEW, view).apply();
+        put(KEY_VIEW, view);
     }
     
     // Install directory
     public String getInstallDir() {
-        String defaultDir = getDefaultInstallDir();
-        return prefs.getString(KEY_INSTALL_DIR, defaultDir);
+        return snapshot.installDir;
     }
     
     public void setInstallDir(String installDir) {
-        prefs.edit().putString(KEY_INSTALL_DIR, installDir).apply();
-    }
-    
-    private String getDefaultInstallDir() {
-        File externalStorage = Environment.getExternalStorageDirectory();
-        return new File(externalStorage, "Minigalaxy/Games").getAbsolutePath();
+        put(KEY_INSTALL_DIR, installDir);
     }
     
     // Username
     public String getUsername() {
-        return prefs.getString(KEY_USERNAME, "");
+        return snapshot.username;
     }
     
     public void setUsername(String username) {
-        prefs.edit().putString(KEY_USERNAME, username).apply();
+        put(KEY_USERNAME, username);
     }
     
     // Refresh token
     public String getRefreshToken() {
-        return prefs.getString(KEY_REFRESH_TOKEN, "");
+        return snapshot.refreshToken;
     }
     
     public void setRefreshToken(String refreshToken) {
-        prefs.edit().putString(KEY_REFRESH_TOKEN, refreshToken).apply();
+        // Losing a rotated token means logging in again, so this one is not delayed
+        Map<String, Object> changes = new HashMap<>();
+        changes.put(KEY_REFRESH_TOKEN, refreshToken);
+        update(changes, true);
     }
     
     // Keep installers
     public boolean getKeepInstallers() {
-        return prefs.getBoolean(KEY_KEEP_INSTALLERS, DEFAULT_KEEP_INSTALLERS);
+        return snapshot.keepInstallers;
     }
     
     public void setKeepInstallers(boolean keepInstallers) {
-        prefs.edit().putBoolean(KEY_KEEP_INSTALLERS, keepInstallers).apply();
+        put(KEY_KEEP_INSTALLERS, keepInstallers);
     }
     
     // Keep window maximized (for future use)
     public boolean getKeepWindowMaximized() {
-        return prefs.getBoolean(KEY_KEEP_WINDOW_MAXIMIZED, DEFAULT_KEEP_WINDOW_MAXIMIZED);
+        return snapshot.keepWindowMaximized;
     }
     
     public void setKeepWindowMaximized(boolean keepWindowMaximized) {
-        prefs.edit().putBoolean(KEY_KEEP_WINDOW_MAXIMIZED, keepWindowMaximized).apply();
+        put(KEY_KEEP_WINDOW_MAXIMIZED, keepWindowMaximized);
     }
     
     // Dark theme
     public boolean getUseDarkTheme() {
-        return prefs.getBoolean(KEY_USE_DARK_THEME, DEFAULT_USE_DARK_THEME);
+        return snapshot.useDarkTheme;
     }
     
     public void setUseDarkTheme(boolean useDarkTheme) {
-        prefs.edit().putBoolean(KEY_USE_DARK_THEME, useDarkTheme).apply();
+        put(KEY_USE_DARK_THEME, useDarkTheme);
     }
     
     // Installed filter
     public boolean getInstalledFilter() {
-        return prefs.getBoolean(KEY_INSTALLED_FILTER, DEFAULT_INSTALLED_FILTER);
+        return snapshot.installedFilter;
     }
     
     public void setInstalledFilter(boolean installedFilter) {
-        prefs.edit().putBoolean(KEY_INSTALLED_FILTER, installedFilter).apply();
+        put(KEY_INSTALLED_FILTER, installedFilter);
     }
     
     // Download threads
     public int getDownloadThreads() {
-        return prefs.getInt(KEY_DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS);
+        return snapshot.downloadThreads;
     }
     
     public void setDownloadThreads(int downloadThreads) {
-        prefs.edit().putInt(KEY_DOWNLOAD_THREADS, downloadThreads).apply();
+        put(KEY_DOWNLOAD_THREADS, downloadThreads);
     }
     
     // Concurrent downloads
     public int getConcurrentDownloads() {
-        return prefs.getInt(KEY_CONCURRENT_DOWNLOADS, DEFAULT_CONCURRENT_DOWNLOADS);
+        return snapshot.concurrentDownloads;
     }
     
     public void setConcurrentDownloads(int concurrentDownloads) {
-        prefs.edit().putInt(KEY_CONCURRENT_DOWNLOADS, concurrentDownloads).apply();
+        put(KEY_CONCURRENT_DOWNLOADS, concurrentDownloads);
     }
     
     // Auto install
     public boolean getAutoInstall() {
-        return prefs.getBoolean(KEY_AUTO_INSTALL, DEFAULT_AUTO_INSTALL);
+        return snapshot.autoInstall;
     }
     
     public void setAutoInstall(boolean autoInstall) {
-        prefs.edit().putBoolean(KEY_AUTO_INSTALL, autoInstall).apply();
+        put(KEY_AUTO_INSTALL, autoInstall);
     }
     
     // Show FPS
     public boolean getShowFPS() {
-        return prefs.getBoolean(KEY_SHOW_FPS, DEFAULT_SHOW_FPS);
+        return snapshot.showFPS;
     }
     
     public void setShowFPS(boolean showFPS) {
-        prefs.edit().putBoolean(KEY_SHOW_FPS, showFPS).apply();
+        put(KEY_SHOW_FPS, showFPS);
     }
     
     // Use system DOSBox
     public boolean getUseSystemDosbox() {
-        return prefs.getBoolean(KEY_USE_SYSTEM_DOSBOX, DEFAULT_USE_SYSTEM_DOSBOX);
+        return snapshot.useSystemDosbox;
     }
     
     public void setUseSystemDosbox(boolean useSystemDosbox) {
-        prefs.edit().putBoolean(KEY_USE_SYSTEM_DOSBOX, useSystemDosbox).apply();
+        put(KEY_USE_SYSTEM_DOSBOX, useSystemDosbox);
     }
     
     // Use system ScummVM
     public boolean getUseSystemScummvm() {
-        return prefs.getBoolean(KEY_USE_SYSTEM_SCUMMVM, DEFAULT_USE_SYSTEM_SCUMMVM);
+        return snapshot.useSystemScummvm;
     }
     
     public void setUseSystemScummvm(boolean useSystemScummvm) {
-        prefs.edit().putBoolean(KEY_USE_SYSTEM_SCUMMVM, useSystemScummvm).apply();
+        put(KEY_USE_SYSTEM_SCUMMVM, useSystemScummvm);
     }
     
     // Create shortcuts
     public boolean getCreateShortcuts() {
-        return prefs.getBoolean(KEY_CREATE_SHORTCUTS, DEFAULT_CREATE_SHORTCUTS);
+        return snapshot.createShortcuts;
     }
     
     public void setCreateShortcuts(boolean createShortcuts) {
-        prefs.edit().putBoolean(KEY_CREATE_SHORTCUTS, createShortcuts).apply();
+        put(KEY_CREATE_SHORTCUTS, createShortcuts);
     }
     
     // Show wine prefix
     public boolean getShowWinePrefix() {
-        return prefs.getBoolean(KEY_SHOW_WINE_PREFIX, DEFAULT_SHOW_WINE_PREFIX);
+        return snapshot.showWinePrefix;
     }
     
     public void setShowWinePrefix(boolean showWinePrefix) {
-        prefs.edit().putBoolean(KEY_SHOW_WINE_PREFIX, showWinePrefix).apply();
+        put(KEY_SHOW_WINE_PREFIX, showWinePrefix);
+    }
+    
+    // Download only on unmetered networks
+    public boolean getDownloadUnmeteredOnly() {
+        return snapshot.downloadUnmeteredOnly;
+    }
+    
+    public void setDownloadUnmeteredOnly(boolean unmeteredOnly) {
+        put(KEY_DOWNLOAD_UNMETERED_ONLY, unmeteredOnly);
+    }
+    
+    // Download only while charging
+    public boolean getDownloadChargingOnly() {
+        return snapshot.downloadChargingOnly;
+    }
+    
+    public void setDownloadChargingOnly(boolean chargingOnly) {
+        put(KEY_DOWNLOAD_CHARGING_ONLY, chargingOnly);
+    }
+    
+    // Download only while storage is not low
+    public boolean getDownloadStorageNotLow() {
+        return snapshot.downloadStorageNotLow;
+    }
+    
+    public void setDownloadStorageNotLow(boolean storageNotLow) {
+        put(KEY_DOWNLOAD_STORAGE_NOT_LOW, storageNotLow);
+    }
+    
+    // Download speed limit in KB/s, 0 for unlimited
+    public int getDownloadSpeedLimit() {
+        return snapshot.downloadSpeedLimit;
+    }
+    
+    public void setDownloadSpeedLimit(int speedLimit) {
+        put(KEY_DOWNLOAD_SPEED_LIMIT, speedLimit);
+    }
+    
+    // Download updates as soon as they are found
+    public boolean getAutoDownloadUpdates() {
+        return snapshot.autoDownloadUpdates;
+    }
+    
+    public void setAutoDownloadUpdates(boolean autoDownloadUpdates) {
+        put(KEY_AUTO_DOWNLOAD_UPDATES, autoDownloadUpdates);
+    }
+    
+    // Download progress notifications
+    public boolean getDownloadNotifications() {
+        return snapshot.downloadNotifications;
+    }
+    
+    public void setDownloadNotifications(boolean downloadNotifications) {
+        put(KEY_DOWNLOAD_NOTIFICATIONS, downloadNotifications);
+    }
+    
+    // Update available notifications
+    public boolean getUpdateNotifications() {
+        return snapshot.updateNotifications;
+    }
+    
+    public void setUpdateNotifications(boolean updateNotifications) {
+        put(KEY_UPDATE_NOTIFICATIONS, updateNotifications);
     }
     
     // Utility methods
@@ -233,10 +352,10 @@ public class Config {
     }
     
     public void clearAuthData() {
-        prefs.edit()
-                .remove(KEY_USERNAME)
-                .remove(KEY_REFRESH_TOKEN)
-                .apply();
+        Map<String, Object> changes = new HashMap<>();
+        changes.put(KEY_USERNAME, null);
+        changes.put(KEY_REFRESH_TOKEN, null);
+        update(changes, true);
     }
     
     public String getCacheDir() {
@@ -269,7 +388,103 @@ public class Config {
     
     // Reset to defaults
     public void resetToDefaults() {
-        prefs.edit().clear().apply();
+        Snapshot previous;
+        Snapshot current;
+        synchronized (lock) {
+            previous = snapshot;
+            current = new Snapshot(new HashMap<String, Object>(), defaultInstallDir);
+            snapshot = current;
+            pendingWrites.clear();
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            prefs.edit().clear().apply();
+        }
+        notifyConfigChanged(previous, current);
+    }
+    
+    /**
+     * Write pending changes now instead of waiting for the batch window
+     */
+    public void flush() {
+        synchronized (lock) {
+            handler.removeCallbacks(flushRunnable);
+            flushScheduled = false;
+            if (pendingWrites.isEmpty()) {
+                return;
+            }
+            
+            // Under the lock so that batches reach the editor in order
+            SharedPreferences.Editor editor = prefs.edit();
+            for (Map.Entry<String, Object> entry : pendingWrites.entrySet()) {
+                Object value = entry.getValue();
+                if (value == null) {
+                    editor.remove(entry.getKey());
+                } else if (value instanceof Boolean) {
+                    editor.putBoolean(entry.getKey(), (Boolean) value);
+                } else if (value instanceof Integer) {
+                    editor.putInt(entry.getKey(), (Integer) value);
+                } else {
+                    editor.putString(entry.getKey(), value.toString());
+                }
+            }
+            pendingWrites.clear();
+            editor.apply();
+        }
+    }
+    
+    public void addListener(OnConfigChangedListener listener) {
+        synchronized (listeners) {
+            listeners.add(listener);
+        }
+    }
+    
+    public void removeListener(OnConfigChangedListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+    
+    private void put(String key, Object value) {
+        update(Collections.singletonMap(key, value), false);
+    }
+    
+    private void update(Map<String, Object> changes, boolean writeNow) {
+        Snapshot previous;
+        Snapshot current;
+        synchronized (lock) {
+            previous = snapshot;
+            Map<String, Object> values = new HashMap<>(previous.values);
+            boolean changed = false;
+            for (Map.Entry<String, Object> change : changes.entrySet()) {
+                Object value = change.getValue();
+                Object old = value == null ? values.remove(change.getKey()) : values.put(change.getKey(), value);
+                changed |= value == null ? old != null : !value.equals(old);
+            }
+            if (!changed) {
+                return;
+            }
+            
+            current = new Snapshot(values, defaultInstallDir);
+            snapshot = current;
+            pendingWrites.putAll(changes);
+            if (writeNow) {
+                flush();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postDelayed(flushRunnable, WRITE_DELAY_MS);
+            }
+        }
+        notifyConfigChanged(previous, current);
+    }
+    
+    private void notifyConfigChanged(Snapshot previous, Snapshot current) {
+        List<OnConfigChangedListener> listenersCopy;
+        synchronized (listeners) {
+            listenersCopy = new ArrayList<>(listeners);
+        }
+        for (OnConfigChangedListener listener : listenersCopy) {
+            listener.onConfigChanged(previous, current);
+        }
     }
     
     @Override
@@ -283,4 +498,118 @@ public class Config {
                 ", isLoggedIn=" + isLoggedIn() +
                 '}';
     }
-}
\ No newline at end of file
+    
+    /**
+     * Called on the thread that made the change, after the new snapshot is visible
+     */
+    public interface OnConfigChangedListener {
+        void onConfigChanged(Snapshot previous, Snapshot current);
+    }
+    
+    /**
+     * Immutable view of every setting at one point in time
+     */
+    public static final class Snapshot {
+        
+        // What was loaded or written, for deriving the next snapshot
+        private final Map<String, Object> values;
+        
+        private final String locale;
+        private final String lang;
+        private final String view;
+        private final String installDir;
+        private final String username;
+        private final String refreshToken;
+        private final boolean keepInstallers;
+        private final boolean keepWindowMaximized;
+        private final boolean useDarkTheme;
+        private final boolean installedFilter;
+        private final int downloadThreads;
+        private final int concurrentDownloads;
+        private final boolean autoInstall;
+        private final boolean showFPS;
+        private final boolean useSystemDosbox;
+        private final boolean useSystemScummvm;
+        private final boolean createShortcuts;
+        private final boolean showWinePrefix;
+        private final boolean downloadUnmeteredOnly;
+        private final boolean downloadChargingOnly;
+        private final boolean downloadStorageNotLow;
+        private final int downloadSpeedLimit;
+        private final boolean autoDownloadUpdates;
+        private final boolean downloadNotifications;
+        private final boolean updateNotifications;
+        
+        private Snapshot(Map<String, Object> values, String defaultInstallDir) {
+            this.values = values;
+            this.locale = getString(KEY_LOCALE, DEFAULT_LOCALE);
+            this.lang = getString(KEY_LANG, DEFAULT_LANG);
+            this.view = getString(KEY_VIEW, DEFAULT_VIEW);
+            this.installDir = getString(KEY_INSTALL_DIR, defaultInstallDir);
+            this.username = getString(KEY_USERNAME, "");
+            this.refreshToken = getString(KEY_REFRESH_TOKEN, "");
+            this.keepInstallers = getBoolean(KEY_KEEP_INSTALLERS, DEFAULT_KEEP_INSTALLERS);
+            this.keepWindowMaximized = getBoolean(KEY_KEEP_WINDOW_MAXIMIZED, DEFAULT_KEEP_WINDOW_MAXIMIZED);
+            this.useDarkTheme = getBoolean(KEY_USE_DARK_THEME, DEFAULT_USE_DARK_THEME);
+            this.installedFilter = getBoolean(KEY_INSTALLED_FILTER, DEFAULT_INSTALLED_FILTER);
+            this.downloadThreads = getInt(KEY_DOWNLOAD_THREADS, DEFAULT_DOWNLOAD_THREADS);
+            this.concurrentDownloads = getInt(KEY_CONCURRENT_DOWNLOADS, DEFAULT_CONCURRENT_DOWNLOADS);
+            this.autoInstall = getBoolean(KEY_AUTO_INSTALL, DEFAULT_AUTO_INSTALL);
+            this.showFPS = getBoolean(KEY_SHOW_FPS, DEFAULT_SHOW_FPS);
+            this.useSystemDosbox = getBoolean(KEY_USE_SYSTEM_DOSBOX, DEFAULT_USE_SYSTEM_DOSBOX);
+            this.useSystemScummvm = getBoolean(KEY_USE_SYSTEM_SCUMMVM, DEFAULT_USE_SYSTEM_SCUMMVM);
+            this.createShortcuts = getBoolean(KEY_CREATE_SHORTCUTS, DEFAULT_CREATE_SHORTCUTS);
+            this.showWinePrefix = getBoolean(KEY_SHOW_WINE_PREFIX, DEFAULT_SHOW_WINE_PREFIX);
+            this.downloadUnmeteredOnly = getBoolean(KEY_DOWNLOAD_UNMETERED_ONLY, DEFAULT_DOWNLOAD_UNMETERED_ONLY);
+            this.downloadChargingOnly = getBoolean(KEY_DOWNLOAD_CHARGING_ONLY, DEFAULT_DOWNLOAD_CHARGING_ONLY);
+            this.downloadStorageNotLow = getBoolean(KEY_DOWNLOAD_STORAGE_NOT_LOW, DEFAULT_DOWNLOAD_STORAGE_NOT_LOW);
+            this.downloadSpeedLimit = getInt(KEY_DOWNLOAD_SPEED_LIMIT, DEFAULT_DOWNLOAD_SPEED_LIMIT);
+            this.autoDownloadUpdates = getBoolean(KEY_AUTO_DOWNLOAD_UPDATES, DEFAULT_AUTO_DOWNLOAD_UPDATES);
+            this.downloadNotifications = getBoolean(KEY_DOWNLOAD_NOTIFICATIONS, DEFAULT_DOWNLOAD_NOTIFICATIONS);
+            this.updateNotifications = getBoolean(KEY_UPDATE_NOTIFICATIONS, DEFAULT_UPDATE_NOTIFICATIONS);
+        }
+        
+        private String getString(String key, String defaultValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defaultValue;
+        }
+        
+        private boolean getBoolean(String key, boolean defaultValue) {
+            Object value = values.get(key);
+            return value instanceof Boolean ? (Boolean) value : defaultValue;
+        }
+        
+        private int getInt(String key, int defaultValue) {
+            Object value = values.get(key);
+            return value instanceof Integer ? (Integer) value : defaultValue;
+        }
+        
+        public String getInstallDir() {
+            return installDir;
+        }
+        
+        public int getConcurrentDownloads() {
+            return concurrentDownloads;
+        }
+        
+        public boolean getDownloadUnmeteredOnly() {
+            return downloadUnmeteredOnly;
+        }
+        
+        public boolean getDownloadChargingOnly() {
+            return downloadChargingOnly;
+        }
+        
+        public boolean getDownloadStorageNotLow() {
+            return downloadStorageNotLow;
+        }
+        
+        public int getDownloadSpeedLimit() {
+            return downloadSpeedLimit;
+        }
+        
+        public boolean getDownloadNotifications() {
+            return downloadNotifications;
+        }
+    }
+}
@@ -15,6 +15,17 @@ public class Constants {
     public static final long MINIMUM_RESUME_SIZE = 20 * 1024 * 1024; // 20 MB
     public static final int UI_DOWNLOAD_THREADS = 4;
     public static final int DEFAULT_DOWNLOAD_THREAD_COUNT = 4;
+    public static final int MAX_CONCURRENT_DOWNLOADS = 8;
+    public static final int FAST_LANE_WORKERS = 2;
+    public static final long FAST_LANE_MAX_SIZE = 16 * 1024 * 1024; // 16 MB
+    public static final long LOW_STORAGE_THRESHOLD = 512 * 1024 * 1024; // 512 MB
+    public static final int INSTALL_PIPE_SIZE = 8 * 1024 * 1024; // 8 MB
+    public static final long VERIFY_THROTTLED_RATE = 16 * 1024 * 1024; // 16 MB/s while a game runs
+    
+    // Game details cache
+    public static final long GAME_DETAILS_TTL = 10 * 60 * 1000; // 10 minutes
+    public static final int GAME_DETAILS_CACHE_SIZE = 200;
+    public static final int GAME_DETAILS_PREFETCH_CONCURRENCY = 3;
     
     // Supported download languages
     public static final String[][] SUPPORTED_DOWNLOAD_LANGUAGES = {
@@ -141,6 +152,7 @@ public class Constants {
     public static final int NOTIFICATION_ID_DOWNLOAD_PROGRESS = 1000;
     public static final int NOTIFICATION_ID_DOWNLOAD_COMPLETE = 1001;
     public static final int NOTIFICATION_ID_DOWNLOAD_FAILED = 1002;
+    public static final int NOTIFICATION_ID_DOWNLOAD_SERVICE = 999;
     
     // File extensions
     public static final List<String> INSTALLER_EXTENSIONS = Arrays.asList(
@@ -0,0 +1,187 @@
+package com.minigalaxy.android.download;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adaptive limit for the number of simultaneous downloads.
+ * <p>
+ * Works like AIMD congestion control: while there is queued work and every
+ * slot is busy, the limit is raised by one and the next sample window checks
+ * whether aggregate throughput actually improved. If it did not, the probe is
+ * reverted. Errors, stalls or a sharp rise in time-to-first-byte halve the limit.
+ * The time-to-first-byte baseline is the lowest sample of the last few windows,
+ * so it follows the network instead of remembering the best one ever seen.
+ */
+public class ConcurrencyController {
+
+    private static final long SAMPLE_INTERVAL_MS = 3000;
+    private static final double PROBE_GAIN_THRESHOLD = 1.05;
+    private static final double LATENCY_INFLATION_FACTOR = 2.5;
+    private static final double LATENCY_EWMA_WEIGHT = 0.2;
+    private static final int COOLDOWN_WINDOWS = 3;
+    // Windows the latency baseline is taken over, about 30 seconds
+    private static final int MIN_LATENCY_WINDOWS = 10;
+
+    private final int minLimit;
+    private final int maxLimit;
+
+    private final AtomicLong windowBytes = new AtomicLong();
+    private final AtomicInteger windowErrors = new AtomicInteger();
+    private final AtomicInteger windowStalls = new AtomicInteger();
+
+    private volatile int limit;
+    private volatile double throughput; // bytes per second, last window
+    private volatile double latencyMs;  // EWMA of time to first byte
+    // Lowest latency seen in each of the last windows, current one at minLatencySlot
+    private final double[] windowMinLatencyMs = new double[MIN_LATENCY_WINDOWS];
+    private int minLatencySlot;
+
+    private long windowStart;
+    private boolean probing;
+    private double probeBaseline;
+    private int cooldown;
+
+    public ConcurrencyController(int initialLimit, int minLimit, int maxLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.limit = clamp(initialLimit);
+        this.windowStart = System.currentTimeMillis();
+        Arrays.fill(windowMinLatencyMs, Double.MAX_VALUE);
+    }
+
+    /**
+     * Current number of downloads allowed to run at once
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public void onBytesTransferred(long bytes) {
+        windowBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Record the time between sending a request and receiving its response headers
+     */
+    public synchronized void onLatencySample(long latencyMillis) {
+        if (latencyMillis < 0) {
+            return;
+        }
+
+        windowMinLatencyMs[minLatencySlot] = Math.min(windowMinLatencyMs[minLatencySlot], latencyMillis);
+        if (latencyMs == 0) {
+            latencyMs = latencyMillis;
+        } else {
+            latencyMs = latencyMs + LATENCY_EWMA_WEIGHT * (latencyMillis - latencyMs);
+        }
+    }
+
+    /**
+     * Record a transport failure or an overloaded server; other failures say
+     * nothing about how many downloads the path can carry
+     */
+    public void onError() {
+        windowErrors.incrementAndGet();
+    }
+
+    public void onStall() {
+        windowStalls.incrementAndGet();
+    }
+
+    /**
+     * Close the current sample window if it has elapsed and adjust the limit.
+     *
+     * @param activeCount number of downloads currently transferring
+     * @param queuedCount number of downloads waiting for a slot
+     */
+    public synchronized void sample(long now, int activeCount, int queuedCount) {
+        long elapsed = now - windowStart;
+        if (elapsed < SAMPLE_INTERVAL_MS) {
+            return;
+        }
+
+        long bytes = windowBytes.getAndSet(0);
+        int errors = windowErrors.getAndSet(0);
+        int stalls = windowStalls.getAndSet(0);
+        windowStart = now;
+
+        throughput = bytes * 1000.0 / elapsed;
+        double minLatencyMs = minLatency();
+        minLatencySlot = (minLatencySlot + 1) % MIN_LATENCY_WINDOWS;
+        windowMinLatencyMs[minLatencySlot] = Double.MAX_VALUE;
+
+        if (activeCount > 0 && bytes == 0) {
+            stalls++;
+        }
+
+        if (errors > 0 || stalls > 0) {
+            decrease(Math.max(minLimit, limit / 2));
+            return;
+        }
+
+        if (minLatencyMs != Double.MAX_VALUE && latencyMs > minLatencyMs * LATENCY_INFLATION_FACTOR
+                && limit > minLimit) {
+            // Requests are queueing somewhere along the path; back off gently
+            decrease(limit - 1);
+            return;
+        }
+
+        if (probing) {
+            probing = false;
+            if (throughput < probeBaseline * PROBE_GAIN_THRESHOLD) {
+                decrease(limit - 1);
+                return;
+            }
+        }
+
+        if (cooldown > 0) {
+            cooldown--;
+            return;
+        }
+
+        boolean saturated = activeCount >= limit && queuedCount > 0;
+        if (saturated && limit < maxLimit) {
+            probeBaseline = throughput;
+            probing = true;
+            limit = clamp(limit + 1);
+        }
+    }
+
+    /**
+     * Forget the latency baseline and average, e.g. after switching from Wi-Fi
+     * to mobile data, where the old ones would read as congestion
+     */
+    public synchronized void onNetworkChanged() {
+        Arrays.fill(windowMinLatencyMs, Double.MAX_VALUE);
+        latencyMs = 0;
+    }
+
+    /**
+     * Start over from a new limit, e.g. after the user changed the setting
+     */
+    public synchronized void reset(int newLimit) {
+        limit = clamp(newLimit);
+        probing = false;
+        cooldown = 0;
+    }
+
+    private double minLatency() {
+        double min = Double.MAX_VALUE;
+        for (double windowMin : windowMinLatencyMs) {
+            min = Math.min(min, windowMin);
+        }
+        return min;
+    }
+
+    private void decrease(int newLimit) {
+        limit = clamp(newLimit);
+        probing = false;
+        cooldown = COOLDOWN_WINDOWS;
+    }
+
+    private int clamp(int value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+}
@@ -0,0 +1,337 @@
+package com.minigalaxy.android.download;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.StructStat;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Content-addressed store of downloaded files keyed by their MD5.
+ * Identical files shared by several games or DLC are downloaded once and
+ * then hard-linked (or copied where links are not supported) into place.
+ * Each object keeps the set of paths using it and is removed with the last one.
+ * Files removed or rewritten behind the store's back are caught by {@link #sweep()}.
+ */
+public class ContentStore {
+
+    private static final String TAG = "ContentStore";
+    private static final String OBJECTS_DIR = "objects";
+    private static final String INDEX_FILE = "index.json";
+
+    private final File objectsDir;
+    private final File indexFile;
+    private final Gson gson = new Gson();
+    // md5 -> paths referencing the object
+    private final Map<String, Set<String>> references;
+    // path -> md5, for releasing files without scanning every object
+    private final Map<String, String> owners = new HashMap<>();
+
+    public ContentStore(File root) {
+        this.objectsDir = new File(root, OBJECTS_DIR);
+        this.indexFile = new File(root, INDEX_FILE);
+        this.references = loadIndex();
+
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            for (String path : entry.getValue()) {
+                owners.put(path, entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Place the stored content for the given checksum at {@code target}
+     *
+     * @param owner path recorded as the reference, normally the final destination
+     * @return false if the content is not in the store
+     */
+    public synchronized boolean materialize(String md5, File target, String owner) {
+        String key = normalize(md5);
+        if (key == null) {
+            return false;
+        }
+
+        File object = objectFile(key);
+        if (!object.isFile()) {
+            return false;
+        }
+
+        try {
+            File parent = target.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            if (target.exists() && !target.delete()) {
+                return false;
+            }
+            linkOrCopy(object, target);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to reuse stored content " + key, e);
+            return false;
+        }
+
+        addReference(key, owner);
+        return true;
+    }
+
+    /**
+     * Record a verified download so later downloads of the same content can reuse it.
+     * Nothing is stored when the file cannot be hard-linked, since a copy would
+     * double the space used.
+     */
+    public synchronized void add(String md5, File file) {
+        String key = normalize(md5);
+        if (key == null || !file.isFile()) {
+            return;
+        }
+
+        File object = objectFile(key);
+        if (!object.exists()) {
+            object.getParentFile().mkdirs();
+            try {
+                Os.link(file.getAbsolutePath(), object.getAbsolutePath());
+            } catch (ErrnoException e) {
+                Log.d(TAG, "Hard links not supported for " + file + ": " + e.getMessage());
+                return;
+            }
+        }
+
+        addReference(key, file.getAbsolutePath());
+    }
+
+    /**
+     * Delete a file and drop its reference, removing the stored object once unused
+     */
+    public synchronized void delete(File file) {
+        if (release(file)) {
+            saveIndex();
+        }
+    }
+
+    /**
+     * Delete a directory tree such as an uninstalled game, releasing every stored file in it
+     */
+    public synchronized void deleteTree(File dir) {
+        if (releaseTree(dir)) {
+            saveIndex();
+        }
+    }
+
+    private boolean releaseTree(File dir) {
+        boolean changed = false;
+        File[] children = dir.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                changed |= child.isDirectory() ? releaseTree(child) : release(child);
+            }
+        }
+        dir.delete();
+        return changed;
+    }
+
+    private boolean release(File file) {
+        String path = file.getAbsolutePath();
+        file.delete();
+
+        String key = owners.remove(path);
+        if (key == null) {
+            return false;
+        }
+
+        Set<String> paths = references.get(key);
+        if (paths != null) {
+            paths.remove(path);
+            if (paths.isEmpty()) {
+                objectFile(key).delete();
+                references.remove(key);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Mark and sweep: keep only references whose path is still a hard link to
+     * the stored object, then delete objects nothing references. This reclaims
+     * what was left behind by files deleted or rewritten outside the store,
+     * such as an uninstall, a patch or the user wiping a directory. Copies
+     * made where links were not supported do not keep an object alive.
+     *
+     * @return number of objects deleted
+     */
+    public synchronized int sweep() {
+        int deleted = 0;
+        boolean changed = false;
+
+        Iterator<Map.Entry<String, Set<String>>> entries = references.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<String, Set<String>> entry = entries.next();
+            File object = objectFile(entry.getKey());
+            StructStat objectStat = stat(object);
+
+            Iterator<String> paths = entry.getValue().iterator();
+            while (paths.hasNext()) {
+                String path = paths.next();
+                if (objectStat == null || !isSameFile(objectStat, stat(new File(path)))) {
+                    paths.remove();
+                    owners.remove(path);
+                    changed = true;
+                }
+            }
+
+            if (entry.getValue().isEmpty()) {
+                if (object.delete()) {
+                    deleted++;
+                }
+                entries.remove();
+                changed = true;
+            }
+        }
+
+        // Objects linked in just before a crash, before the index was saved
+        File[] prefixes = objectsDir.listFiles();
+        if (prefixes != null) {
+            for (File prefix : prefixes) {
+                File[] objects = prefix.listFiles();
+                if (objects == null) {
+                    continue;
+                }
+                for (File object : objects) {
+                    if (!references.containsKey(object.getName()) && object.delete()) {
+                        deleted++;
+                    }
+                }
+            }
+        }
+
+        if (changed) {
+            saveIndex();
+        }
+        return deleted;
+    }
+
+    private static StructStat stat(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath());
+        } catch (ErrnoException e) {
+            return null;
+        }
+    }
+
+    private static boolean isSameFile(StructStat a, StructStat b) {
+        return b != null && a.st_dev == b.st_dev && a.st_ino == b.st_ino;
+    }
+
+    public synchronized int getReferenceCount(String md5) {
+        Set<String> paths = references.get(normalize(md5));
+        return paths != null ? paths.size() : 0;
+    }
+
+    private void addReference(String key, String path) {
+        Set<String> paths = references.get(key);
+        if (paths == null) {
+            paths = new LinkedHashSet<>();
+            references.put(key, paths);
+        }
+        if (paths.add(path)) {
+            owners.put(path, key);
+            saveIndex();
+        }
+    }
+
+    private File objectFile(String key) {
+        // Fan out by prefix to keep directories small
+        return new File(new File(objectsDir, key.substring(0, 2)), key);
+    }
+
+    private static String normalize(String md5) {
+        if (md5 == null || md5.length() != 32) {
+            return null;
+        }
+        return md5.toLowerCase();
+    }
+
+    private static void linkOrCopy(File source, File target) throws IOException {
+        try {
+            Os.link(source.getAbsolutePath(), target.getAbsolutePath());
+            return;
+        } catch (ErrnoException e) {
+            // Shared storage and some filesystems do not support hard links
+        }
+
+        File temp = new File(target.getPath() + ".copy");
+        try (FileChannel in = new FileInputStream(source).getChannel();
+             FileChannel out = new FileOutputStream(temp).getChannel()) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Failed to move copy to " + target);
+        }
+    }
+
+    private Map<String, Set<String>> loadIndex() {
+        Map<String, Set<String>> index = new HashMap<>();
+        if (!indexFile.isFile()) {
+            return index;
+        }
+
+        Type type = new TypeToken<Map<String, List<String>>>() {}.getType();
+        try (Reader reader = new InputStreamReader(new FileInputStream(indexFile), StandardCharsets.UTF_8)) {
+            Map<String, List<String>> stored = gson.fromJson(reader, type);
+            if (stored != null) {
+                for (Map.Entry<String, List<String>> entry : stored.entrySet()) {
+                    index.put(entry.getKey(), new LinkedHashSet<>(entry.getValue()));
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            Log.e(TAG, "Error reading content store index", e);
+        }
+        return index;
+    }
+
+    private void saveIndex() {
+        Map<String, List<String>> stored = new HashMap<>();
+        for (Map.Entry<String, Set<String>> entry : references.entrySet()) {
+            stored.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+
+        indexFile.getParentFile().mkdirs();
+        File temp = new File(indexFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            gson.toJson(stored, writer);
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing content store index", e);
+            return;
+        }
+
+        if (!temp.renameTo(indexFile)) {
+            Log.e(TAG, "Error replacing content store index");
+        }
+    }
+}
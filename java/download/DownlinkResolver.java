@@ -0,0 +1,20 @@
+package com.minigalaxy.android.download;
+
+import com.minigalaxy.android.model.Download;
+
+/**
+ * Resolves a fresh signed download URL for a download whose link has expired
+ */
+public interface DownlinkResolver {
+
+    /**
+     * @return the new URL, or null if the download cannot be re-resolved
+     */
+    String resolveDownlink(Download download);
+
+    /**
+     * Whether the download's current URL is missing or close enough to expiry
+     * that it should be renewed before the next request
+     */
+    boolean needsRefresh(Download download);
+}
@@ -0,0 +1,207 @@
+package com.minigalaxy.android.download;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.StatFs;
+import android.util.Log;
+
+import com.minigalaxy.android.config.Config;
+import com.minigalaxy.android.config.Constants;
+
+import java.io.File;
+
+/**
+ * Watches network, power and storage state and reports whether the
+ * user's download constraints are currently satisfied
+ */
+public class DownloadConstraintMonitor {
+
+    private static final String TAG = "DownloadConstraints";
+
+    private final Context context;
+    private final Config config;
+    private final ConnectivityManager connectivityManager;
+    private final ConstraintListener listener;
+
+    private BroadcastReceiver receiver;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private boolean satisfied;
+
+    public DownloadConstraintMonitor(Context context, Config config, ConstraintListener listener) {
+        this.context = context.getApplicationContext();
+        this.config = config;
+        this.listener = listener;
+        this.connectivityManager = (ConnectivityManager)
+                this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        this.satisfied = evaluate();
+    }
+
+    /**
+     * Start listening for state changes
+     */
+    public synchronized void start() {
+        if (receiver != null) {
+            return;
+        }
+
+        receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (ConnectivityManager.CONNECTIVITY_ACTION.equals(intent.getAction())) {
+                    listener.onNetworkChanged();
+                }
+                refresh();
+            }
+        };
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_POWER_CONNECTED);
+        filter.addAction(Intent.ACTION_POWER_DISCONNECTED);
+        filter.addAction(Intent.ACTION_DEVICE_STORAGE_LOW);
+        filter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        }
+        context.registerReceiver(receiver, filter);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && connectivityManager != null) {
+            networkCallback = new ConnectivityManager.NetworkCallback() {
+                @Override
+                public void onAvailable(Network network) {
+                    // Called again whenever the default network switches
+                    listener.onNetworkChanged();
+                    refresh();
+                }
+
+                @Override
+                public void onLost(Network network) {
+                    refresh();
+                }
+
+                @Override
+                public void onCapabilitiesChanged(Network network,
+                                                  android.net.NetworkCapabilities capabilities) {
+                    refresh();
+                }
+            };
+            connectivityManager.registerDefaultNetworkCallback(networkCallback);
+        }
+
+        refresh();
+    }
+
+    /**
+     * Stop listening for state changes
+     */
+    public synchronized void stop() {
+        if (receiver != null) {
+            context.unregisterReceiver(receiver);
+            receiver = null;
+        }
+
+        if (networkCallback != null && connectivityManager != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    /**
+     * Re-evaluate all constraints and notify the listener if the result changed
+     */
+    public void refresh() {
+        boolean nowSatisfied = evaluate();
+        boolean changed;
+
+        synchronized (this) {
+            changed = nowSatisfied != satisfied;
+            satisfied = nowSatisfied;
+        }
+
+        if (changed) {
+            Log.d(TAG, "Download constraints " + (nowSatisfied ? "satisfied" : "not satisfied"));
+            listener.onConstraintsChanged(nowSatisfied);
+        }
+    }
+
+    public synchronized boolean isSatisfied() {
+        return satisfied;
+    }
+
+    private boolean evaluate() {
+        if (!isNetworkConnected()) {
+            return false;
+        }
+
+        if (config.getDownloadUnmeteredOnly() && isNetworkMetered()) {
+            return false;
+        }
+
+        if (config.getDownloadChargingOnly() && !isCharging()) {
+            return false;
+        }
+
+        if (config.getDownloadStorageNotLow() && isStorageLow()) {
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean isNetworkConnected() {
+        if (connectivityManager == null) {
+            return true;
+        }
+
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    private boolean isNetworkMetered() {
+        return connectivityManager != null && connectivityManager.isActiveNetworkMetered();
+    }
+
+    private boolean isCharging() {
+        Intent batteryStatus = context.registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (batteryStatus == null) {
+            return false;
+        }
+
+        int plugged = batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+        return plugged != 0;
+    }
+
+    private boolean isStorageLow() {
+        try {
+            File installDir = new File(config.getInstallDir());
+            while (installDir != null && !installDir.exists()) {
+                installDir = installDir.getParentFile();
+            }
+            if (installDir == null) {
+                return false;
+            }
+
+            StatFs statFs = new StatFs(installDir.getAbsolutePath());
+            return statFs.getAvailableBytes() < Constants.LOW_STORAGE_THRESHOLD;
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Unable to query free storage", e);
+            return false;
+        }
+    }
+
+    public interface ConstraintListener {
+        void onConstraintsChanged(boolean satisfied);
+
+        /**
+         * The default network changed, whether or not the constraints did
+         */
+        void onNetworkChanged();
+    }
+}
@@ -0,0 +1,127 @@
+package com.minigalaxy.android.download;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.ProtocolException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+
+import javax.net.ssl.SSLException;
+
+/**
+ * Download failure with a classified reason, used to decide whether and how to retry
+ */
+public class DownloadException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Reason {
+        TRANSIENT_NETWORK(true),
+        SERVER_ERROR(true),
+        RANGE_NOT_SATISFIABLE(true),
+        LINK_EXPIRED(true),
+        CHECKSUM_MISMATCH(true),
+        DISK_FULL(false),
+        CLIENT_ERROR(false),
+        LOCAL_IO(false),
+        UNKNOWN(false);
+
+        private final boolean retryable;
+
+        Reason(boolean retryable) {
+            this.retryable = retryable;
+        }
+
+        public boolean isRetryable() {
+            return retryable;
+        }
+    }
+
+    private final Reason reason;
+    private final int httpCode;
+
+    public DownloadException(Reason reason, String message) {
+        this(reason, message, 0);
+    }
+
+    public DownloadException(Reason reason, String message, int httpCode) {
+        super(message);
+        this.reason = reason;
+        this.httpCode = httpCode;
+    }
+
+    public Reason getReason() {
+        return reason;
+    }
+
+    public int getHttpCode() {
+        return httpCode;
+    }
+
+    /**
+     * Build an exception for an unsuccessful HTTP response
+     */
+    public static DownloadException fromHttpStatus(int code) {
+        String message = "HTTP error: " + code;
+
+        if (code == 416) {
+            return new DownloadException(Reason.RANGE_NOT_SATISFIABLE, message, code);
+        } else if (code == 401 || code == 403 || code == 410) {
+            // Signed CDN links answer with these once they expire
+            return new DownloadException(Reason.LINK_EXPIRED, message, code);
+        } else if (code == 408 || code == 429 || code >= 500) {
+            return new DownloadException(Reason.SERVER_ERROR, message, code);
+        }
+
+        return new DownloadException(Reason.CLIENT_ERROR, message, code);
+    }
+
+    /**
+     * Classify an arbitrary failure raised while downloading
+     */
+    public static Reason classify(Throwable throwable) {
+        if (throwable instanceof DownloadException) {
+            return ((DownloadException) throwable).getReason();
+        }
+
+        if (isDiskFull(throwable)) {
+            return Reason.DISK_FULL;
+        }
+
+        if (throwable instanceof FileNotFoundException) {
+            return Reason.LOCAL_IO;
+        }
+
+        if (throwable instanceof InterruptedIOException
+                || throwable instanceof ConnectException
+                || throwable instanceof NoRouteToHostException
+                || throwable instanceof UnknownHostException
+                || throwable instanceof SocketException
+                || throwable instanceof ProtocolException
+                || throwable instanceof EOFException
+                || throwable instanceof SSLException) {
+            return Reason.TRANSIENT_NETWORK;
+        }
+
+        if (throwable instanceof IOException) {
+            // OkHttp reports resets and truncated bodies as plain IOExceptions
+            return Reason.TRANSIENT_NETWORK;
+        }
+
+        return Reason.UNKNOWN;
+    }
+
+    private static boolean isDiskFull(Throwable throwable) {
+        for (Throwable t = throwable; t != null; t = t.getCause()) {
+            String message = t.getMessage();
+            if (message != null && (message.contains("ENOSPC") || message.contains("No space left"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
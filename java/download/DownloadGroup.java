@@ -0,0 +1,170 @@
+package com.minigalaxy.android.download;
+
+import com.minigalaxy.android.model.Download;
+import com.minigalaxy.android.model.FileInfo;
+import com.minigalaxy.android.model.Game;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A set of downloads that form one job, such as all parts of a multi-part
+ * installer. Parts are scheduled individually but the group only completes
+ * once every part has been downloaded and verified.
+ */
+public class DownloadGroup {
+
+    public enum Status {
+        QUEUED,
+        DOWNLOADING,
+        COMPLETED,
+        FAILED,
+        CANCELLED
+    }
+
+    private final String id;
+    private final String name;
+    private final long gameId;
+    private final List<Download> parts;
+    private volatile Status status;
+    private String errorMessage;
+
+    public DownloadGroup(String id, String name, long gameId, List<Download> parts) {
+        this.id = id;
+        this.name = name;
+        this.gameId = gameId;
+        this.parts = Collections.unmodifiableList(new ArrayList<>(parts));
+        this.status = Status.QUEUED;
+
+        for (Download part : this.parts) {
+            part.setGroupId(id);
+        }
+    }
+
+    /**
+     * Build a group for the given manifest files, one download per part
+     */
+    public static DownloadGroup fromFiles(Game game, List<FileInfo> files, String destinationDir) {
+        List<Download> parts = new ArrayList<>();
+
+        for (FileInfo file : files) {
+            Download part = new Download(
+                    game.getId() + ":" + file.getId(),
+                    null, // resolved lazily from the source below
+                    file.getFilename(),
+                    new File(destinationDir, file.getFilename()).getAbsolutePath(),
+                    file.getSize(),
+                    getDownloadType(file));
+            part.setSource(game.getId(), file.getDownlinkType(), file.getId());
+            part.setMd5Hash(file.getMd5());
+            part.setRelatedGame(game);
+            parts.add(part);
+        }
+
+        String installerId = files.isEmpty() ? "" : files.get(0).getInstallerId();
+        return new DownloadGroup(game.getId() + ":" + installerId, game.getName(), game.getId(), parts);
+    }
+
+    private static Download.DownloadType getDownloadType(FileInfo file) {
+        if (file.isPatch()) {
+            return Download.DownloadType.PATCH;
+        } else if (file.isDLC()) {
+            return Download.DownloadType.DLC;
+        } else if (file.isInstaller()) {
+            return Download.DownloadType.GAME;
+        }
+        return Download.DownloadType.OTHER;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getGameId() {
+        return gameId;
+    }
+
+    public List<Download> getParts() {
+        return parts;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public String getErrorMessage() {
+        return errorMessage;
+    }
+
+    public void setErrorMessage(String errorMessage) {
+        this.errorMessage = errorMessage;
+    }
+
+    public long getTotalSize() {
+        long total = 0;
+        for (Download part : parts) {
+            total += part.getTotalSize();
+        }
+        return total;
+    }
+
+    public long getDownloadedSize() {
+        long downloaded = 0;
+        for (Download part : parts) {
+            downloaded += part.getDownloadedSize();
+        }
+        return downloaded;
+    }
+
+    /**
+     * Bytes that still have to be written to disk for this group
+     */
+    public long getRemainingSize() {
+        return Math.max(0, getTotalSize() - getDownloadedSize());
+    }
+
+    public double getDownloadSpeed() {
+        double speed = 0;
+        for (Download part : parts) {
+            if (part.isInProgress()) {
+                speed += part.getDownloadSpeed();
+            }
+        }
+        return speed;
+    }
+
+    public int getProgressPercentage() {
+        long total = getTotalSize();
+        if (total <= 0) return 0;
+        return (int) ((getDownloadedSize() * 100) / total);
+    }
+
+    public boolean areAllPartsCompleted() {
+        for (Download part : parts) {
+            if (!part.isCompleted()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "DownloadGroup{" +
+                "id='" + id + '\'' +
+                ", parts=" + parts.size() +
+                ", status=" + status +
+                ", progress=" + getProgressPercentage() + "%" +
+                '}';
+    }
+}
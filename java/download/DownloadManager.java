@@ -1,57 +1,222 @@
 package com.minigalaxy.android.download;
 
 import android.content.Context;
+import android.os.StatFs;
+import android.os.Trace;
+import android.text.TextUtils;
 import android.util.Log;
 
+import com.minigalaxy.android.MinigalaxyApplication;
+import com.minigalaxy.android.api.GogApi;
+import com.minigalaxy.android.concurrent.AppExecutors;
 import com.minigalaxy.android.config.Config;
 import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.install.BoundedPipe;
+import com.minigalaxy.android.install.ChunkManifest;
+import com.minigalaxy.android.install.ParallelExtractor;
+import com.minigalaxy.android.install.StreamingInstaller;
+import com.minigalaxy.android.metrics.Counter;
+import com.minigalaxy.android.metrics.Gauge;
+import com.minigalaxy.android.metrics.Histogram;
+import com.minigalaxy.android.metrics.MetricsRegistry;
 import com.minigalaxy.android.model.Download;
+import com.minigalaxy.android.model.FileInfo;
+import com.minigalaxy.android.model.Game;
+import com.minigalaxy.android.repository.GameRepository;
+import com.minigalaxy.android.service.DownloadService;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import okhttp3.Call;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
 import okhttp3.Response;
 
 /**
- * Manager for handling file downloads
+ * Manager for handling file downloads.
+ * A single instance is shared by the whole process and kept alive by
+ * {@link DownloadService} while there is work to do.
  */
-public class DownloadManager {
+public class DownloadManager implements DownloadConstraintMonitor.ConstraintListener {
     
     private static final String TAG = "DownloadManager";
+    private static final long STALL_THRESHOLD_MS = 5000;
+    
+    private static final Histogram QUEUE_WAIT = MetricsRegistry.getInstance().histogram("download.queue_wait_ms");
+    // Per task, from start until it completed, failed or was stopped
+    private static final Histogram THROUGHPUT = MetricsRegistry.getInstance().histogram("download.throughput_kbps");
+    private static final Counter BYTES_DOWNLOADED = MetricsRegistry.getInstance().counter("download.bytes");
+    private static final Counter STALLS = MetricsRegistry.getInstance().counter("download.stalls");
+    private static final Counter RETRIES = MetricsRegistry.getInstance().counter("download.retries");
+    private static final Counter FAILURES = MetricsRegistry.getInstance().counter("download.failures");
+    private static final Gauge ACTIVE_DOWNLOADS = MetricsRegistry.getInstance().gauge("download.active");
+    private static final Gauge QUEUED_DOWNLOADS = MetricsRegistry.getInstance().gauge("download.queued");
+    // Slots the adaptive controller currently allows, fast lane excluded
+    private static final Gauge CONCURRENCY_LIMIT = MetricsRegistry.getInstance().gauge("download.concurrency_limit");
+    // An attempt that moved at least this much data resets the retry counter
+    private static final long RETRY_PROGRESS_RESET_BYTES = 1024 * 1024;
+    // Running downloads are not preempted before this, so slots do not thrash
+    private static final long MIN_RUN_BEFORE_PREEMPT_MS = 15 * 1000;
+    
+    private static DownloadManager instance;
     
     private final Context context;
     private final Config config;
     private final OkHttpClient httpClient;
     private final ExecutorService downloadExecutor;
+    private final ExecutorService fastLaneExecutor;
+    private final ExecutorService installExecutor;
+    private final DownloadConstraintMonitor constraintMonitor;
+    private final ConcurrencyController concurrencyController;
+    private final RetryPolicy retryPolicy;
+    // Replaced when the install directory moves, so links stay on one filesystem
+    private volatile ContentStore contentStore;
+    private final ScheduledExecutorService retryScheduler;
+    private DownlinkResolver downlinkResolver;
     
     private final PriorityBlockingQueue<QueuedDownload> downloadQueue;
+    // Small files, shortest first, served by reserved workers
+    private final PriorityBlockingQueue<QueuedDownload> fastLaneQueue;
+    private final AtomicInteger fastLaneActive = new AtomicInteger();
     private final Map<String, Download> activeDownloads;
+    private final Map<String, DownloadTask> runningTasks;
+    // Paused by the user; they leave activeDownloads with their slot
+    private final Map<String, Download> pausedDownloads;
+    private final Map<String, Download> constraintPausedDownloads;
+    private final Map<String, Download> retryingDownloads;
+    private final Map<String, Download> failedDownloads;
+    private final Map<String, DownloadGroup> groups;
     private final List<DownloadManagerListener> listeners;
+    private final List<DownloadGroupListener> groupListeners;
+    private final Config.OnConfigChangedListener configListener = this::onConfigChanged;
     
-    public DownloadManager(Context context, Config config) {
-        this.context = context;
+    private DownloadManager(Context context, Config config, GogApi gogApi) {
+        this.context = context.getApplicationContext();
         this.config = config;
         this.httpClient = new OkHttpClient.Builder().build();
         
-        int threadCount = config.getConcurrentDownloads();
-        this.downloadExecutor = Executors.newFixedThreadPool(threadCount);
+        // The configured value is only the starting point; the controller adapts it
+        this.concurrencyController = new ConcurrencyController(
+                config.getConcurrentDownloads(), 1, Constants.MAX_CONCURRENT_DOWNLOADS);
+        
+        // One extra thread for the queue processor
+        int threadCount = Constants.MAX_CONCURRENT_DOWNLOADS + 1;
+        this.downloadExecutor = AppExecutors.newDedicatedPool("download", threadCount);
+        // Reserved for artwork and other small files so they never wait behind installers
+        this.fastLaneExecutor = AppExecutors.newDedicatedPool("download-fast", Constants.FAST_LANE_WORKERS);
+        // Extraction threads are paired one-to-one with streaming downloads and block on
+        // the network with them, so they cannot share the CPU pool; one per download worker
+        this.installExecutor = AppExecutors.newDedicatedPool("install",
+                Constants.MAX_CONCURRENT_DOWNLOADS + Constants.FAST_LANE_WORKERS);
+        this.retryPolicy = RetryPolicy.defaultPolicy();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(AppExecutors.threadFactory("download-retry"));
+        this.downlinkResolver = new GogDownlinkResolver(gogApi);
+        // Kept next to the downloads so stored content can be hard-linked into place
+        this.contentStore = new ContentStore(contentStoreDir(config.getInstallDir()));
         
         this.downloadQueue = new PriorityBlockingQueue<>();
+        this.fastLaneQueue = new PriorityBlockingQueue<>(11, QueuedDownload.SHORTEST_FIRST);
         this.activeDownloads = new ConcurrentHashMap<>();
+        this.runningTasks = new ConcurrentHashMap<>();
+        this.pausedDownloads = new LinkedHashMap<>();
+        this.constraintPausedDownloads = new LinkedHashMap<>();
+        this.retryingDownloads = new ConcurrentHashMap<>();
+        this.failedDownloads = new ConcurrentHashMap<>();
+        this.groups = new ConcurrentHashMap<>();
         this.listeners = new ArrayList<>();
+        this.groupListeners = new ArrayList<>();
+        
+        this.constraintMonitor = new DownloadConstraintMonitor(this.context, config, this);
+        this.constraintMonitor.start();
+        config.addListener(configListener);
         
         startQueueProcessor();
+        ContentStore store = contentStore;
+        AppExecutors.getInstance().disk().execute(() -> sweepContentStore(store));
+    }
+    
+    public static synchronized DownloadManager getInstance(Context context) {
+        if (instance == null) {
+            MinigalaxyApplication application = MinigalaxyApplication.from(context);
+            instance = new DownloadManager(application, application.getConfig(), application.getGogApi());
+        }
+        return instance;
+    }
+    
+    /**
+     * The instance if the download subsystem was already started, without starting it
+     */
+    public static synchronized DownloadManager peekInstance() {
+        return instance;
+    }
+    
+    private static File contentStoreDir(String installDir) {
+        return new File(installDir, ".content-store");
+    }
+    
+    /**
+     * Reclaim stored content whose files were deleted or rewritten outside the store
+     */
+    private static void sweepContentStore(ContentStore store) {
+        int deleted = store.sweep();
+        if (deleted > 0) {
+            Log.d(TAG, "Removed " + deleted + " unused objects from the content store");
+        }
+    }
+    
+    private void onConfigChanged(Config.Snapshot previous, Config.Snapshot current) {
+        if (!TextUtils.equals(previous.getInstallDir(), current.getInstallDir())) {
+            // Hard links cannot cross filesystems, so the store moves with the games
+            String installDir = current.getInstallDir();
+            AppExecutors.getInstance().disk().execute(() -> {
+                ContentStore store = new ContentStore(contentStoreDir(installDir));
+                contentStore = store;
+                sweepContentStore(store);
+            });
+        }
+        
+        if (previous.getConcurrentDownloads() != current.getConcurrentDownloads()) {
+            concurrencyController.reset(current.getConcurrentDownloads());
+            processQueue();
+        }
+        
+        if (previous.getDownloadUnmeteredOnly() != current.getDownloadUnmeteredOnly()
+                || previous.getDownloadChargingOnly() != current.getDownloadChargingOnly()
+                || previous.getDownloadStorageNotLow() != current.getDownloadStorageNotLow()) {
+            // Apply the new constraints now rather than on the next broadcast
+            constraintMonitor.refresh();
+        }
+    }
+    
+    /**
+     * Set the resolver used to obtain a new signed URL when a download link expires
+     */
+    public void setDownlinkResolver(DownlinkResolver downlinkResolver) {
+        this.downlinkResolver = downlinkResolver;
     }
     
     public void addDownload(Download download) {
@@ -64,35 +229,278 @@ public class DownloadManager {
         }
         
         download.setStatus(Download.DownloadStatus.QUEUED);
-        downloadQueue.offer(new QueuedDownload(download, priority));
+        download.setPriority(priority);
+        download.setRetryCount(0);
+        
+        Game game = download.getRelatedGame();
+        if (download.getInstallDir() == null && game != null && config.getAutoInstall()
+                && canStreamInstall(download)) {
+            download.setInstallDir(new File(config.getInstallDir(), game.getInstallDirectoryName())
+                    .getAbsolutePath());
+        }
+        
+        enqueue(new QueuedDownload(download, priority));
         
         notifyDownloadAdded(download);
+        DownloadService.start(context);
         processQueue();
     }
     
+    /**
+     * Store of downloaded content shared between games, used to delete files safely
+     */
+    public ContentStore getContentStore() {
+        return contentStore;
+    }
+    
+    /**
+     * Whether the download can be extracted while it transfers. Multi-part
+     * installers need every part before extraction, so groups are excluded.
+     */
+    private static boolean canStreamInstall(Download download) {
+        return download.getGroupId() == null && StreamingInstaller.isSupported(download.getFilename());
+    }
+    
+    /**
+     * Queue every part of a group. Parts run in parallel within the global
+     * concurrency limit and share the group's priority.
+     */
+    public void addDownloadGroup(DownloadGroup group, int priority) {
+        if (group == null || group.getParts().isEmpty()) {
+            return;
+        }
+        
+        groups.put(group.getId(), group);
+        
+        // Check the whole job up front rather than failing halfway through
+        long available = getAvailableSpace(new File(group.getParts().get(0).getDestinationPath()));
+        if (available >= 0 && available < group.getRemainingSize()) {
+            failGroup(group, "Not enough free space: " + group.getRemainingSize() + " bytes needed");
+            return;
+        }
+        
+        group.setStatus(DownloadGroup.Status.DOWNLOADING);
+        for (Download part : group.getParts()) {
+            addDownload(part, priority);
+        }
+    }
+    
+    public DownloadGroup getDownloadGroup(String groupId) {
+        return groups.get(groupId);
+    }
+    
+    public List<DownloadGroup> getDownloadGroups() {
+        return new ArrayList<>(groups.values());
+    }
+    
+    public void cancelDownloadGroup(String groupId) {
+        DownloadGroup group = groups.remove(groupId);
+        if (group != null) {
+            group.setStatus(DownloadGroup.Status.CANCELLED);
+            for (Download part : group.getParts()) {
+                cancelDownload(part.getId());
+            }
+        }
+    }
+    
+    /**
+     * Retry the failed parts of a group; parts that already finished are kept
+     */
+    public void retryDownloadGroup(String groupId) {
+        DownloadGroup group = groups.get(groupId);
+        if (group == null || group.getStatus() != DownloadGroup.Status.FAILED) {
+            return;
+        }
+        
+        group.setStatus(DownloadGroup.Status.DOWNLOADING);
+        group.setErrorMessage(null);
+        for (Download part : group.getParts()) {
+            if (part.isFailed()) {
+                retryDownload(part.getId());
+            }
+        }
+        
+        // Every part may already be on disk if only the final commit failed
+        onGroupPartCompleted(group);
+    }
+    
+    private void onGroupPartCompleted(DownloadGroup group) {
+        synchronized (group) {
+            if (group.getStatus() != DownloadGroup.Status.DOWNLOADING || !group.areAllPartsCompleted()) {
+                notifyGroupProgress(group);
+                return;
+            }
+            
+            // Every part is verified; move them all into place together
+            for (Download part : group.getParts()) {
+                File partialFile = new File(part.getDestinationPath() + ".partial");
+                File destinationFile = new File(part.getDestinationPath());
+                if (partialFile.exists() && !partialFile.renameTo(destinationFile)) {
+                    failGroup(group, "Failed to move " + part.getFilename() + " to final location");
+                    return;
+                }
+                contentStore.add(part.getMd5Hash(), destinationFile);
+            }
+            
+            group.setStatus(DownloadGroup.Status.COMPLETED);
+        }
+        
+        notifyGroupCompleted(group);
+    }
+    
+    private void failGroup(DownloadGroup group, String error) {
+        group.setStatus(DownloadGroup.Status.FAILED);
+        group.setErrorMessage(error);
+        notifyGroupFailed(group, error);
+    }
+    
+    private static long getAvailableSpace(File destination) {
+        File dir = destination.getParentFile();
+        while (dir != null && !dir.exists()) {
+            dir = dir.getParentFile();
+        }
+        if (dir == null) {
+            return -1;
+        }
+        
+        try {
+            return new StatFs(dir.getAbsolutePath()).getAvailableBytes();
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+    
+    /**
+     * Pause a running download. The transfer is aborted, what was received so
+     * far stays in the .partial file and the slot goes to the next queued download.
+     */
     public void pauseDownload(String downloadId) {
         Download download = activeDownloads.get(downloadId);
         if (download != null && download.canPause()) {
-            download.setStatus(Download.DownloadStatus.PAUSED);
-            notifyDownloadUpdated(download);
+            synchronized (pausedDownloads) {
+                pausedDownloads.put(downloadId, download);
+            }
+            pause(download);
+            // Stops the service if this was the last running download
+            DownloadService.refresh(context);
         }
     }
     
+    private void pause(Download download) {
+        download.setStatus(Download.DownloadStatus.PAUSED);
+        stopTask(download.getId(), Download.DownloadStatus.PAUSED);
+        notifyDownloadUpdated(download);
+        processQueue();
+    }
+    
     public void resumeDownload(String downloadId) {
         Download download = getDownloadById(downloadId);
         if (download != null && download.canResume()) {
+            synchronized (pausedDownloads) {
+                pausedDownloads.remove(downloadId);
+            }
+            synchronized (constraintPausedDownloads) {
+                constraintPausedDownloads.remove(downloadId);
+            }
             download.setStatus(Download.DownloadStatus.QUEUED);
-            downloadQueue.offer(new QueuedDownload(download, 1));
+            enqueue(new QueuedDownload(download, download.getPriority()));
             notifyDownloadUpdated(download);
+            DownloadService.start(context);
+            processQueue();
+        }
+    }
+    
+    /**
+     * Change the priority of a queued or running download. A queued download
+     * keeps its place in time, so it does not lose the aging it has earned.
+     */
+    public void setDownloadPriority(String downloadId, int priority) {
+        synchronized (this) {
+            Download download = getDownloadById(downloadId);
+            if (download == null) {
+                return;
+            }
+            
+            download.setPriority(priority);
+            PriorityBlockingQueue<QueuedDownload> queue = isFastLane(download) ? fastLaneQueue : downloadQueue;
+            for (QueuedDownload queued : queue) {
+                if (queued.download == download && queue.remove(queued)) {
+                    queue.offer(new QueuedDownload(download, priority, queued.queueTime));
+                    break;
+                }
+            }
+            notifyDownloadUpdated(download);
+        }
+        processQueue();
+    }
+    
+    /**
+     * Put a download ahead of everything else, preempting a running one if needed
+     */
+    public void moveToTop(String downloadId) {
+        int highest = 0;
+        for (Download download : getAllDownloads()) {
+            if (!download.getId().equals(downloadId)) {
+                highest = Math.max(highest, download.getPriority());
+            }
+        }
+        setDownloadPriority(downloadId, highest + 1);
+    }
+    
+    /**
+     * Queued downloads in the order they will start, fast lane first
+     */
+    public List<Download> getQueuedDownloads() {
+        List<QueuedDownload> fastLane = new ArrayList<>(fastLaneQueue);
+        Collections.sort(fastLane, QueuedDownload.SHORTEST_FIRST);
+        List<QueuedDownload> queued = new ArrayList<>(downloadQueue);
+        Collections.sort(queued);
+        
+        List<Download> downloads = new ArrayList<>();
+        for (QueuedDownload item : fastLane) {
+            downloads.add(item.download);
+        }
+        for (QueuedDownload item : queued) {
+            downloads.add(item.download);
+        }
+        return downloads;
+    }
+    
+    /**
+     * Retry a failed download from where it stopped, with a fresh retry budget
+     */
+    public void retryDownload(String downloadId) {
+        Download download = failedDownloads.remove(downloadId);
+        if (download == null) {
+            // Waiting for an automatic retry; skip the remaining backoff
+            download = retryingDownloads.remove(downloadId);
+        }
+        
+        if (download != null) {
+            download.setRetryCount(0);
+            download.setErrorMessage(null);
+            download.setStatus(Download.DownloadStatus.QUEUED);
+            enqueue(new QueuedDownload(download, download.getPriority()));
+            notifyDownloadUpdated(download);
+            DownloadService.start(context);
             processQueue();
         }
     }
     
     public void cancelDownload(String downloadId) {
-        Download download = activeDownloads.get(downloadId);
+        Download download = getDownloadById(downloadId);
+        
         if (download != null && download.canCancel()) {
             download.setStatus(Download.DownloadStatus.CANCELLED);
-            activeDownloads.remove(downloadId);
+            stopTask(downloadId, Download.DownloadStatus.CANCELLED);
+            removeQueued(download);
+            retryingDownloads.remove(downloadId);
+            synchronized (pausedDownloads) {
+                pausedDownloads.remove(downloadId);
+            }
+            synchronized (constraintPausedDownloads) {
+                constraintPausedDownloads.remove(downloadId);
+            }
             
             File partialFile = new File(download.getDestinationPath() + ".partial");
             if (partialFile.exists()) {
@@ -100,6 +508,32 @@ public class DownloadManager {
             }
             
             notifyDownloadUpdated(download);
+            DownloadService.refresh(context);
+            processQueue();
+        }
+    }
+    
+    /**
+     * Abort the task running a download, if any, and free its slot right away
+     */
+    private void stopTask(String downloadId, Download.DownloadStatus reason) {
+        DownloadTask task = runningTasks.get(downloadId);
+        if (task != null) {
+            task.stop(reason);
+        }
+        activeDownloads.remove(downloadId);
+    }
+    
+    private void removeQueued(Download download) {
+        for (QueuedDownload queued : downloadQueue) {
+            if (queued.download == download) {
+                downloadQueue.remove(queued);
+            }
+        }
+        for (QueuedDownload queued : fastLaneQueue) {
+            if (queued.download == download) {
+                fastLaneQueue.remove(queued);
+            }
         }
     }
     
@@ -114,8 +548,30 @@ public class DownloadManager {
                 return queuedDownload.download;
             }
         }
+        for (QueuedDownload queuedDownload : fastLaneQueue) {
+            if (queuedDownload.download.getId().equals(downloadId)) {
+                return queuedDownload.download;
+            }
+        }
         
-        return null;
+        Download download = retryingDownloads.get(downloadId);
+        if (download == null) {
+            download = failedDownloads.get(downloadId);
+        }
+        if (download != null) {
+            return download;
+        }
+        
+        synchronized (pausedDownloads) {
+            download = pausedDownloads.get(downloadId);
+        }
+        if (download != null) {
+            return download;
+        }
+        
+        synchronized (constraintPausedDownloads) {
+            return constraintPausedDownloads.get(downloadId);
+        }
     }
     
     public List<Download> getActiveDownloads() {
@@ -124,16 +580,102 @@ public class DownloadManager {
     
     public List<Download> getAllDownloads() {
         List<Download> allDownloads = new ArrayList<>(activeDownloads.values());
+        for (QueuedDownload queuedDownload : fastLaneQueue) {
+            allDownloads.add(queuedDownload.download);
+        }
         for (QueuedDownload queuedDownload : downloadQueue) {
             allDownloads.add(queuedDownload.download);
         }
+        allDownloads.addAll(retryingDownloads.values());
+        allDownloads.addAll(failedDownloads.values());
+        synchronized (pausedDownloads) {
+            allDownloads.addAll(pausedDownloads.values());
+        }
+        synchronized (constraintPausedDownloads) {
+            allDownloads.addAll(constraintPausedDownloads.values());
+        }
         return allDownloads;
     }
     
+    /**
+     * Whether a download is running, or queued or waiting to retry while the
+     * constraints allow it to start. Downloads paused by the user or held back
+     * by the constraints do not count; resuming them starts the service again.
+     */
+    public boolean hasActiveWork() {
+        if (!activeDownloads.isEmpty()) {
+            return true;
+        }
+        return constraintMonitor.isSatisfied() && (!downloadQueue.isEmpty() || !fastLaneQueue.isEmpty()
+                || !retryingDownloads.isEmpty());
+    }
+    
+    /**
+     * Whether network, power and storage conditions currently allow downloading
+     */
+    public boolean areConstraintsSatisfied() {
+        return constraintMonitor.isSatisfied();
+    }
+    
+    @Override
+    public void onConstraintsChanged(boolean satisfied) {
+        if (satisfied) {
+            resumeConstraintPausedDownloads();
+            processQueue();
+            if (hasActiveWork()) {
+                DownloadService.start(context);
+            }
+        } else {
+            pauseForConstraints();
+            // Lets the service drop its wake lock and stop while nothing can run
+            DownloadService.refresh(context);
+        }
+    }
+    
+    @Override
+    public void onNetworkChanged() {
+        concurrencyController.onNetworkChanged();
+    }
+    
+    private void pauseForConstraints() {
+        for (Download download : new ArrayList<>(activeDownloads.values())) {
+            if (download.canPause()) {
+                synchronized (constraintPausedDownloads) {
+                    constraintPausedDownloads.put(download.getId(), download);
+                }
+                pause(download);
+            }
+        }
+    }
+    
+    private void resumeConstraintPausedDownloads() {
+        List<Download> toResume;
+        synchronized (constraintPausedDownloads) {
+            toResume = new ArrayList<>(constraintPausedDownloads.values());
+            constraintPausedDownloads.clear();
+        }
+        
+        for (Download download : toResume) {
+            // The user may have cancelled it while we were waiting
+            if (download.isPaused()) {
+                download.setStatus(Download.DownloadStatus.QUEUED);
+                enqueue(new QueuedDownload(download, download.getPriority()));
+                notifyDownloadUpdated(download);
+            }
+        }
+    }
+    
     private void startQueueProcessor() {
         downloadExecutor.execute(() -> {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
+                    // Catch changes that have no broadcast, such as storage slowly filling up
+                    constraintMonitor.refresh();
+                    concurrencyController.sample(System.currentTimeMillis(),
+                            activeDownloads.size() - fastLaneActive.get(), downloadQueue.size());
+                    ACTIVE_DOWNLOADS.set(activeDownloads.size());
+                    QUEUED_DOWNLOADS.set(downloadQueue.size() + fastLaneQueue.size());
+                    CONCURRENCY_LIMIT.set(concurrencyController.getLimit());
                     processQueue();
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
@@ -144,29 +686,127 @@ public class DownloadManager {
         });
     }
     
-    private void processQueue() {
-        int maxConcurrent = config.getConcurrentDownloads();
-        int currentActive = activeDownloads.size();
+    private synchronized void processQueue() {
+        if (!constraintMonitor.isSatisfied()) {
+            return;
+        }
+        
+        int fastActive = fastLaneActive.get();
+        while (fastActive < Constants.FAST_LANE_WORKERS && !fastLaneQueue.isEmpty()) {
+            QueuedDownload queuedDownload = fastLaneQueue.poll();
+            if (queuedDownload != null) {
+                startDownload(queuedDownload, true);
+                fastActive++;
+            }
+        }
         
-        while (currentActive < maxConcurrent && !downloadQueue.isEmpty()) {
+        // Fast lane tasks do not count against the adaptive limit
+        int maxConcurrent = concurrencyController.getLimit();
+        int currentActive = activeDownloads.size() - fastLaneActive.get();
+        
+        while (currentActive < maxConcurrent && (!downloadQueue.isEmpty() || !fastLaneQueue.isEmpty())) {
+            // Idle regular slots also take small files the fast lane has not reached yet
             QueuedDownload queuedDownload = downloadQueue.poll();
+            if (queuedDownload == null) {
+                queuedDownload = fastLaneQueue.poll();
+            }
             if (queuedDownload != null) {
-                startDownload(queuedDownload.download);
+                startDownload(queuedDownload, false);
                 currentActive++;
             }
         }
+        
+        if (currentActive >= maxConcurrent) {
+            preemptIfNeeded();
+        }
     }
     
-    private void startDownload(Download download) {
+    /**
+     * Stop the least important running download when the head of the queue
+     * outranks it. Aging alone only lets a smaller job preempt a bigger one,
+     * so two large downloads never take turns pushing each other out.
+     */
+    private void preemptIfNeeded() {
+        QueuedDownload head = downloadQueue.peek();
+        if (head == null) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        DownloadTask victim = null;
+        for (DownloadTask task : runningTasks.values()) {
+            if (task.isPreempted()) {
+                // A slot is already being freed
+                return;
+            }
+            if (task.isStopping() || !task.canBePreempted(now)) {
+                continue;
+            }
+            
+            if (victim == null
+                    || task.download.getPriority() < victim.download.getPriority()
+                    || (task.download.getPriority() == victim.download.getPriority()
+                            && QueuedDownload.remainingBytes(task.download) > QueuedDownload.remainingBytes(victim.download))) {
+                victim = task;
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+        
+        Download candidate = head.download;
+        int victimPriority = victim.download.getPriority();
+        boolean outranks = candidate.getPriority() > victimPriority;
+        boolean agedPast = head.getEffectivePriority(now) > victimPriority
+                && QueuedDownload.remainingBytes(candidate) < QueuedDownload.remainingBytes(victim.download);
+        
+        if (outranks || agedPast) {
+            Log.d(TAG, "Preempting " + victim.download.getFilename() + " for " + candidate.getFilename());
+            victim.stop(Download.DownloadStatus.QUEUED);
+        }
+    }
+    
+    private void startDownload(QueuedDownload queuedDownload, boolean fastLane) {
+        Download download = queuedDownload.download;
+        long now = System.currentTimeMillis();
+        QUEUE_WAIT.record(now - queuedDownload.queueTime);
         download.setStatus(Download.DownloadStatus.DOWNLOADING);
-        download.setStartTime(System.currentTimeMillis());
+        download.setStartTime(now);
         
         activeDownloads.put(download.getId(), download);
         
-        downloadExecutor.execute(new DownloadTask(download));
+        DownloadTask task = new DownloadTask(download, fastLane);
+        // A paused task may still be closing its file; the new one waits for it
+        task.previous = runningTasks.put(download.getId(), task);
+        if (fastLane) {
+            fastLaneActive.incrementAndGet();
+            fastLaneExecutor.execute(task);
+        } else {
+            downloadExecutor.execute(task);
+        }
         notifyDownloadStarted(download);
     }
     
+    private void enqueue(QueuedDownload queuedDownload) {
+        if (isFastLane(queuedDownload.download)) {
+            fastLaneQueue.offer(queuedDownload);
+        } else {
+            downloadQueue.offer(queuedDownload);
+        }
+    }
+    
+    /**
+     * Artwork always takes the fast lane; anything else only when its size is known to be small
+     */
+    private static boolean isFastLane(Download download) {
+        Download.DownloadType type = download.getType();
+        if (type == Download.DownloadType.THUMBNAIL || type == Download.DownloadType.ICON) {
+            return true;
+        }
+        long size = download.getTotalSize();
+        return size > 0 && size <= Constants.FAST_LANE_MAX_SIZE;
+    }
+    
     public void addListener(DownloadManagerListener listener) {
         synchronized (listeners) {
             listeners.add(listener);
@@ -179,6 +819,42 @@ public class DownloadManager {
         }
     }
     
+    public void addGroupListener(DownloadGroupListener listener) {
+        synchronized (groupListeners) {
+            groupListeners.add(listener);
+        }
+    }
+    
+    public void removeGroupListener(DownloadGroupListener listener) {
+        synchronized (groupListeners) {
+            groupListeners.remove(listener);
+        }
+    }
+    
+    private void notifyGroupProgress(DownloadGroup group) {
+        synchronized (groupListeners) {
+            for (DownloadGroupListener listener : groupListeners) {
+                listener.onGroupProgress(group);
+            }
+        }
+    }
+    
+    private void notifyGroupCompleted(DownloadGroup group) {
+        synchronized (groupListeners) {
+            for (DownloadGroupListener listener : groupListeners) {
+                listener.onGroupCompleted(group);
+            }
+        }
+    }
+    
+    private void notifyGroupFailed(DownloadGroup group, String error) {
+        synchronized (groupListeners) {
+            for (DownloadGroupListener listener : groupListeners) {
+                listener.onGroupFailed(group, error);
+            }
+        }
+    }
+    
     private void notifyDownloadAdded(Download download) {
         synchronized (listeners) {
             for (DownloadManagerListener listener : listeners) {
@@ -220,108 +896,680 @@ public class DownloadManager {
     }
     
     public void cleanup() {
-        downloadExecutor.shutdown();
+        synchronized (DownloadManager.class) {
+            if (instance == this) {
+                instance = null;
+            }
+        }
+        
+        config.removeListener(configListener);
+        constraintMonitor.stop();
+        retryScheduler.shutdownNow();
+        downloadExecutor.shutdownNow();
+        fastLaneExecutor.shutdownNow();
+        installExecutor.shutdownNow();
         synchronized (listeners) {
             listeners.clear();
         }
+        synchronized (groupListeners) {
+            groupListeners.clear();
+        }
     }
     
-    private static class QueuedDownload implements Comparable<QueuedDownload> {
-        final Download download;
-        final int priority;
-        final long queueTime;
+    private void scheduleRetry(Download download, long delayMillis, String error) {
+        RETRIES.increment();
+        download.setStatus(Download.DownloadStatus.QUEUED);
+        download.setErrorMessage(error);
+        retryingDownloads.put(download.getId(), download);
+        notifyDownloadUpdated(download);
         
-        QueuedDownload(Download download, int priority) {
-            this.download = download;
-            this.priority = priority;
-            this.queueTime = System.currentTimeMillis();
-        }
+        Log.d(TAG, "Retrying " + download.getFilename() + " in " + delayMillis + " ms (attempt "
+                + download.getRetryCount() + ")");
         
-        @Override
-        public int compareTo(QueuedDownload other) {
-            if (this.priority != other.priority) {
-                return Integer.compare(other.priority, this.priority);
+        retryScheduler.schedule(() -> {
+            // Skip if cancelled or manually retried in the meantime
+            if (retryingDownloads.remove(download.getId()) != null) {
+                enqueue(new QueuedDownload(download, download.getPriority()));
+                processQueue();
             }
-            return Long.compare(this.queueTime, other.queueTime);
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Thrown inside a task that was asked to stop; the data written so far is flushed and kept
+     */
+    private static class DownloadStoppedException extends IOException {
+        DownloadStoppedException() {
+            super("Download stopped");
         }
     }
     
-    private class DownloadTask implements Runnable {
+    private class DownloadTask implements Runnable, RangedTransfer.Listener {
         private final Download download;
+        private final boolean fastLane;
+        private final long startedAt = System.currentTimeMillis();
+        private long attemptBytes;
+        private long lastUpdate;
+        private long lastRead;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final AtomicBoolean released = new AtomicBoolean();
+        private boolean streaming;
+        private volatile Call call;
+        // Status to settle in once stopped: QUEUED when preempted, PAUSED or CANCELLED
+        private volatile Download.DownloadStatus stopReason;
+        DownloadTask previous;
         
-        DownloadTask(Download download) {
+        DownloadTask(Download download, boolean fastLane) {
             this.download = download;
+            this.fastLane = fastLane;
+        }
+        
+        /**
+         * Stop the transfer. Cancelling the call unblocks a read waiting on the
+         * socket; otherwise the flag is noticed once the current chunk is written.
+         */
+        void stop(Download.DownloadStatus reason) {
+            stopReason = reason;
+            Call current = call;
+            if (current != null) {
+                current.cancel();
+            }
+            if (reason != Download.DownloadStatus.QUEUED) {
+                releaseSlot();
+            }
+        }
+        
+        boolean isStopping() {
+            return stopReason != null;
+        }
+        
+        boolean isPreempted() {
+            return stopReason == Download.DownloadStatus.QUEUED;
+        }
+        
+        /**
+         * Give the concurrency slot back; safe to call more than once
+         */
+        private void releaseSlot() {
+            if (released.compareAndSet(false, true)) {
+                if (fastLane) {
+                    fastLaneActive.decrementAndGet();
+                }
+                activeDownloads.remove(download.getId());
+            }
+        }
+        
+        private Call newCall(Request request) {
+            Call created = httpClient.newCall(request);
+            call = created;
+            if (stopReason != null) {
+                // Stopped while connecting; execute() fails right away
+                created.cancel();
+            }
+            return created;
+        }
+        
+        boolean canBePreempted(long now) {
+            // A streamed install would have to start over, so it is never preempted
+            return !fastLane && !streaming && download.isInProgress() && now - startedAt >= MIN_RUN_BEFORE_PREEMPT_MS;
         }
         
         @Override
         public void run() {
+            Trace.beginSection("DownloadTask");
             try {
+                awaitPrevious();
                 downloadFile();
             } catch (Exception e) {
-                Log.e(TAG, "Download failed: " + download.getFilename(), e);
-                download.setStatus(Download.DownloadStatus.FAILED);
-                download.setErrorMessage(e.getMessage());
-                notifyDownloadFailed(download, e.getMessage());
+                // A cancelled call fails with whatever error the read was in the middle of
+                if (stopReason != null) {
+                    onStopped();
+                } else {
+                    handleFailure(e);
+                }
             } finally {
-                activeDownloads.remove(download.getId());
+                recordThroughput();
+                runningTasks.remove(download.getId(), this);
+                releaseSlot();
+                finished.countDown();
                 processQueue();
+                
+                if (!hasActiveWork()) {
+                    DownloadService.refresh(context);
+                }
+                Trace.endSection();
+            }
+        }
+        
+        private void recordThroughput() {
+            long elapsed = System.currentTimeMillis() - startedAt;
+            if (attemptBytes > 0 && elapsed > 0) {
+                THROUGHPUT.record(attemptBytes * 1000 / 1024 / elapsed);
             }
         }
         
+        private File getPartialFile() {
+            return new File(download.getDestinationPath() + ".partial");
+        }
+        
+        private void awaitPrevious() throws InterruptedException {
+            if (previous != null) {
+                previous.finished.await();
+                previous = null;
+            }
+        }
+        
+        private void onStopped() {
+            File partialFile = getPartialFile();
+            Download.DownloadStatus reason = stopReason;
+            
+            if (reason == Download.DownloadStatus.CANCELLED) {
+                partialFile.delete();
+                return;
+            }
+            
+            // The output stream is closed by now, so this is the offset the next attempt resumes from
+            if (!streaming) {
+                download.setDownloadedSize(partialFile.exists() ? partialFile.length() : 0);
+            }
+            
+            if (reason == Download.DownloadStatus.QUEUED && download.isInProgress()) {
+                download.setStatus(Download.DownloadStatus.QUEUED);
+                enqueue(new QueuedDownload(download, download.getPriority()));
+            }
+            notifyDownloadUpdated(download);
+        }
+        
+        private void handleFailure(Exception e) {
+            if (download.isCancelled()) {
+                return;
+            }
+            
+            DownloadException.Reason reason = DownloadException.classify(e);
+            Log.e(TAG, "Download failed (" + reason + "): " + download.getFilename(), e);
+            if (reason == DownloadException.Reason.TRANSIENT_NETWORK
+                    || reason == DownloadException.Reason.SERVER_ERROR) {
+                concurrencyController.onError();
+            }
+            
+            if (reason == DownloadException.Reason.RANGE_NOT_SATISFIABLE
+                    || reason == DownloadException.Reason.CHECKSUM_MISMATCH) {
+                // The partial file no longer matches the remote file; start over
+                getPartialFile().delete();
+                download.setDownloadedSize(0);
+            } else if (reason == DownloadException.Reason.LINK_EXPIRED && !refreshDownlink()) {
+                if (!download.hasSource()) {
+                    failDownload("Download link expired and could not be renewed");
+                    return;
+                }
+                // The API may be unreachable for now; back off and renew on the next attempt
+                download.setUrl(null);
+                reason = DownloadException.Reason.TRANSIENT_NETWORK;
+            }
+            
+            // A flaky connection that still makes progress should not exhaust its retries
+            if (attemptBytes >= RETRY_PROGRESS_RESET_BYTES) {
+                download.setRetryCount(0);
+            }
+            
+            int attempt = download.getRetryCount();
+            if (!retryPolicy.shouldRetry(reason, attempt)) {
+                failDownload(e.getMessage());
+                return;
+            }
+            
+            long delay = retryPolicy.getDelay(reason, attempt);
+            download.setRetryCount(attempt + 1);
+            scheduleRetry(download, delay, e.getMessage());
+        }
+        
+        private boolean refreshDownlink() {
+            DownlinkResolver resolver = downlinkResolver;
+            if (resolver == null) {
+                return false;
+            }
+            
+            String newUrl = resolver.resolveDownlink(download);
+            if (newUrl == null || newUrl.isEmpty()) {
+                return false;
+            }
+            
+            download.setUrl(newUrl);
+            return true;
+        }
+        
+        private void failDownload(String error) {
+            FAILURES.increment();
+            download.setStatus(Download.DownloadStatus.FAILED);
+            download.setErrorMessage(error);
+            failedDownloads.put(download.getId(), download);
+            notifyDownloadFailed(download, error);
+            
+            DownloadGroup group = getGroup();
+            if (group != null && group.getStatus() == DownloadGroup.Status.DOWNLOADING) {
+                failGroup(group, download.getFilename() + ": " + error);
+            }
+        }
+        
+        private DownloadGroup getGroup() {
+            return download.getGroupId() != null ? groups.get(download.getGroupId()) : null;
+        }
+        
         private void downloadFile() throws IOException {
             File destinationFile = new File(download.getDestinationPath());
-            File partialFile = new File(download.getDestinationPath() + ".partial");
+            File partialFile = getPartialFile();
             
             destinationFile.getParentFile().mkdirs();
             
+            boolean streamInstall = shouldStreamInstall();
+            streaming = streamInstall;
+            boolean checksumKnown = download.getMd5Hash() != null;
+            if (!streamInstall && checksumKnown && reuseStoredContent(partialFile, destinationFile)) {
+                return;
+            }
+            
+            // Renew lazily: only when the link is missing or about to expire
+            DownlinkResolver resolver = downlinkResolver;
+            if (resolver != null && resolver.needsRefresh(download) && !refreshDownlink()) {
+                throw new DownloadException(DownloadException.Reason.LINK_EXPIRED,
+                        "Unable to obtain a download link");
+            }
+            
+            // Resolving the link is what brings the checksum, so look in the store again
+            if (!streamInstall && !checksumKnown && reuseStoredContent(partialFile, destinationFile)) {
+                return;
+            }
+            
+            if (streamInstall) {
+                downloadAndInstall(partialFile, destinationFile);
+                return;
+            }
+            
+            RangedTransfer transfer = new RangedTransfer(this::newCall, Constants.DOWNLOAD_CHUNK_SIZE);
+            long size = transfer.fetch(download.getUrl(), partialFile, download.getTotalSize(), this);
+            download.updateProgress(size, 0);
+            finishDownload(partialFile, destinationFile);
+        }
+        
+        /**
+         * A streamed install starts over from the first byte on every attempt.
+         * Once one has failed, installers that can be extracted afterwards are
+         * downloaded with resumable ranges instead.
+         */
+        private boolean shouldStreamInstall() {
+            if (download.getInstallDir() == null || !canStreamInstall(download)) {
+                return false;
+            }
+            return download.getRetryCount() == 0 || !ParallelExtractor.isSupported(download.getFilename());
+        }
+        
+        /**
+         * Download the installer and extract it in the same pass. The archive
+         * is read sequentially, so every attempt starts from the first byte;
+         * the installer itself is only written to disk when it should be kept.
+         */
+        private void downloadAndInstall(File partialFile, File destinationFile) throws IOException {
             Request request = new Request.Builder()
                     .url(download.getUrl())
                     .build();
             
-            try (Response response = httpClient.newCall(request).execute()) {
+            long requestStart = System.currentTimeMillis();
+            try (Response response = newCall(request).execute()) {
+                onConnected(System.currentTimeMillis() - requestStart);
+                
                 if (!response.isSuccessful()) {
-                    throw new IOException("HTTP error: " + response.code());
+                    throw DownloadException.fromHttpStatus(response.code());
                 }
                 
                 long contentLength = response.body().contentLength();
                 if (contentLength > 0) {
                     download.setTotalSize(contentLength);
                 }
+                download.updateProgress(0, 0);
                 
-                downloadWithProgress(response.body().byteStream(), partialFile);
+                BoundedPipe pipe = new BoundedPipe(Constants.INSTALL_PIPE_SIZE);
+                StreamingInstaller installer = new StreamingInstaller(new File(download.getInstallDir()));
+                Future<Long> extraction = installExecutor.submit(() -> {
+                    try (InputStream source = pipe.source()) {
+                        return installer.install(source, download.getFilename());
+                    }
+                });
                 
-                if (partialFile.renameTo(destinationFile)) {
-                    download.setStatus(Download.DownloadStatus.COMPLETED);
-                    download.setEndTime(System.currentTimeMillis());
-                    notifyDownloadCompleted(download);
-                } else {
-                    throw new IOException("Failed to move file to final location");
+                MessageDigest digest = newMd5();
+                OutputStream installerCopy = null;
+                try {
+                    OutputStream sink = new DigestOutputStream(pipe.sink(), digest);
+                    if (config.getKeepInstallers()) {
+                        installerCopy = new FileOutputStream(partialFile);
+                        sink = new TeeOutputStream(sink, installerCopy);
+                    }
+                    
+                    copyWithProgress(response.body().byteStream(), sink);
+                    sink.close();
+                } catch (IOException e) {
+                    pipe.fail(e);
+                    throw awaitInstall(extraction, e);
+                } finally {
+                    if (installerCopy != null) {
+                        installerCopy.close();
+                    }
+                }
+                
+                IOException installFailure = awaitInstall(extraction, null);
+                if (installFailure != null) {
+                    throw installFailure;
+                }
+                
+                verifyDigest(toHex(digest.digest()));
+                
+                if (installerCopy != null && !partialFile.renameTo(destinationFile)) {
+                    Log.w(TAG, "Failed to keep installer " + download.getFilename());
+                }
+                
+                Game game = download.getRelatedGame();
+                if (game != null) {
+                    game.setInstallDir(download.getInstallDir());
+                    game.setInstalledSize(installer.getBytesWritten());
+                    game.setInstalled(true);
+                    String version = getInstallerVersion(game);
+                    if (version != null) {
+                        game.setVersion(version);
+                    }
+                }
+                
+                download.setStatus(Download.DownloadStatus.COMPLETED);
+                download.setEndTime(System.currentTimeMillis());
+                notifyDownloadCompleted(download);
+                
+                // Chunking reads the whole tree again; the next download should not wait for it
+                releaseSlot();
+                refreshManifest(new File(download.getInstallDir()), game != null ? game.getVersion() : null);
+            }
+        }
+        
+        /**
+         * Record what was installed for later verify, repair and update diffs.
+         * Without a manifest the next verify hashes everything, so a failure
+         * here is only logged.
+         */
+        private void refreshManifest(File installDir, String version) {
+            AppExecutors.getInstance().disk().execute(() -> {
+                try {
+                    ChunkManifest.refresh(installDir, version);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to record the manifest of " + installDir, e);
                 }
+            });
+        }
+        
+        /**
+         * Wait for the extraction thread and pick the error to report. When the
+         * transfer failed first the extractor only saw the aborted pipe, so the
+         * transfer error wins; otherwise the extractor's own failure is reported.
+         *
+         * @return the failure, or null if extraction succeeded and the transfer did too
+         */
+        private IOException awaitInstall(Future<Long> extraction, IOException transferFailure) {
+            Throwable cause;
+            try {
+                extraction.get();
+                return transferFailure;
+            } catch (ExecutionException e) {
+                cause = e.getCause();
+            } catch (InterruptedException e) {
+                extraction.cancel(true);
+                Thread.currentThread().interrupt();
+                return transferFailure != null ? transferFailure : new IOException("Interrupted while installing");
+            }
+            
+            if (transferFailure != null && cause.getCause() == transferFailure) {
+                return transferFailure;
+            }
+            
+            DownloadException.Reason reason = DownloadException.classify(cause) == DownloadException.Reason.DISK_FULL
+                    ? DownloadException.Reason.DISK_FULL : DownloadException.Reason.LOCAL_IO;
+            DownloadException failure = new DownloadException(reason,
+                    "Failed to install " + download.getFilename() + ": " + cause.getMessage());
+            failure.initCause(cause);
+            return failure;
+        }
+        
+        /**
+         * Take identical content already downloaded for another game or DLC
+         * from the store instead of downloading it again
+         */
+        private boolean reuseStoredContent(File partialFile, File destinationFile) throws IOException {
+            if (!contentStore.materialize(download.getMd5Hash(), partialFile, download.getDestinationPath())) {
+                return false;
+            }
+            
+            Log.d(TAG, "Reusing stored content for " + download.getFilename());
+            download.updateProgress(partialFile.length(), 0);
+            completeDownload(partialFile, destinationFile);
+            return true;
+        }
+        
+        private void finishDownload(File partialFile, File destinationFile) throws IOException {
+            verifyChecksum(partialFile);
+            completeDownload(partialFile, destinationFile);
+        }
+        
+        private void completeDownload(File partialFile, File destinationFile) throws IOException {
+            DownloadGroup group = getGroup();
+            if (group != null) {
+                // Stays .partial until the whole group is verified
+                download.setStatus(Download.DownloadStatus.COMPLETED);
+                download.setEndTime(System.currentTimeMillis());
+                notifyDownloadCompleted(download);
+                onGroupPartCompleted(group);
+                return;
+            }
+            
+            if (partialFile.renameTo(destinationFile)) {
+                contentStore.add(download.getMd5Hash(), destinationFile);
+                download.setStatus(Download.DownloadStatus.COMPLETED);
+                download.setEndTime(System.currentTimeMillis());
+                notifyDownloadCompleted(download);
+                
+                // Meant to be installed but not streamed
+                if (download.getInstallDir() != null && download.getRelatedGame() != null) {
+                    installArchive(destinationFile);
+                }
+            } else {
+                throw new DownloadException(DownloadException.Reason.LOCAL_IO,
+                        "Failed to move file to final location");
+            }
+        }
+        
+        /**
+         * Extract the downloaded installer on all cores, off the download slot.
+         * The installer is only kept if the user asked for it.
+         */
+        private void installArchive(File archive) {
+            Game game = download.getRelatedGame();
+            File installDir = new File(download.getInstallDir());
+            GameRepository repository = MinigalaxyApplication.from(context).getGameRepository();
+            String version = getInstallerVersion(game);
+            repository.installFromArchive(game.getId(), archive, installDir, version, new GameRepository.InstallCallback() {
+                @Override
+                public void onSuccess(long installedSize) {
+                    game.setInstallDir(installDir.getAbsolutePath());
+                    game.setInstalledSize(installedSize);
+                    game.setInstalled(true);
+                    if (!config.getKeepInstallers()) {
+                        contentStore.delete(archive);
+                    }
+                }
+                
+                @Override
+                public void onError(String errorMessage) {
+                    Log.e(TAG, "Failed to install " + archive.getName() + ": " + errorMessage);
+                }
+            });
+        }
+        
+        /**
+         * Version of the installer this download fetched, from the game's manifest
+         *
+         * @return the version, or null if the file is not in the manifest
+         */
+        private String getInstallerVersion(Game game) {
+            String fileId = download.getSourceFileId();
+            if (fileId == null) {
+                return null;
+            }
+            for (FileInfo file : game.getFiles()) {
+                if (fileId.equals(file.getId())) {
+                    return file.getVersion();
+                }
+            }
+            return null;
+        }
+        
+        private void verifyChecksum(File file) throws IOException {
+            String expected = download.getMd5Hash();
+            if (expected != null && !expected.isEmpty()) {
+                verifyDigest(md5(file));
+            }
+        }
+        
+        private void verifyDigest(String actual) throws IOException {
+            String expected = download.getMd5Hash();
+            if (expected == null || expected.isEmpty()) {
+                return;
+            }
+            
+            if (!expected.equalsIgnoreCase(actual)) {
+                throw new DownloadException(DownloadException.Reason.CHECKSUM_MISMATCH,
+                        "Checksum mismatch for " + download.getFilename());
             }
         }
         
-        private void downloadWithProgress(InputStream inputStream, File partialFile) throws IOException {
+        private void copyWithProgress(InputStream inputStream, OutputStream outputStream) throws IOException {
             byte[] buffer = new byte[Constants.DOWNLOAD_CHUNK_SIZE];
             long totalBytesRead = 0;
-            long lastUpdate = System.currentTimeMillis();
             
-            try (FileOutputStream outputStream = new FileOutputStream(partialFile)) {
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                    totalBytesRead += bytesRead;
-                    
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lastUpdate >= 1000) {
-                        download.updateProgress(totalBytesRead, 0);
-                        notifyDownloadUpdated(download);
-                        lastUpdate = currentTime;
-                    }
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+                totalBytesRead += bytesRead;
+                onProgress(totalBytesRead, bytesRead);
+            }
+            
+            download.updateProgress(totalBytesRead, 0);
+        }
+        
+        @Override
+        public void onConnected(long latencyMillis) {
+            concurrencyController.onLatencySample(latencyMillis);
+            lastUpdate = System.currentTimeMillis();
+            lastRead = lastUpdate;
+        }
+        
+        @Override
+        public void onSizeKnown(long totalSize) {
+            download.setTotalSize(totalSize);
+        }
+        
+        @Override
+        public void onProgress(long position, int bytesRead) throws IOException {
+            if (stopReason != null) {
+                throw new DownloadStoppedException();
+            }
+            attemptBytes += bytesRead;
+            concurrencyController.onBytesTransferred(bytesRead);
+            BYTES_DOWNLOADED.add(bytesRead);
+            
+            long currentTime = System.currentTimeMillis();
+            if (currentTime - lastRead >= STALL_THRESHOLD_MS) {
+                concurrencyController.onStall();
+                STALLS.increment();
+            }
+            lastRead = currentTime;
+            
+            if (currentTime - lastUpdate >= 1000) {
+                download.updateProgress(position, 0);
+                notifyDownloadUpdated(download);
+                
+                DownloadGroup group = getGroup();
+                if (group != null) {
+                    notifyGroupProgress(group);
                 }
+                lastUpdate = currentTime;
             }
         }
     }
     
+    /**
+     * Writes everything to two streams, used to keep the installer while it is extracted
+     */
+    private static class TeeOutputStream extends OutputStream {
+        private final OutputStream first;
+        private final OutputStream second;
+        
+        TeeOutputStream(OutputStream first, OutputStream second) {
+            this.first = first;
+            this.second = second;
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            first.write(b);
+            second.write(b);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            first.write(b, off, len);
+            second.write(b, off, len);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            try {
+                first.close();
+            } finally {
+                second.close();
+            }
+        }
+    }
+    
+    private static MessageDigest newMd5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+    
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+    
+    static String md5(File file) throws IOException {
+        MessageDigest digest = newMd5();
+        
+        byte[] buffer = new byte[Constants.DOWNLOAD_CHUNK_SIZE];
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        
+        return toHex(digest.digest());
+    }
+    
+    public interface DownloadGroupListener {
+        void onGroupProgress(DownloadGroup group);
+        void onGroupCompleted(DownloadGroup group);
+        void onGroupFailed(DownloadGroup group, String error);
+    }
+    
     public interface DownloadManagerListener {
         void onDownloadAdded(Download download);
         void onDownloadStarted(Download download);
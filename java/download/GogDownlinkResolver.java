@@ -0,0 +1,104 @@
+package com.minigalaxy.android.download;
+
+import android.util.Log;
+
+import com.minigalaxy.android.api.ApiResponse;
+import com.minigalaxy.android.api.GogApi;
+import com.minigalaxy.android.model.Download;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renews signed GOG CDN links through {@link GogApi#getDownloadLink(long, String, String)}
+ * using the product and file a download was created from
+ */
+public class GogDownlinkResolver implements DownlinkResolver {
+
+    private static final String TAG = "GogDownlinkResolver";
+
+    // Assumed lifetime of a link when the URL carries no expiry of its own
+    private static final long DEFAULT_LINK_LIFETIME_MS = 60 * 60 * 1000; // 1 hour
+    // Renew links this long before they expire so a request never starts on a dying link
+    private static final long EXPIRY_MARGIN_MS = 5 * 60 * 1000; // 5 minutes
+
+    // CDN tokens look like "...?__token__=exp=1700000000~hmac=..." or "...&expires=1700000000"
+    private static final Pattern EXPIRY_PATTERN = Pattern.compile("(?:exp|expires)=(\\d{9,})");
+
+    private final GogApi gogApi;
+
+    public GogDownlinkResolver(GogApi gogApi) {
+        this.gogApi = gogApi;
+    }
+
+    @Override
+    public String resolveDownlink(Download download) {
+        if (!download.hasSource()) {
+            return null;
+        }
+
+        String fileType = download.getSourceFileType() != null ? download.getSourceFileType() : "installer";
+        ApiResponse<GogApi.Downlink> response = gogApi.getDownlink(
+                download.getSourceGameId(), fileType, download.getSourceFileId());
+
+        if (response.isSuccess()) {
+            download.setUrlResolvedTime(System.currentTimeMillis());
+            GogApi.Downlink downlink = response.getData();
+            if (!hasChecksum(download) && downlink.getChecksumUrl() != null) {
+                fetchChecksum(download, downlink.getChecksumUrl());
+            }
+            return downlink.getUrl();
+        }
+
+        Log.e(TAG, "Failed to renew link for " + download.getFilename() + ": " + response.getErrorMessage());
+        return null;
+    }
+
+    /**
+     * The checksum only comes with a resolved link. Without it the download is
+     * not verified and cannot be matched in the content store, but it still works.
+     */
+    private void fetchChecksum(Download download, String checksumUrl) {
+        ApiResponse<String> checksum = gogApi.getChecksum(checksumUrl);
+        if (checksum.isSuccess()) {
+            download.setMd5Hash(checksum.getData());
+        } else {
+            Log.w(TAG, "No checksum for " + download.getFilename() + ": " + checksum.getErrorMessage());
+        }
+    }
+
+    private static boolean hasChecksum(Download download) {
+        return download.getMd5Hash() != null && !download.getMd5Hash().isEmpty();
+    }
+
+    @Override
+    public boolean needsRefresh(Download download) {
+        if (!download.hasSource()) {
+            return false;
+        }
+
+        String url = download.getUrl();
+        if (url == null || url.isEmpty()) {
+            return true;
+        }
+
+        long expiresAt = getExpiryTime(download);
+        return expiresAt > 0 && System.currentTimeMillis() >= expiresAt - EXPIRY_MARGIN_MS;
+    }
+
+    private long getExpiryTime(Download download) {
+        Matcher matcher = EXPIRY_PATTERN.matcher(download.getUrl());
+        if (matcher.find()) {
+            try {
+                return Long.parseLong(matcher.group(1)) * 1000L;
+            } catch (NumberFormatException e) {
+                // Fall through to the default lifetime
+            }
+        }
+
+        if (download.getUrlResolvedTime() > 0) {
+            return download.getUrlResolvedTime() + DEFAULT_LINK_LIFETIME_MS;
+        }
+        return 0;
+    }
+}
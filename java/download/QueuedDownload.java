@@ -0,0 +1,56 @@
+package com.minigalaxy.android.download;
+
+import com.minigalaxy.android.model.Download;
+
+import java.util.Comparator;
+
+/**
+ * Queue entry ordered by priority plus the aging earned while waiting.
+ * Every entry ages at the same rate, so the order between two entries
+ * never changes over time and the heap stays valid.
+ */
+class QueuedDownload implements Comparable<QueuedDownload> {
+    
+    // A queued download gains one priority level for each interval it waits
+    static final long AGING_INTERVAL_MS = 60 * 1000;
+    
+    /**
+     * Fast lane order: least remaining data first, then priority, then arrival
+     */
+    static final Comparator<QueuedDownload> SHORTEST_FIRST = new Comparator<QueuedDownload>() {
+        @Override
+        public int compare(QueuedDownload a, QueuedDownload b) {
+            int bySize = Long.compare(remainingBytes(a.download), remainingBytes(b.download));
+            return bySize != 0 ? bySize : a.compareTo(b);
+        }
+    };
+    
+    final Download download;
+    final int priority;
+    final long queueTime;
+    
+    QueuedDownload(Download download, int priority) {
+        this(download, priority, System.currentTimeMillis());
+    }
+    
+    QueuedDownload(Download download, int priority, long queueTime) {
+        this.download = download;
+        this.priority = priority;
+        this.queueTime = queueTime;
+    }
+    
+    double getEffectivePriority(long now) {
+        return priority + (double) (now - queueTime) / AGING_INTERVAL_MS;
+    }
+    
+    @Override
+    public int compareTo(QueuedDownload other) {
+        long score = this.priority * AGING_INTERVAL_MS - this.queueTime;
+        long otherScore = other.priority * AGING_INTERVAL_MS - other.queueTime;
+        return Long.compare(otherScore, score);
+    }
+    
+    static long remainingBytes(Download download) {
+        return Math.max(0, download.getTotalSize() - download.getDownloadedSize());
+    }
+}
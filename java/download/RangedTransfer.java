@@ -0,0 +1,95 @@
+package com.minigalaxy.android.download;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * One attempt at fetching a file into its .partial file, continuing after the
+ * bytes already on disk. Holds no Android or DownloadManager state, so the
+ * transfer path can be driven against a local server by the benchmark module.
+ */
+public class RangedTransfer {
+
+    /**
+     * Callbacks from the transfer thread. Throwing from any of them aborts the attempt.
+     */
+    public interface Listener {
+        void onConnected(long latencyMillis) throws IOException;
+        void onSizeKnown(long totalSize) throws IOException;
+        void onProgress(long position, int bytesRead) throws IOException;
+    }
+
+    private final Call.Factory callFactory;
+    private final int bufferSize;
+
+    public RangedTransfer(Call.Factory callFactory, int bufferSize) {
+        this.callFactory = callFactory;
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Fetch {@code url} into {@code partialFile}
+     *
+     * @param expectedSize size of the complete file if known, otherwise 0
+     * @return size of the file on disk once the attempt completed
+     */
+    public long fetch(String url, File partialFile, long expectedSize, Listener listener) throws IOException {
+        long offset = partialFile.exists() ? partialFile.length() : 0;
+
+        Request.Builder requestBuilder = new Request.Builder()
+                .url(url);
+        if (offset > 0) {
+            requestBuilder.addHeader("Range", "bytes=" + offset + "-");
+        }
+
+        long requestStart = System.currentTimeMillis();
+        try (Response response = callFactory.newCall(requestBuilder.build()).execute()) {
+            listener.onConnected(System.currentTimeMillis() - requestStart);
+
+            if (response.code() == 416 && offset > 0 && expectedSize > 0 && offset >= expectedSize) {
+                // Everything was already on disk when the previous attempt stopped
+                return offset;
+            }
+
+            if (!response.isSuccessful()) {
+                throw DownloadException.fromHttpStatus(response.code());
+            }
+
+            boolean resumed = response.code() == 206;
+            if (!resumed) {
+                // The server ignored the range request
+                offset = 0;
+            }
+
+            long contentLength = response.body().contentLength();
+            if (contentLength > 0) {
+                listener.onSizeKnown(offset + contentLength);
+            }
+
+            try (FileOutputStream outputStream = new FileOutputStream(partialFile, offset > 0)) {
+                return copy(response.body().byteStream(), outputStream, offset, listener);
+            }
+        }
+    }
+
+    private long copy(InputStream inputStream, FileOutputStream outputStream, long offset,
+                      Listener listener) throws IOException {
+        byte[] buffer = new byte[bufferSize];
+        long position = offset;
+
+        int bytesRead;
+        while ((bytesRead = inputStream.read(buffer)) != -1) {
+            outputStream.write(buffer, 0, bytesRead);
+            position += bytesRead;
+            listener.onProgress(position, bytesRead);
+        }
+
+        return position;
+    }
+}
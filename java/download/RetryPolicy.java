@@ -0,0 +1,59 @@
+package com.minigalaxy.android.download;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff with jitter for failed downloads
+ */
+public class RetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private final Random random = new Random();
+
+    public RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+    public static RetryPolicy defaultPolicy() {
+        return new RetryPolicy(8, 1000, 5 * 60 * 1000);
+    }
+
+    /**
+     * Whether a failure with the given reason should be retried
+     *
+     * @param attempt number of retries already made for this download
+     */
+    public boolean shouldRetry(DownloadException.Reason reason, int attempt) {
+        return reason.isRetryable() && attempt < maxAttempts;
+    }
+
+    /**
+     * Delay before the next attempt, in milliseconds
+     */
+    public long getDelay(DownloadException.Reason reason, int attempt) {
+        if (reason == DownloadException.Reason.LINK_EXPIRED
+                || reason == DownloadException.Reason.RANGE_NOT_SATISFIABLE) {
+            // Nothing to wait for, the next attempt uses a different request
+            return 0;
+        }
+
+        long cap = baseDelayMs << Math.min(attempt, 20);
+        if (cap <= 0 || cap > maxDelayMs) {
+            cap = maxDelayMs;
+        }
+
+        // "Equal jitter": keep half the backoff, randomize the other half
+        long half = cap / 2;
+        synchronized (random) {
+            return half + (long) (random.nextDouble() * (cap - half));
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+}
@@ -0,0 +1,59 @@
+package com.minigalaxy.android.install;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Repair source backed by a kept installer: reads file ranges straight out
+ * of the zip (or GOG .sh) archive the game was installed from
+ */
+public class ArchiveChunkSource implements ChunkManifest.ChunkSource {
+
+    private final File archive;
+    private final String entryPrefix;
+
+    public ArchiveChunkSource(File archive) {
+        this.archive = archive;
+        this.entryPrefix = StreamingInstaller.detectFormat(archive.getName()) == StreamingInstaller.Format.GOG_SHELL
+                ? StreamingInstaller.GOG_DATA_PREFIX : "";
+    }
+
+    @Override
+    public InputStream openRange(String path, long offset, int length) throws IOException {
+        ZipFile zip = new ZipFile(archive);
+        try {
+            ZipEntry entry = zip.getEntry(entryPrefix + path);
+            if (entry == null) {
+                throw new IOException(path + " is not in " + archive.getName());
+            }
+
+            InputStream in = zip.getInputStream(entry);
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new IOException("Range beyond end of " + path);
+                }
+                remaining -= skipped;
+            }
+
+            return new FilterInputStream(in) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        zip.close();
+                    }
+                }
+            };
+        } catch (IOException e) {
+            zip.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.minigalaxy.android.install;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Fixed-size ring buffer connecting a producer thread to a consumer thread.
+ * The writer blocks while the buffer is full, so a slow consumer throttles the
+ * producer instead of letting data pile up in memory. Either side can abort
+ * and the other side sees an IOException on its next call.
+ */
+public class BoundedPipe {
+
+    private final byte[] buffer;
+    private final Object lock = new Object();
+
+    private int readPos;
+    private int count;
+    private boolean writerClosed;
+    private boolean readerClosed;
+    private IOException writerFailure;
+
+    private final InputStream source = new PipeInputStream();
+    private final OutputStream sink = new PipeOutputStream();
+
+    public BoundedPipe(int capacity) {
+        this.buffer = new byte[capacity];
+    }
+
+    /**
+     * Stream the consumer reads from
+     */
+    public InputStream source() {
+        return source;
+    }
+
+    /**
+     * Stream the producer writes to; closing it signals end of data
+     */
+    public OutputStream sink() {
+        return sink;
+    }
+
+    /**
+     * Abort from the producer side; the consumer's next read throws the given error
+     */
+    public void fail(IOException failure) {
+        synchronized (lock) {
+            writerFailure = failure;
+            writerClosed = true;
+            lock.notifyAll();
+        }
+    }
+
+    private void write(byte[] b, int off, int len) throws IOException {
+        synchronized (lock) {
+            while (len > 0) {
+                while (count == buffer.length && !readerClosed) {
+                    await();
+                }
+                if (readerClosed) {
+                    throw new IOException("Pipe closed by reader");
+                }
+                if (writerClosed) {
+                    throw new IOException("Pipe closed");
+                }
+
+                int writePos = (readPos + count) % buffer.length;
+                int chunk = Math.min(len, Math.min(buffer.length - count, buffer.length - writePos));
+                System.arraycopy(b, off, buffer, writePos, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+
+        synchronized (lock) {
+            while (count == 0 && !writerClosed) {
+                await();
+            }
+            if (count == 0) {
+                if (writerFailure != null) {
+                    throw new IOException("Producer failed", writerFailure);
+                }
+                return -1;
+            }
+
+            int chunk = Math.min(len, Math.min(count, buffer.length - readPos));
+            System.arraycopy(buffer, readPos, b, off, chunk);
+            readPos = (readPos + chunk) % buffer.length;
+            count -= chunk;
+            lock.notifyAll();
+            return chunk;
+        }
+    }
+
+    private void await() throws InterruptedIOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting on pipe");
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int n = BoundedPipe.this.read(single, 0, 1);
+            return n == -1 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BoundedPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            synchronized (lock) {
+                return count;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                readerClosed = true;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            BoundedPipe.this.write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BoundedPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            synchronized (lock) {
+                writerClosed = true;
+                lock.notifyAll();
+            }
+        }
+    }
+}
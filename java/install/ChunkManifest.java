@@ -0,0 +1,529 @@
+package com.minigalaxy.android.install;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Record of what an installed game consists of: every file split into
+ * content-defined chunks (gear rolling hash) with an MD5 per chunk. Stored
+ * as {@code .minigalaxy/manifest.json} inside the install directory.
+ *
+ * Because chunk boundaries follow the content, an edit only changes the
+ * chunks around it, so verification can point at damaged ranges and two
+ * manifests can be compared chunk by chunk.
+ */
+public class ChunkManifest {
+
+    public static final String METADATA_DIR = ".minigalaxy";
+    private static final String MANIFEST_FILE = "manifest.json";
+
+    private static final int MIN_CHUNK_SIZE = 256 * 1024;
+    private static final int MAX_CHUNK_SIZE = 4 * 1024 * 1024;
+    // The top 20 bits of the gear hash are zero on average once per 1 MB
+    private static final int BOUNDARY_SHIFT = 64 - 20;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Fixed seed: boundaries must be identical on every device and release
+        Random random = new Random(0x6d696e6967616cL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    private String gameVersion;
+    private long updatedAt;
+    private Map<String, FileEntry> files = new TreeMap<>();
+
+    public String getGameVersion() {
+        return gameVersion;
+    }
+
+    public void setGameVersion(String gameVersion) {
+        this.gameVersion = gameVersion;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public Map<String, FileEntry> getFiles() {
+        return files;
+    }
+
+    public long getTotalSize() {
+        long total = 0;
+        for (FileEntry entry : files.values()) {
+            total += entry.size;
+        }
+        return total;
+    }
+
+    /**
+     * Load the manifest of an install directory
+     *
+     * @return the manifest, or null if there is none or it is unreadable
+     */
+    public static ChunkManifest load(File installDir) {
+        File file = manifestFile(installDir);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            ChunkManifest manifest = new Gson().fromJson(reader, ChunkManifest.class);
+            if (manifest != null && manifest.files == null) {
+                manifest.files = new TreeMap<>();
+            }
+            return manifest;
+        } catch (IOException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    public void save(File installDir) throws IOException {
+        File file = manifestFile(installDir);
+        StreamingInstaller.mkdirs(file.getParentFile());
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            new Gson().toJson(this, writer);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to write " + file);
+        }
+    }
+
+    /**
+     * Bring the manifest in line with the install directory, chunking only
+     * files that are new or whose size or modification time changed, then save it
+     */
+    public static ChunkManifest refresh(File installDir, String gameVersion) throws IOException {
+        ChunkManifest manifest = load(installDir);
+        if (manifest == null) {
+            manifest = new ChunkManifest();
+        }
+
+        Set<String> seen = new HashSet<>();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        for (String path : listFiles(installDir)) {
+            seen.add(path);
+            File file = new File(installDir, path);
+            FileEntry entry = manifest.files.get(path);
+            if (entry == null || !entry.matchesMetadata(file)) {
+                manifest.files.put(path, chunkFile(file, buffer));
+            }
+        }
+
+        Iterator<String> iterator = manifest.files.keySet().iterator();
+        while (iterator.hasNext()) {
+            if (!seen.contains(iterator.next())) {
+                iterator.remove();
+            }
+        }
+
+        manifest.gameVersion = gameVersion;
+        manifest.updatedAt = System.currentTimeMillis();
+        manifest.save(installDir);
+        return manifest;
+    }
+
+    /**
+     * Check installed files against the manifest. Unless {@code full} is set,
+     * files whose size and modification time are unchanged are trusted.
+     */
+    public VerifyResult verify(File installDir, boolean full) throws IOException {
+        VerifyResult result = new VerifyResult();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+
+        for (Map.Entry<String, FileEntry> item : files.entrySet()) {
+            String path = item.getKey();
+            FileEntry entry = item.getValue();
+            File file = new File(installDir, path);
+
+            if (!file.isFile()) {
+                result.missing.add(path);
+                result.addDamaged(path, entry.chunks);
+                continue;
+            }
+            if (!full && entry.matchesMetadata(file)) {
+                continue;
+            }
+
+            result.checkedBytes += entry.size;
+            List<Chunk> damaged = findDamagedChunks(file, entry, buffer);
+            if (!damaged.isEmpty()) {
+                result.addDamaged(path, damaged);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rewrite only the damaged ranges found by {@link #verify}, reading them from the source
+     *
+     * @return number of bytes rewritten
+     */
+    public long repair(File installDir, VerifyResult result, ChunkSource source) throws IOException {
+        long repaired = 0;
+        byte[] buffer = new byte[MAX_CHUNK_SIZE];
+
+        for (Map.Entry<String, List<Chunk>> item : result.damaged.entrySet()) {
+            String path = item.getKey();
+            FileEntry entry = files.get(path);
+            File file = new File(installDir, path);
+            StreamingInstaller.mkdirs(file.getParentFile());
+
+            try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+                out.setLength(entry.size);
+                for (Chunk chunk : item.getValue()) {
+                    try (InputStream in = source.openRange(path, chunk.offset, chunk.length)) {
+                        readFully(in, buffer, chunk.length);
+                    }
+                    if (!chunk.hash.equals(md5(buffer, chunk.length))) {
+                        throw new IOException("Repair source returned wrong data for " + path);
+                    }
+                    out.seek(chunk.offset);
+                    out.write(buffer, 0, chunk.length);
+                    repaired += chunk.length;
+                }
+            }
+
+            entry.mtime = file.lastModified();
+        }
+
+        save(installDir);
+        return repaired;
+    }
+
+    /**
+     * Compare with the manifest of another version of the game. Chunks whose
+     * hash already exists anywhere in this manifest do not need to be fetched.
+     */
+    public Diff diff(ChunkManifest newer) {
+        Set<String> knownChunks = new HashSet<>();
+        for (FileEntry entry : files.values()) {
+            for (Chunk chunk : entry.chunks) {
+                knownChunks.add(chunk.hash);
+            }
+        }
+
+        Diff diff = new Diff();
+        for (Map.Entry<String, FileEntry> item : newer.files.entrySet()) {
+            String path = item.getKey();
+            FileEntry newEntry = item.getValue();
+            FileEntry oldEntry = files.get(path);
+
+            if (oldEntry == null) {
+                diff.added.add(path);
+            } else if (!oldEntry.sameContent(newEntry)) {
+                diff.changed.add(path);
+            } else {
+                continue;
+            }
+
+            for (Chunk chunk : newEntry.chunks) {
+                if (!knownChunks.contains(chunk.hash)) {
+                    diff.bytesToFetch += chunk.length;
+                }
+            }
+        }
+
+        for (String path : files.keySet()) {
+            if (!newer.files.containsKey(path)) {
+                diff.removed.add(path);
+            }
+        }
+        return diff;
+    }
+
+    private static File manifestFile(File installDir) {
+        return new File(new File(installDir, METADATA_DIR), MANIFEST_FILE);
+    }
+
+    /**
+     * Relative paths of every regular file in the install directory, excluding our own metadata
+     */
+    static List<String> listFiles(File installDir) {
+        List<String> paths = new ArrayList<>();
+        collectFiles(installDir, "", paths);
+        return paths;
+    }
+
+    private static void collectFiles(File dir, String prefix, List<String> paths) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+
+        for (File child : children) {
+            String path = prefix + child.getName();
+            if (child.isDirectory()) {
+                if (!path.equals(METADATA_DIR)) {
+                    collectFiles(child, path + "/", paths);
+                }
+            } else if (child.isFile()) {
+                paths.add(path);
+            }
+        }
+    }
+
+    static FileEntry chunkFile(File file, byte[] buffer) throws IOException {
+        FileEntry entry = new FileEntry();
+        entry.size = file.length();
+        entry.mtime = file.lastModified();
+
+        MessageDigest digest = newMd5();
+        long chunkStart = 0;
+        long position = 0;
+        long hash = 0;
+        int chunkLength = 0;
+
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                int from = 0;
+                for (int i = 0; i < read; i++) {
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xff];
+                    chunkLength++;
+
+                    boolean boundary = chunkLength >= MIN_CHUNK_SIZE && (hash >>> BOUNDARY_SHIFT) == 0;
+                    if (boundary || chunkLength >= MAX_CHUNK_SIZE) {
+                        digest.update(buffer, from, i + 1 - from);
+                        entry.chunks.add(new Chunk(chunkStart, chunkLength, toHex(digest.digest())));
+                        chunkStart = position + i + 1;
+                        chunkLength = 0;
+                        hash = 0;
+                        from = i + 1;
+                    }
+                }
+                digest.update(buffer, from, read - from);
+                position += read;
+            }
+        }
+
+        if (chunkLength > 0) {
+            entry.chunks.add(new Chunk(chunkStart, chunkLength, toHex(digest.digest())));
+        }
+        return entry;
+    }
+
+    private static List<Chunk> findDamagedChunks(File file, FileEntry entry, byte[] buffer) throws IOException {
+        List<Chunk> damaged = new ArrayList<>();
+        long actualSize = file.length();
+
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            for (Chunk chunk : entry.chunks) {
+                if (chunk.offset + chunk.length > actualSize) {
+                    damaged.add(chunk);
+                    continue;
+                }
+
+                MessageDigest digest = newMd5();
+                in.seek(chunk.offset);
+                int remaining = chunk.length;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, Math.min(buffer.length, remaining));
+                    if (read == -1) {
+                        break;
+                    }
+                    digest.update(buffer, 0, read);
+                    remaining -= read;
+                }
+
+                if (remaining > 0 || !chunk.hash.equals(toHex(digest.digest()))) {
+                    damaged.add(chunk);
+                }
+            }
+        }
+        return damaged;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int offset = 0;
+        while (offset < length) {
+            int read = in.read(buffer, offset, length - offset);
+            if (read == -1) {
+                throw new IOException("Repair source ended early");
+            }
+            offset += read;
+        }
+    }
+
+    private static String md5(byte[] data, int length) throws IOException {
+        MessageDigest digest = newMd5();
+        digest.update(data, 0, length);
+        return toHex(digest.digest());
+    }
+
+    private static MessageDigest newMd5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    public static class FileEntry {
+        private long size;
+        private long mtime;
+        private List<Chunk> chunks = new ArrayList<>();
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getMtime() {
+            return mtime;
+        }
+
+        public List<Chunk> getChunks() {
+            return chunks;
+        }
+
+        boolean matchesMetadata(File file) {
+            return file.length() == size && file.lastModified() == mtime;
+        }
+
+        boolean sameContent(FileEntry other) {
+            if (size != other.size || chunks.size() != other.chunks.size()) {
+                return false;
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                if (!chunks.get(i).hash.equals(other.chunks.get(i).hash)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public static class Chunk {
+        private final long offset;
+        private final int length;
+        private final String hash;
+
+        Chunk(long offset, int length, String hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public String getHash() {
+            return hash;
+        }
+    }
+
+    public static class VerifyResult {
+        private final Map<String, List<Chunk>> damaged = new TreeMap<>();
+        private final List<String> missing = new ArrayList<>();
+        private long checkedBytes;
+
+        void addDamaged(String path, List<Chunk> chunks) {
+            damaged.put(path, new ArrayList<>(chunks));
+        }
+
+        public boolean isIntact() {
+            return damaged.isEmpty();
+        }
+
+        /**
+         * Damaged files with the chunks that need to be rewritten
+         */
+        public Map<String, List<Chunk>> getDamaged() {
+            return damaged;
+        }
+
+        public List<String> getMissing() {
+            return missing;
+        }
+
+        public long getCheckedBytes() {
+            return checkedBytes;
+        }
+
+        public long getDamagedBytes() {
+            long total = 0;
+            for (List<Chunk> chunks : damaged.values()) {
+                for (Chunk chunk : chunks) {
+                    total += chunk.length;
+                }
+            }
+            return total;
+        }
+    }
+
+    public static class Diff {
+        private final List<String> added = new ArrayList<>();
+        private final List<String> changed = new ArrayList<>();
+        private final List<String> removed = new ArrayList<>();
+        private long bytesToFetch;
+
+        public List<String> getAdded() {
+            return added;
+        }
+
+        public List<String> getChanged() {
+            return changed;
+        }
+
+        public List<String> getRemoved() {
+            return removed;
+        }
+
+        /**
+         * Bytes of chunks that are not already present in the installed version
+         */
+        public long getBytesToFetch() {
+            return bytesToFetch;
+        }
+    }
+
+    /**
+     * Supplies the original bytes of a file range for repair
+     */
+    public interface ChunkSource {
+        InputStream openRange(String path, long offset, int length) throws IOException;
+    }
+}
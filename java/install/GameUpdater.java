@@ -0,0 +1,244 @@
+package com.minigalaxy.android.install;
+
+import android.util.Log;
+
+import com.minigalaxy.android.api.ApiResponse;
+import com.minigalaxy.android.api.GogApi;
+import com.minigalaxy.android.concurrent.AppExecutors;
+import com.minigalaxy.android.config.Config;
+import com.minigalaxy.android.download.ContentStore;
+import com.minigalaxy.android.download.DownloadGroup;
+import com.minigalaxy.android.download.DownloadManager;
+import com.minigalaxy.android.model.Download;
+import com.minigalaxy.android.model.FileInfo;
+import com.minigalaxy.android.model.Game;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Updates installed games. When GOG publishes a patch chain from the
+ * installed version to the latest one only the patches are downloaded and
+ * applied in place; otherwise the full installer is applied over the game.
+ * Either way a failed step leaves the previous files untouched.
+ */
+public class GameUpdater implements DownloadManager.DownloadGroupListener {
+
+    private static final String TAG = "GameUpdater";
+    private static final String PLATFORM = "linux";
+    private static final int UPDATE_PRIORITY = 2;
+
+    private final GogApi gogApi;
+    private final DownloadManager downloadManager;
+    private final Config config;
+    private final ExecutorService executorService;
+    private final Map<String, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+
+    public GameUpdater(GogApi gogApi, DownloadManager downloadManager, Config config) {
+        this.gogApi = gogApi;
+        this.downloadManager = downloadManager;
+        this.config = config;
+        this.executorService = AppExecutors.getInstance().disk();
+        downloadManager.addGroupListener(this);
+    }
+
+    /**
+     * Compare the installed version with the remote manifest. Blocking; call
+     * from a background thread.
+     *
+     * @return the plan, or a successful response with no data if the game is up to date
+     */
+    public ApiResponse<UpdatePlan> checkForUpdate(Game game) {
+        if (!game.isInstalled() || game.getInstallDir() == null) {
+            return ApiResponse.error("Game is not installed");
+        }
+
+        ApiResponse<List<FileInfo>> response = gogApi.getGameFiles(game.getId(), PLATFORM, config.getLang());
+        if (!response.isSuccess()) {
+            return ApiResponse.error(response.getErrorMessage());
+        }
+
+        List<FileInfo> installer = new ArrayList<>();
+        List<FileInfo> patches = new ArrayList<>();
+        for (FileInfo file : response.getData()) {
+            if (file.isPatch()) {
+                patches.add(file);
+            } else if (file.isInstaller() && (installer.isEmpty()
+                    || installer.get(0).getInstallerId().equals(file.getInstallerId()))) {
+                installer.add(file);
+            }
+        }
+
+        if (installer.isEmpty()) {
+            return ApiResponse.error("No installer available for " + game.getName());
+        }
+
+        String installedVersion = getInstalledVersion(game);
+        String latestVersion = installer.get(0).getVersion();
+        if (installedVersion == null || latestVersion == null) {
+            // Nothing to compare, e.g. a streamed install that never learned its version
+            return ApiResponse.success(null);
+        }
+        if (UpdatePlan.compareVersions(latestVersion, installedVersion) <= 0) {
+            return ApiResponse.success(null);
+        }
+
+        List<FileInfo> chain = UpdatePlan.findPatchChain(installedVersion, latestVersion, patches);
+        if (chain != null && areSupported(chain)) {
+            return ApiResponse.success(new UpdatePlan(installedVersion, latestVersion, chain, true));
+        }
+
+        if (!areSupported(installer)) {
+            return ApiResponse.error("Installer format not supported for updates");
+        }
+        return ApiResponse.success(new UpdatePlan(installedVersion, latestVersion, installer, false));
+    }
+
+    /**
+     * Check the installed games among {@code games} in the background, one
+     * manifest request at a time, and report each one that has an update
+     */
+    public void checkForUpdates(List<Game> games, UpdateCheckListener listener) {
+        List<Game> installed = new ArrayList<>();
+        for (Game game : games) {
+            if (game.isInstalled()) {
+                installed.add(game);
+            }
+        }
+        if (installed.isEmpty()) {
+            return;
+        }
+
+        AppExecutors.getInstance().io().execute(() -> {
+            for (Game game : installed) {
+                ApiResponse<UpdatePlan> response = checkForUpdate(game);
+                if (!response.isSuccess()) {
+                    Log.w(TAG, "Update check failed for " + game.getName() + ": " + response.getErrorMessage());
+                } else if (response.getData() != null) {
+                    listener.onUpdateAvailable(game, response.getData());
+                }
+            }
+        });
+    }
+
+    /**
+     * Download the files of the plan and apply them once they are all verified
+     */
+    public void startUpdate(Game game, UpdatePlan plan, UpdateCallback callback) {
+        File updateDir = new File(game.getInstallDir(), ".minigalaxy" + File.separator + "updates");
+        DownloadGroup group = DownloadGroup.fromFiles(game, plan.getFiles(), updateDir.getAbsolutePath());
+        if (!plan.isDelta()) {
+            for (Download part : group.getParts()) {
+                part.setType(Download.DownloadType.UPDATE);
+            }
+        }
+
+        pendingUpdates.put(group.getId(), new PendingUpdate(game, plan, group, callback));
+        downloadManager.addDownloadGroup(group, UPDATE_PRIORITY);
+    }
+
+    @Override
+    public void onGroupProgress(DownloadGroup group) {
+    }
+
+    @Override
+    public void onGroupCompleted(DownloadGroup group) {
+        PendingUpdate update = pendingUpdates.remove(group.getId());
+        if (update != null) {
+            executorService.execute(() -> applyUpdate(update));
+        }
+    }
+
+    @Override
+    public void onGroupFailed(DownloadGroup group, String error) {
+        PendingUpdate update = pendingUpdates.remove(group.getId());
+        if (update != null) {
+            update.callback.onUpdateFailed(update.game, error);
+        }
+    }
+
+    private void applyUpdate(PendingUpdate update) {
+        Game game = update.game;
+        List<Download> parts = update.group.getParts();
+
+        try {
+            PatchApplier applier = new PatchApplier(new File(game.getInstallDir()));
+            for (int i = 0; i < parts.size(); i++) {
+                applier.apply(new File(parts.get(i).getDestinationPath()));
+
+                // Each patch is atomic, so the game is at this version even if a later one fails
+                if (update.plan.isDelta()) {
+                    game.setVersion(update.plan.getFiles().get(i).getVersion());
+                }
+            }
+
+            game.setVersion(update.plan.getToVersion());
+            // Only the files touched by the update are chunked again
+            ChunkManifest.refresh(new File(game.getInstallDir()), game.getVersion());
+            update.callback.onUpdateCompleted(game);
+        } catch (IOException e) {
+            Log.e(TAG, "Error updating " + game.getName(), e);
+            update.callback.onUpdateFailed(game, e.getMessage());
+        } finally {
+            ContentStore contentStore = downloadManager.getContentStore();
+            for (Download part : parts) {
+                contentStore.delete(new File(part.getDestinationPath()));
+            }
+            // Patched files no longer match the stored content they were linked to
+            contentStore.sweep();
+        }
+    }
+
+    public void cleanup() {
+        downloadManager.removeGroupListener(this);
+    }
+
+    /**
+     * The version recorded on the game, or failing that the one the chunk
+     * manifest was written for
+     */
+    private static String getInstalledVersion(Game game) {
+        if (game.getVersion() != null) {
+            return game.getVersion();
+        }
+        ChunkManifest manifest = ChunkManifest.load(new File(game.getInstallDir()));
+        return manifest != null ? manifest.getGameVersion() : null;
+    }
+
+    private static boolean areSupported(List<FileInfo> files) {
+        for (FileInfo file : files) {
+            if (!PatchApplier.isSupported(file.getFilename())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class PendingUpdate {
+        final Game game;
+        final UpdatePlan plan;
+        final DownloadGroup group;
+        final UpdateCallback callback;
+
+        PendingUpdate(Game game, UpdatePlan plan, DownloadGroup group, UpdateCallback callback) {
+            this.game = game;
+            this.plan = plan;
+            this.group = group;
+            this.callback = callback;
+        }
+    }
+
+    public interface UpdateCheckListener {
+        void onUpdateAvailable(Game game, UpdatePlan plan);
+    }
+
+    public interface UpdateCallback {
+        void onUpdateCompleted(Game game);
+        void onUpdateFailed(Game game, String error);
+    }
+}
@@ -0,0 +1,420 @@
+package com.minigalaxy.android.install;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.minigalaxy.android.concurrent.AppExecutors;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks an installed game for corruption by hashing its files in parallel
+ * on the shared CPU pool. Files are compared with expected MD5s where known and with the chunk
+ * hashes of the {@link ChunkManifest} otherwise. Files that verified before
+ * and whose size and mtime have not changed since are skipped.
+ */
+public class IntegrityVerifier {
+
+    public enum Status {
+        OK,
+        CORRUPTED,
+        MISSING
+    }
+
+    private static final String CACHE_FILE = "verify-cache.json";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final File installDir;
+    private final File cacheFile;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    private volatile boolean cancelled;
+    private volatile long throttleBytesPerSecond;
+    private long nextReadNanos;
+
+    public IntegrityVerifier(File installDir) {
+        this(installDir, AppExecutors.getInstance().cpu(), AppExecutors.getInstance().cpu().getMaximumPoolSize());
+    }
+
+    /**
+     * @param executor    runs the hashing workers; never shut down here
+     * @param parallelism number of workers, each hashing one file at a time
+     */
+    public IntegrityVerifier(File installDir, ExecutorService executor, int parallelism) {
+        this.installDir = installDir;
+        this.cacheFile = new File(new File(installDir, ChunkManifest.METADATA_DIR), CACHE_FILE);
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Limit the combined read rate of all workers, e.g. while the game is running.
+     * Takes effect immediately; 0 removes the limit.
+     */
+    public void setThrottle(long bytesPerSecond) {
+        this.throttleBytesPerSecond = bytesPerSecond;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Verify the installation. Results are streamed to the listener from
+     * worker threads as each file finishes.
+     *
+     * @param expectedMd5 known checksums keyed by path relative to the install directory
+     * @param full        hash every file, ignoring the cache
+     * @throws InterruptedIOException if cancelled
+     */
+    public Summary verify(Map<String, String> expectedMd5, boolean full, Listener listener) throws IOException {
+        ChunkManifest manifest = ChunkManifest.load(installDir);
+        Map<String, ChunkManifest.FileEntry> manifestFiles = manifest != null
+                ? manifest.getFiles() : Collections.<String, ChunkManifest.FileEntry>emptyMap();
+
+        Set<String> paths = new LinkedHashSet<>(manifestFiles.keySet());
+        paths.addAll(expectedMd5.keySet());
+
+        Map<String, CacheEntry> cache = full ? new HashMap<String, CacheEntry>() : loadCache();
+        Map<String, CacheEntry> newCache = new ConcurrentHashMap<>();
+        Summary summary = new Summary();
+
+        // Biggest files first so the workers finish close together
+        List<String> toHash = new ArrayList<>();
+        long totalBytes = 0;
+        for (String path : paths) {
+            File file = new File(installDir, path);
+            CacheEntry cached = cache.get(path);
+            String expected = expectedMd5.get(path);
+            if (cached != null && cached.matches(file) && (expected == null || expected.equalsIgnoreCase(cached.md5))) {
+                newCache.put(path, cached);
+                summary.skippedFiles++;
+                continue;
+            }
+            toHash.add(path);
+            totalBytes += file.length();
+        }
+        Collections.sort(toHash, (a, b) -> Long.compare(
+                new File(installDir, b).length(), new File(installDir, a).length()));
+
+        AtomicLong hashedBytes = new AtomicLong();
+        AtomicInteger next = new AtomicInteger();
+        List<Future<List<FileResult>>> futures = new ArrayList<>();
+        long total = totalBytes;
+
+        // A few workers pulling files in order, rather than a task per file flooding the shared queue
+        int workers = Math.min(parallelism, toHash.size());
+        for (int i = 0; i < workers; i++) {
+            futures.add(executor.submit(() -> {
+                List<FileResult> results = new ArrayList<>();
+                int index;
+                while (!cancelled && (index = next.getAndIncrement()) < toHash.size()) {
+                    String path = toHash.get(index);
+                    FileResult result = verifyFile(path, expectedMd5.get(path), manifestFiles.get(path),
+                            hashedBytes, total, listener);
+                    if (result.status == Status.OK) {
+                        File file = new File(installDir, path);
+                        newCache.put(path, new CacheEntry(file.length(), file.lastModified(), result.actualMd5));
+                    }
+                    if (listener != null) {
+                        listener.onFileVerified(result);
+                    }
+                    results.add(result);
+                }
+                return results;
+            }));
+        }
+
+        try {
+            for (Future<List<FileResult>> future : futures) {
+                for (FileResult result : future.get()) {
+                    summary.add(result);
+                }
+            }
+        } catch (ExecutionException e) {
+            // Stop the other workers as well
+            cancelled = true;
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Verification interrupted");
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("Verification cancelled");
+        }
+
+        summary.hashedBytes = hashedBytes.get();
+        saveCache(newCache);
+        return summary;
+    }
+
+    private FileResult verifyFile(String path, String expected, ChunkManifest.FileEntry entry,
+                                  AtomicLong hashedBytes, long totalBytes, Listener listener) throws IOException {
+        FileResult result = new FileResult(path, expected);
+        File file = new File(installDir, path);
+        if (!file.isFile()) {
+            result.status = Status.MISSING;
+            if (entry != null) {
+                result.damagedChunks.addAll(entry.getChunks());
+            }
+            return result;
+        }
+
+        MessageDigest fileDigest = newMd5();
+        MessageDigest chunkDigest = newMd5();
+        List<ChunkManifest.Chunk> chunks = entry != null && entry.getSize() == file.length()
+                ? entry.getChunks() : Collections.<ChunkManifest.Chunk>emptyList();
+        int chunkIndex = 0;
+        long chunkRemaining = chunks.isEmpty() ? 0 : chunks.get(0).getLength();
+
+        byte[] buffer = BUFFERS.get();
+        try (InputStream in = new FileInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Verification cancelled");
+                }
+                throttle(read);
+                fileDigest.update(buffer, 0, read);
+
+                // Chunks are contiguous, so their hashes come from the same pass
+                int offset = 0;
+                while (offset < read && chunkIndex < chunks.size()) {
+                    int length = (int) Math.min(read - offset, chunkRemaining);
+                    chunkDigest.update(buffer, offset, length);
+                    offset += length;
+                    chunkRemaining -= length;
+                    if (chunkRemaining == 0) {
+                        ChunkManifest.Chunk chunk = chunks.get(chunkIndex);
+                        if (!chunk.getHash().equals(toHex(chunkDigest.digest()))) {
+                            result.damagedChunks.add(chunk);
+                        }
+                        chunkIndex++;
+                        chunkRemaining = chunkIndex < chunks.size() ? chunks.get(chunkIndex).getLength() : 0;
+                    }
+                }
+
+                long done = hashedBytes.addAndGet(read);
+                if (listener != null) {
+                    listener.onProgress(done, totalBytes);
+                }
+            }
+        }
+
+        result.actualMd5 = toHex(fileDigest.digest());
+        boolean sizeChanged = entry != null && entry.getSize() != file.length();
+        boolean md5Mismatch = expected != null && !expected.equalsIgnoreCase(result.actualMd5);
+        if (sizeChanged) {
+            result.damagedChunks.addAll(entry.getChunks());
+        }
+        result.status = md5Mismatch || sizeChanged || !result.damagedChunks.isEmpty()
+                ? Status.CORRUPTED : Status.OK;
+        return result;
+    }
+
+    private void throttle(int bytes) throws InterruptedIOException {
+        long rate = throttleBytesPerSecond;
+        if (rate <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized (this) {
+            long now = System.nanoTime();
+            nextReadNanos = Math.max(nextReadNanos, now) + bytes * 1000000000L / rate;
+            waitNanos = nextReadNanos - now;
+        }
+
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Verification interrupted");
+            }
+        }
+    }
+
+    private Map<String, CacheEntry> loadCache() {
+        if (!cacheFile.isFile()) {
+            return new HashMap<>();
+        }
+
+        Type type = new TypeToken<Map<String, CacheEntry>>() {}.getType();
+        try (Reader reader = new InputStreamReader(new FileInputStream(cacheFile), StandardCharsets.UTF_8)) {
+            Map<String, CacheEntry> cache = new Gson().fromJson(reader, type);
+            return cache != null ? cache : new HashMap<String, CacheEntry>();
+        } catch (IOException | JsonParseException e) {
+            return new HashMap<>();
+        }
+    }
+
+    private void saveCache(Map<String, CacheEntry> cache) throws IOException {
+        StreamingInstaller.mkdirs(cacheFile.getParentFile());
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            new Gson().toJson(new HashMap<>(cache), writer);
+        }
+        if (!temp.renameTo(cacheFile)) {
+            temp.delete();
+            throw new IOException("Failed to write " + cacheFile);
+        }
+    }
+
+    private static MessageDigest newMd5() throws IOException {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static class CacheEntry {
+        final long size;
+        final long mtime;
+        final String md5;
+
+        CacheEntry(long size, long mtime, String md5) {
+            this.size = size;
+            this.mtime = mtime;
+            this.md5 = md5;
+        }
+
+        boolean matches(File file) {
+            return file.length() == size && file.lastModified() == mtime;
+        }
+    }
+
+    public static class FileResult {
+        private final String path;
+        private final String expectedMd5;
+        private final List<ChunkManifest.Chunk> damagedChunks = new ArrayList<>();
+        private String actualMd5;
+        private Status status;
+
+        FileResult(String path, String expectedMd5) {
+            this.path = path;
+            this.expectedMd5 = expectedMd5;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getExpectedMd5() {
+            return expectedMd5;
+        }
+
+        public String getActualMd5() {
+            return actualMd5;
+        }
+
+        /**
+         * Damaged ranges according to the chunk manifest, for targeted repair
+         */
+        public List<ChunkManifest.Chunk> getDamagedChunks() {
+            return damagedChunks;
+        }
+    }
+
+    public static class Summary {
+        private final List<FileResult> corrupted = new ArrayList<>();
+        private final List<FileResult> missing = new ArrayList<>();
+        private int verifiedFiles;
+        private int skippedFiles;
+        private long hashedBytes;
+
+        void add(FileResult result) {
+            verifiedFiles++;
+            if (result.status == Status.CORRUPTED) {
+                corrupted.add(result);
+            } else if (result.status == Status.MISSING) {
+                missing.add(result);
+            }
+        }
+
+        public boolean isIntact() {
+            return corrupted.isEmpty() && missing.isEmpty();
+        }
+
+        public List<FileResult> getCorrupted() {
+            return corrupted;
+        }
+
+        public List<FileResult> getMissing() {
+            return missing;
+        }
+
+        public int getVerifiedFiles() {
+            return verifiedFiles;
+        }
+
+        /**
+         * Files skipped because they are unchanged since they last verified
+         */
+        public int getSkippedFiles() {
+            return skippedFiles;
+        }
+
+        public long getHashedBytes() {
+            return hashedBytes;
+        }
+    }
+
+    public interface Listener {
+        void onFileVerified(FileResult result);
+        void onProgress(long hashedBytes, long totalBytes);
+    }
+}
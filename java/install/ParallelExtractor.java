@@ -0,0 +1,261 @@
+package com.minigalaxy.android.install;
+
+import com.minigalaxy.android.concurrent.AppExecutors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a downloaded zip (or GOG Linux .sh) installer using every core.
+ * The central directory gives the full entry list up front, so workers on
+ * the shared CPU pool take entries largest first until none are left. They
+ * share one ZipFile: reads of different entries are thread-safe and only the
+ * central directory parse, done once, is costly.
+ */
+public class ParallelExtractor {
+
+    public interface ProgressListener {
+        void onProgress(long extractedBytes, long totalBytes);
+    }
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final File archive;
+    private final File installDir;
+    private final String installDirPath;
+    private final String entryPrefix;
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    private final AtomicLong extractedBytes = new AtomicLong();
+    private final AtomicLong lastReport = new AtomicLong();
+    private volatile ProgressListener progressListener;
+    private volatile boolean cancelled;
+    private long totalBytes;
+
+    public ParallelExtractor(File archive, File installDir) throws IOException {
+        this(archive, installDir, AppExecutors.getInstance().cpu(),
+                AppExecutors.getInstance().cpu().getMaximumPoolSize());
+    }
+
+    /**
+     * @param executor    runs the workers; never shut down here
+     * @param parallelism number of workers, each extracting one entry at a time
+     */
+    public ParallelExtractor(File archive, File installDir, ExecutorService executor, int parallelism)
+            throws IOException {
+        this.archive = archive;
+        this.installDir = installDir;
+        this.installDirPath = installDir.getCanonicalPath() + File.separator;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+        // The zip inside a GOG .sh installer keeps the game under data/noarch
+        this.entryPrefix = StreamingInstaller.detectFormat(archive.getName()) == StreamingInstaller.Format.GOG_SHELL
+                ? StreamingInstaller.GOG_DATA_PREFIX : null;
+    }
+
+    public static boolean isSupported(String filename) {
+        StreamingInstaller.Format format = StreamingInstaller.detectFormat(filename);
+        return format == StreamingInstaller.Format.ZIP || format == StreamingInstaller.Format.GOG_SHELL;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stop all workers; {@link #extract()} then fails with an InterruptedIOException
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public long getExtractedBytes() {
+        return extractedBytes.get();
+    }
+
+    /**
+     * Extract the archive into the install directory
+     *
+     * @return number of bytes written
+     */
+    public long extract() throws IOException {
+        try (ZipFile zip = new ZipFile(archive)) {
+            extract(zip);
+        }
+        reportProgress(0, true);
+        return extractedBytes.get();
+    }
+
+    private void extract(ZipFile zip) throws IOException {
+        List<Entry> entries = prepareEntries(zip);
+        for (Entry entry : entries) {
+            totalBytes += entry.size;
+        }
+
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(parallelism, entries.size()); i++) {
+            workers.add(executor.submit(() -> {
+                byte[] buffer = BUFFERS.get();
+                int index;
+                while (!cancelled && (index = next.getAndIncrement()) < entries.size()) {
+                    extractEntry(zip, entries.get(index), buffer);
+                }
+                return null;
+            }));
+        }
+
+        try {
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (ExecutionException e) {
+            // Stop the other workers; the ZipFile must outlive them, so wait for them too
+            cancelled = true;
+            awaitQuietly(workers);
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        } catch (InterruptedException e) {
+            cancelled = true;
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Extraction interrupted");
+        }
+        if (cancelled) {
+            throw new InterruptedIOException("Extraction cancelled");
+        }
+    }
+
+    private static void awaitQuietly(List<Future<?>> workers) {
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException ignored) {
+                // Only the first failure is reported
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Read the central directory, create every directory up front (so workers
+     * never race on mkdirs) and return the file entries, largest first
+     */
+    private List<Entry> prepareEntries(ZipFile zip) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        Set<File> dirs = new HashSet<>();
+        dirs.add(installDir);
+
+        Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+        while (zipEntries.hasMoreElements()) {
+            ZipEntry zipEntry = zipEntries.nextElement();
+            String name = zipEntry.getName();
+            if (entryPrefix != null) {
+                if (!name.startsWith(entryPrefix)) {
+                    continue;
+                }
+                name = name.substring(entryPrefix.length());
+            }
+            if (name.isEmpty()) {
+                continue;
+            }
+
+            File target = StreamingInstaller.resolveInside(installDir, installDirPath, name);
+            if (zipEntry.isDirectory()) {
+                dirs.add(target);
+            } else {
+                dirs.add(target.getParentFile());
+                entries.add(new Entry(zipEntry, target, Math.max(0, zipEntry.getSize())));
+            }
+        }
+
+        for (File dir : dirs) {
+            StreamingInstaller.mkdirs(dir);
+        }
+
+        // Big entries first so the workers finish close together
+        Collections.sort(entries, (a, b) -> Long.compare(b.size, a.size));
+        return entries;
+    }
+
+    private void extractEntry(ZipFile zip, Entry entry, byte[] buffer) throws IOException {
+        try (InputStream in = zip.getInputStream(entry.zipEntry);
+             RandomAccessFile out = new RandomAccessFile(entry.target, "rw")) {
+            // Reserve the full size up front instead of growing the file on every write
+            out.setLength(entry.size);
+
+            long written = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                if (cancelled) {
+                    throw new InterruptedIOException("Extraction cancelled");
+                }
+                out.write(buffer, 0, read);
+                written += read;
+                reportProgress(read, false);
+            }
+
+            if (written != entry.size) {
+                out.setLength(written);
+            }
+        }
+    }
+
+    private void reportProgress(long bytes, boolean force) {
+        long done = extractedBytes.addAndGet(bytes);
+        ProgressListener listener = progressListener;
+        if (listener == null) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long last = lastReport.get();
+        if (force || (now - last >= PROGRESS_INTERVAL_MS && lastReport.compareAndSet(last, now))) {
+            listener.onProgress(done, totalBytes);
+        }
+    }
+
+    private static class Entry {
+        final ZipEntry zipEntry;
+        final File target;
+        final long size;
+
+        Entry(ZipEntry zipEntry, File target, long size) {
+            this.zipEntry = zipEntry;
+            this.target = target;
+            this.size = size;
+        }
+    }
+}
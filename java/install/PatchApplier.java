@@ -0,0 +1,135 @@
+package com.minigalaxy.android.install;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Applies a patch archive (zip or GOG .sh) on top of an installed game.
+ * Files the patch replaces are moved aside first and every written file is
+ * checked against the CRC in the archive; if anything fails the install
+ * directory is restored to exactly what it was.
+ */
+public class PatchApplier {
+
+    private static final String BACKUP_DIR = ".minigalaxy/backup";
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final File installDir;
+    private final String installDirPath;
+
+    public PatchApplier(File installDir) throws IOException {
+        this.installDir = installDir;
+        this.installDirPath = installDir.getCanonicalPath() + File.separator;
+    }
+
+    public static boolean isSupported(String filename) {
+        return ParallelExtractor.isSupported(filename);
+    }
+
+    /**
+     * Apply the patch, rolling back every change if it cannot be applied completely
+     *
+     * @return number of files written
+     */
+    public int apply(File archive) throws IOException {
+        String prefix = StreamingInstaller.detectFormat(archive.getName()) == StreamingInstaller.Format.GOG_SHELL
+                ? StreamingInstaller.GOG_DATA_PREFIX : null;
+
+        File backupDir = new File(installDir, BACKUP_DIR + File.separator + archive.getName());
+        deleteTree(backupDir);
+
+        List<File[]> replaced = new ArrayList<>(); // {target, backup}
+        List<File> created = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+
+        try (ZipFile zip = new ZipFile(archive)) {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (prefix != null) {
+                    if (!name.startsWith(prefix)) {
+                        continue;
+                    }
+                    name = name.substring(prefix.length());
+                }
+                if (name.isEmpty()) {
+                    continue;
+                }
+
+                File target = StreamingInstaller.resolveInside(installDir, installDirPath, name);
+                if (entry.isDirectory()) {
+                    StreamingInstaller.mkdirs(target);
+                    continue;
+                }
+
+                if (target.exists()) {
+                    // Rename instead of copy: same filesystem, so the backup costs no space
+                    File backup = new File(backupDir, name);
+                    StreamingInstaller.mkdirs(backup.getParentFile());
+                    if (!target.renameTo(backup)) {
+                        throw new IOException("Unable to back up " + name);
+                    }
+                    replaced.add(new File[]{target, backup});
+                } else {
+                    StreamingInstaller.mkdirs(target.getParentFile());
+                    created.add(target);
+                }
+
+                writeVerified(zip, entry, target, buffer);
+            }
+        } catch (IOException e) {
+            rollback(replaced, created);
+            deleteTree(backupDir);
+            throw e;
+        }
+
+        deleteTree(backupDir);
+        return replaced.size() + created.size();
+    }
+
+    private static void writeVerified(ZipFile zip, ZipEntry entry, File target, byte[] buffer) throws IOException {
+        CRC32 crc = new CRC32();
+        try (InputStream in = zip.getInputStream(entry);
+             OutputStream out = new FileOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+            }
+        }
+
+        if (entry.getCrc() != -1 && entry.getCrc() != crc.getValue()) {
+            throw new IOException("CRC mismatch for " + entry.getName());
+        }
+    }
+
+    private static void rollback(List<File[]> replaced, List<File> created) {
+        for (File file : created) {
+            file.delete();
+        }
+        for (File[] pair : replaced) {
+            pair[0].delete();
+            pair[1].renameTo(pair[0]);
+        }
+    }
+
+    private static void deleteTree(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteTree(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,374 @@
+package com.minigalaxy.android.install;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Extracts an installer while it is still being read, so it never has to be
+ * stored in full. Supports zip, tar.gz and GOG Linux installers (a makeself
+ * shell script with a zip of the game data appended).
+ */
+public class StreamingInstaller {
+
+    public enum Format {
+        ZIP,
+        TAR_GZ,
+        GOG_SHELL,
+        UNSUPPORTED
+    }
+
+    // Game files inside GOG Linux installers live under this prefix
+    static final String GOG_DATA_PREFIX = "data/noarch/";
+    private static final int MAX_HEADER_LINES = 10000;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int TAR_BLOCK_SIZE = 512;
+
+    private static final Pattern HEADER_LINES_PATTERN = Pattern.compile("head -n \"?(\\d+)\"? ");
+    private static final Pattern SKIP_PATTERN = Pattern.compile("^SKIP=\"?(\\d+)\"?");
+    private static final Pattern FILESIZES_PATTERN = Pattern.compile("^filesizes=\"(\\d+)");
+
+    private final File installDir;
+    private final String installDirPath;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private volatile long bytesWritten;
+    private volatile int filesWritten;
+
+    public StreamingInstaller(File installDir) throws IOException {
+        this.installDir = installDir;
+        this.installDirPath = installDir.getCanonicalPath() + File.separator;
+    }
+
+    public static Format detectFormat(String filename) {
+        if (filename == null) {
+            return Format.UNSUPPORTED;
+        }
+
+        String lower = filename.toLowerCase();
+        if (lower.endsWith(".zip")) {
+            return Format.ZIP;
+        } else if (lower.endsWith(".tar.gz") || lower.endsWith(".tgz")) {
+            return Format.TAR_GZ;
+        } else if (lower.endsWith(".sh")) {
+            return Format.GOG_SHELL;
+        }
+        return Format.UNSUPPORTED;
+    }
+
+    public static boolean isSupported(String filename) {
+        return detectFormat(filename) != Format.UNSUPPORTED;
+    }
+
+    /**
+     * Extract everything from the stream into the install directory
+     *
+     * @return number of bytes written to disk
+     */
+    public long install(InputStream inputStream, String filename) throws IOException {
+        if (!installDir.exists() && !installDir.mkdirs()) {
+            throw new IOException("Unable to create " + installDir);
+        }
+
+        InputStream in = new BufferedInputStream(inputStream, BUFFER_SIZE);
+        switch (detectFormat(filename)) {
+            case ZIP:
+                extractZip(in, null);
+                break;
+            case TAR_GZ:
+                extractTar(new GZIPInputStream(in, BUFFER_SIZE));
+                break;
+            case GOG_SHELL:
+                skipMakeselfHeader(in);
+                extractZip(in, GOG_DATA_PREFIX);
+                break;
+            default:
+                throw new IOException("Unsupported installer format: " + filename);
+        }
+
+        // Consume trailing data such as the zip central directory so the producer can finish
+        while (in.read(buffer) != -1) {
+            // discard
+        }
+        return bytesWritten;
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    /**
+     * Consume the shell script and the embedded makeself archive so the stream
+     * is positioned at the start of the appended zip
+     */
+    private void skipMakeselfHeader(InputStream in) throws IOException {
+        int headerLines = -1;
+        long makeselfSize = -1;
+        int line = 0;
+
+        while (headerLines == -1 || line < headerLines) {
+            String text = readLine(in);
+            if (text == null) {
+                throw new EOFException("Installer ended inside its script header");
+            }
+            line++;
+
+            if (headerLines == -1) {
+                Matcher skip = SKIP_PATTERN.matcher(text);
+                Matcher head = HEADER_LINES_PATTERN.matcher(text);
+                if (skip.find()) {
+                    headerLines = Integer.parseInt(skip.group(1));
+                } else if (text.startsWith("offset=") && head.find()) {
+                    headerLines = Integer.parseInt(head.group(1));
+                }
+            }
+
+            Matcher sizes = FILESIZES_PATTERN.matcher(text);
+            if (makeselfSize == -1 && sizes.find()) {
+                makeselfSize = Long.parseLong(sizes.group(1));
+            }
+
+            if (line > MAX_HEADER_LINES) {
+                throw new IOException("Unrecognized installer header");
+            }
+        }
+
+        if (makeselfSize < 0) {
+            throw new IOException("Installer header has no makeself payload size");
+        }
+
+        skipFully(in, makeselfSize);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                return line.toString(StandardCharsets.UTF_8.name());
+            }
+            line.write(b);
+        }
+        return line.size() > 0 ? line.toString(StandardCharsets.UTF_8.name()) : null;
+    }
+
+    private static void skipFully(InputStream in, long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Unexpected end of installer");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private void extractZip(InputStream in, String requiredPrefix) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (requiredPrefix != null) {
+                if (!name.startsWith(requiredPrefix)) {
+                    continue;
+                }
+                name = name.substring(requiredPrefix.length());
+            }
+            if (name.isEmpty()) {
+                continue;
+            }
+
+            if (entry.isDirectory()) {
+                mkdirs(resolve(name));
+            } else {
+                writeEntry(zip, resolve(name));
+            }
+        }
+    }
+
+    private void extractTar(InputStream in) throws IOException {
+        byte[] header = new byte[TAR_BLOCK_SIZE];
+        String longName = null;
+
+        while (true) {
+            readFully(in, header);
+            if (isZeroBlock(header)) {
+                // End of archive marker
+                return;
+            }
+
+            String name = longName != null ? longName : tarName(header);
+            longName = null;
+            long size = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+            long padding = (TAR_BLOCK_SIZE - (size % TAR_BLOCK_SIZE)) % TAR_BLOCK_SIZE;
+
+            if (type == 'L') {
+                // GNU long name: the data block holds the real name of the next entry
+                byte[] nameBytes = new byte[(int) size];
+                readFully(in, nameBytes);
+                longName = cString(nameBytes, 0, nameBytes.length);
+            } else if (type == '5') {
+                mkdirs(resolve(name));
+                skipFully(in, size);
+            } else if (type == '0' || type == '\0' || type == '7') {
+                writeEntry(new BoundedInputStream(in, size), resolve(name));
+            } else {
+                // Links, pax headers and devices carry nothing we install
+                skipFully(in, size);
+            }
+
+            skipFully(in, padding);
+        }
+    }
+
+    private static String tarName(byte[] header) {
+        String name = cString(header, 0, 100);
+        String magic = cString(header, 257, 6);
+        if (magic.startsWith("ustar")) {
+            String prefix = cString(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                name = prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String cString(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] data, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (b == 0 || b == ' ') {
+                if (value != 0) {
+                    break;
+                }
+                continue;
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void readFully(InputStream in, byte[] data) throws IOException {
+        int offset = 0;
+        while (offset < data.length) {
+            int read = in.read(data, offset, data.length - offset);
+            if (read == -1) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            offset += read;
+        }
+    }
+
+    /**
+     * Map an archive path into the install directory, rejecting paths that escape it
+     */
+    private File resolve(String name) throws IOException {
+        return resolveInside(installDir, installDirPath, name);
+    }
+
+    static File resolveInside(File dir, String canonicalDirPath, String name) throws IOException {
+        File target = new File(dir, name);
+        String targetPath = target.getCanonicalPath();
+        if (!(targetPath + File.separator).startsWith(canonicalDirPath)) {
+            throw new IOException("Archive entry outside install directory: " + name);
+        }
+        return target;
+    }
+
+    static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create " + dir);
+        }
+    }
+
+    private void writeEntry(InputStream in, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null) {
+            mkdirs(parent);
+        }
+
+        try (OutputStream out = new FileOutputStream(target)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                bytesWritten += read;
+            }
+        }
+        filesWritten++;
+    }
+
+    /**
+     * Exposes only the next {@code limit} bytes of a tar member
+     */
+    private static class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("Unexpected end of archive");
+            }
+            remaining -= read;
+            return read;
+        }
+    }
+}
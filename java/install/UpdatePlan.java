@@ -0,0 +1,204 @@
+package com.minigalaxy.android.install;
+
+import com.minigalaxy.android.model.FileInfo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How to bring an installed game to the latest version: either a chain of
+ * patches applied in order, or the full installer when no chain exists.
+ */
+public class UpdatePlan {
+
+    private final String fromVersion;
+    private final String toVersion;
+    private final List<FileInfo> files;
+    private final boolean delta;
+
+    public UpdatePlan(String fromVersion, String toVersion, List<FileInfo> files, boolean delta) {
+        this.fromVersion = fromVersion;
+        this.toVersion = toVersion;
+        this.files = Collections.unmodifiableList(new ArrayList<>(files));
+        this.delta = delta;
+    }
+
+    public String getFromVersion() {
+        return fromVersion;
+    }
+
+    public String getToVersion() {
+        return toVersion;
+    }
+
+    /**
+     * Files to download, in the order they must be applied
+     */
+    public List<FileInfo> getFiles() {
+        return files;
+    }
+
+    /**
+     * Whether the plan uses patches rather than the full installer
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public long getDownloadSize() {
+        long size = 0;
+        for (FileInfo file : files) {
+            size += file.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Order two version strings such as "1.2.10" and "1.2.9 (gog-3)". Runs of
+     * digits compare by value, everything else character by character, so
+     * "1.10" is newer than "1.9".
+     *
+     * @return negative, zero or positive as {@code a} is older than, the same as or newer than {@code b}
+     */
+    public static int compareVersions(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (Character.isDigit(ca) && Character.isDigit(cb)) {
+                int endA = endOfDigits(a, i);
+                int endB = endOfDigits(b, j);
+                int result = compareNumbers(a.substring(i, endA), b.substring(j, endB));
+                if (result != 0) {
+                    return result;
+                }
+                i = endA;
+                j = endB;
+            } else {
+                if (ca != cb) {
+                    return ca < cb ? -1 : 1;
+                }
+                i++;
+                j++;
+            }
+        }
+        // "1.2.1" is newer than "1.2"
+        return (a.length() - i) - (b.length() - j);
+    }
+
+    private static int endOfDigits(String s, int start) {
+        int end = start;
+        while (end < s.length() && Character.isDigit(s.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static int compareNumbers(String a, String b) {
+        // Compared as strings so long build numbers cannot overflow
+        String trimmedA = stripLeadingZeros(a);
+        String trimmedB = stripLeadingZeros(b);
+        if (trimmedA.length() != trimmedB.length()) {
+            return trimmedA.length() < trimmedB.length() ? -1 : 1;
+        }
+        return trimmedA.compareTo(trimmedB);
+    }
+
+    private static String stripLeadingZeros(String digits) {
+        int start = 0;
+        while (start < digits.length() - 1 && digits.charAt(start) == '0') {
+            start++;
+        }
+        return digits.substring(start);
+    }
+
+    /**
+     * Find the patch chain from {@code from} to {@code to} with the fewest
+     * bytes to download. Every part of a multi-part patch counts towards its size.
+     *
+     * @return the patch files in application order, or null if the versions are not connected
+     */
+    public static List<FileInfo> findPatchChain(String from, String to, List<FileInfo> patches) {
+        if (from == null || to == null) {
+            return null;
+        }
+
+        // One edge per patch installer, which may be split into several parts
+        Map<String, List<FileInfo>> patchParts = new LinkedHashMap<>();
+        for (FileInfo file : patches) {
+            if (file.isPatch() && file.getFromVersion() != null && file.getVersion() != null) {
+                String key = file.getInstallerId() != null ? file.getInstallerId() : file.getId();
+                List<FileInfo> parts = patchParts.get(key);
+                if (parts == null) {
+                    parts = new ArrayList<>();
+                    patchParts.put(key, parts);
+                }
+                parts.add(file);
+            }
+        }
+
+        // Dijkstra over versions; the graph is tiny so a linear scan for the minimum is fine
+        Map<String, Long> cost = new HashMap<>();
+        Map<String, List<FileInfo>> via = new HashMap<>();
+        Map<String, String> previous = new HashMap<>();
+        Set<String> done = new HashSet<>();
+        cost.put(from, 0L);
+
+        while (true) {
+            String current = null;
+            for (Map.Entry<String, Long> entry : cost.entrySet()) {
+                if (!done.contains(entry.getKey())
+                        && (current == null || entry.getValue() < cost.get(current))) {
+                    current = entry.getKey();
+                }
+            }
+            if (current == null) {
+                return null;
+            }
+            if (current.equals(to)) {
+                break;
+            }
+            done.add(current);
+
+            for (List<FileInfo> parts : patchParts.values()) {
+                FileInfo first = parts.get(0);
+                if (!first.getFromVersion().equals(current)) {
+                    continue;
+                }
+
+                long size = 0;
+                for (FileInfo part : parts) {
+                    size += part.getSize();
+                }
+
+                String next = first.getVersion();
+                long nextCost = cost.get(current) + size;
+                Long known = cost.get(next);
+                if (!done.contains(next) && (known == null || nextCost < known)) {
+                    cost.put(next, nextCost);
+                    via.put(next, parts);
+                    previous.put(next, current);
+                }
+            }
+        }
+
+        List<List<FileInfo>> steps = new ArrayList<>();
+        for (String version = to; !version.equals(from); version = previous.get(version)) {
+            steps.add(via.get(version));
+        }
+        Collections.reverse(steps);
+
+        List<FileInfo> chain = new ArrayList<>();
+        for (List<FileInfo> step : steps) {
+            chain.addAll(step);
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,27 @@
+package com.minigalaxy.android.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Monotonic count of events
+ */
+public class Counter {
+    
+    private final AtomicLong value = new AtomicLong();
+    
+    public void increment() {
+        value.incrementAndGet();
+    }
+    
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+    
+    public long get() {
+        return value.get();
+    }
+    
+    void reset() {
+        value.set(0);
+    }
+}
@@ -0,0 +1,46 @@
+package com.minigalaxy.android.metrics;
+
+/**
+ * Latency, response size and outcome of calls to one API endpoint
+ */
+public class EndpointMetrics {
+    
+    private final Histogram latency;
+    private final Counter bytes;
+    private final Counter success;
+    private final Counter clientErrors;
+    private final Counter serverErrors;
+    private final Counter failures;
+    
+    EndpointMetrics(MetricsRegistry registry, String name) {
+        this.latency = registry.histogram(name + ".latency_ms");
+        this.bytes = registry.counter(name + ".bytes");
+        this.success = registry.counter(name + ".status.2xx");
+        this.clientErrors = registry.counter(name + ".status.4xx");
+        this.serverErrors = registry.counter(name + ".status.5xx");
+        this.failures = registry.counter(name + ".failures");
+    }
+    
+    public void recordResponse(int status, long latencyMillis) {
+        latency.record(latencyMillis);
+        if (status >= 500) {
+            serverErrors.increment();
+        } else if (status >= 400) {
+            clientErrors.increment();
+        } else {
+            success.increment();
+        }
+    }
+    
+    /**
+     * No response at all: network error, timeout or cancellation
+     */
+    public void recordFailure(long latencyMillis) {
+        latency.record(latencyMillis);
+        failures.increment();
+    }
+    
+    public void recordBytes(long count) {
+        bytes.add(count);
+    }
+}
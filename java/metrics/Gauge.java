@@ -0,0 +1,19 @@
+package com.minigalaxy.android.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest value of something that goes up and down, like the queue length
+ */
+public class Gauge {
+    
+    private final AtomicLong value = new AtomicLong();
+    
+    public void set(long newValue) {
+        value.set(newValue);
+    }
+    
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,147 @@
+package com.minigalaxy.android.metrics;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide counters, gauges and histograms. Look metrics up once and keep
+ * the reference; updating them afterwards does not allocate.
+ */
+public class MetricsRegistry {
+    
+    private static final String TAG = "MetricsRegistry";
+    private static final double[] PERCENTILES = {50, 90, 99};
+    
+    private static final MetricsRegistry instance = new MetricsRegistry();
+    
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final long startTime = System.currentTimeMillis();
+    
+    public static MetricsRegistry getInstance() {
+        return instance;
+    }
+    
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+    
+    public Gauge gauge(String name) {
+        Gauge gauge = gauges.get(name);
+        if (gauge == null) {
+            Gauge created = new Gauge();
+            gauge = gauges.putIfAbsent(name, created);
+            if (gauge == null) {
+                gauge = created;
+            }
+        }
+        return gauge;
+    }
+    
+    public Histogram histogram(String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+    
+    public EndpointMetrics endpoint(String name) {
+        return new EndpointMetrics(this, name);
+    }
+    
+    /**
+     * Zero every counter and histogram, e.g. before profiling a specific scenario
+     */
+    public void reset() {
+        for (Counter counter : counters.values()) {
+            counter.reset();
+        }
+        for (Histogram histogram : histograms.values()) {
+            histogram.reset();
+        }
+    }
+    
+    /**
+     * Current values, sorted by name, in a form that serializes to readable JSON
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> values = new TreeMap<>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Gauge> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().get());
+        }
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            Histogram.Snapshot snapshot = entry.getValue().snapshot();
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("count", snapshot.getCount());
+            summary.put("mean", Math.round(snapshot.getMean()));
+            for (double percentile : PERCENTILES) {
+                summary.put("p" + (int) percentile, snapshot.getPercentile(percentile));
+            }
+            summary.put("max", snapshot.getMax());
+            values.put(entry.getKey(), summary);
+        }
+        return values;
+    }
+    
+    /**
+     * Plain text report for the debug screen
+     */
+    public String format() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Object> entry : snapshot().entrySet()) {
+            report.append(entry.getKey()).append(" = ").append(entry.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+    
+    /**
+     * Write a JSON snapshot, e.g. to collect numbers from a device in the field
+     */
+    public void exportTo(File file) throws IOException {
+        Map<String, Object> export = new LinkedHashMap<>();
+        export.put("exportedAt", System.currentTimeMillis());
+        export.put("uptimeMillis", System.currentTimeMillis() - startTime);
+        export.put("metrics", snapshot());
+        
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        File parent = file.getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            gson.toJson(export, writer);
+        }
+        Log.d(TAG, "Exported metrics to " + file);
+    }
+}
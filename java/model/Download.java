@@ -41,6 +41,15 @@ public class Download {
     private DLC relatedDLC;
     private double downloadSpeed; // bytes per second
     private long remainingTime; // seconds
+    private int retryCount;
+    // Stable source of the signed URL, used to renew it when it expires
+    private long sourceGameId;
+    private String sourceFileId;
+    private String sourceFileType;
+    private long urlResolvedTime;
+    private String groupId;
+    // When set, the installer is extracted here while it downloads
+    private String installDir;
     
     public Download() {
         this.status = DownloadStatus.QUEUED;
@@ -196,6 +205,63 @@ public class Download {
         this.remainingTime = remainingTime;
     }
     
+    public int getRetryCount() {
+        return retryCount;
+    }
+    
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+    
+    public long getSourceGameId() {
+        return sourceGameId;
+    }
+    
+    public String getSourceFileId() {
+        return sourceFileId;
+    }
+    
+    public String getSourceFileType() {
+        return sourceFileType;
+    }
+    
+    /**
+     * Record the GOG product and file this download's URL was resolved from
+     */
+    public void setSource(long gameId, String fileType, String fileId) {
+        this.sourceGameId = gameId;
+        this.sourceFileType = fileType;
+        this.sourceFileId = fileId;
+    }
+    
+    public boolean hasSource() {
+        return sourceGameId > 0 && sourceFileId != null;
+    }
+    
+    public long getUrlResolvedTime() {
+        return urlResolvedTime;
+    }
+    
+    public void setUrlResolvedTime(long urlResolvedTime) {
+        this.urlResolvedTime = urlResolvedTime;
+    }
+    
+    public String getGroupId() {
+        return groupId;
+    }
+    
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+    
+    public String getInstallDir() {
+        return installDir;
+    }
+    
+    public void setInstallDir(String installDir) {
+        this.installDir = installDir;
+    }
+    
     // Utility methods
     public int getProgressPercentage() {
         if (totalSize <= 0) return 0;
@@ -275,7 +341,8 @@ public class Download {
         }
     }
     
-    private static String formatFileSize(long bytes) {
+    // Package-private for the benchmarks
+    static String formatFileSize(long bytes) {
         if (bytes <= 0) return "0 B";
         
         String[] units = {"B", "KB", "MB", "GB", "TB"};
@@ -294,7 +361,7 @@ public class Download {
         }
     }
     
-    private static String formatTime(long seconds) {
+    static String formatTime(long seconds) {
         if (seconds <= 0) return "Unknown";
         
         long hours = seconds / 3600;
@@ -13,6 +13,12 @@ public class FileInfo {
     private String version;
     private String platform;
     private String type; // installer, patch, dlc, etc.
+    private String id; // GOG file id, e.g. "en1installer0"
+    private long gameId;
+    private String installerId; // groups the parts of one multi-part installer
+    private int partIndex;
+    private String downlinkType; // path segment used by the downlink endpoint
+    private String fromVersion; // version a patch applies to
     
     public FileInfo() {
     }
@@ -101,6 +107,54 @@ public class FileInfo {
         this.type = type;
     }
     
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public long getGameId() {
+        return gameId;
+    }
+    
+    public void setGameId(long gameId) {
+        this.gameId = gameId;
+    }
+    
+    public String getInstallerId() {
+        return installerId;
+    }
+    
+    public void setInstallerId(String installerId) {
+        this.installerId = installerId;
+    }
+    
+    public String getFromVersion() {
+        return fromVersion;
+    }
+    
+    public void setFromVersion(String fromVersion) {
+        this.fromVersion = fromVersion;
+    }
+    
+    public int getPartIndex() {
+        return partIndex;
+    }
+    
+    public void setPartIndex(int partIndex) {
+        this.partIndex = partIndex;
+    }
+    
+    public String getDownlinkType() {
+        return downlinkType != null ? downlinkType : "installer";
+    }
+    
+    public void setDownlinkType(String downlinkType) {
+        this.downlinkType = downlinkType;
+    }
+    
     // Utility methods
     public String getFormattedSize() {
         return formatFileSize(size);
@@ -129,6 +183,22 @@ public class FileInfo {
         return "dlc".equalsIgnoreCase(type);
     }
     
+    public boolean isLanguagePack() {
+        return "language_pack".equalsIgnoreCase(type);
+    }
+    
+    public boolean isBonusContent() {
+        return "bonus".equalsIgnoreCase(type);
+    }
+    
+    public boolean matchesLanguage(String lang) {
+        return lang == null || lang.isEmpty() || language == null || language.equalsIgnoreCase(lang);
+    }
+    
+    public boolean matchesPlatform(String os) {
+        return os == null || os.isEmpty() || platform == null || platform.equalsIgnoreCase(os);
+    }
+    
     public boolean isLinuxCompatible() {
         return platform == null || 
                platform.toLowerCase().contains("linux") || 
@@ -178,7 +248,8 @@ public class FileInfo {
     @Override
     public String toString() {
         return "FileInfo{" +
-                "filename='" + filename + '\'' +
+                "id='" + id + '\'' +
+                ", filename='" + filename + '\'' +
                 ", size=" + formatFileSize(size) +
                 ", platform='" + platform + '\'' +
                 ", type='" + type + '\'' +
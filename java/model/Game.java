@@ -1,12 +1,13 @@
 package com.minigalaxy.android.model;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Model class representing a GOG game
+ * Model class representing a GOG game. Libraries can hold thousands of
+ * these, so collections stay null until something is put in them, and
+ * download progress lives in {@link GameProgressTable} instead.
  */
 public class Game {
     
@@ -18,18 +19,18 @@ public class Game {
     private String imageUrl;
     private String platform;
     private List<DLC> dlcs;
+    private List<FileInfo> files;
     private String category;
     private String description;
+    private List<String> screenshots;
     private String version;
+    private String latestVersion;
     private long fileSize;
     private long installedSize;
     private String language;
     private boolean isInstalled;
     private boolean isDownloading;
     private boolean isQueued;
-    private int downloadProgress;
-    private String downloadSpeed;
-    private String downloadEta;
     
     // Download states
     public enum DownloadState {
@@ -46,10 +47,7 @@ public class Game {
     private DownloadState downloadState;
     
     public Game() {
-        this.md5sum = new HashMap<>();
-        this.dlcs = new ArrayList<>();
         this.downloadState = DownloadState.NONE;
-        this.downloadProgress = 0;
     }
     
     public Game(String name, String url, Map<String, String> md5sum, long id, 
@@ -58,13 +56,13 @@ public class Game {
         this();
         this.name = name;
         this.url = url;
-        this.md5sum = md5sum != null ? md5sum : new HashMap<>();
+        setMd5sum(md5sum);
         this.id = id;
         this.installDir = installDir;
         this.imageUrl = imageUrl;
-        this.platform = platform;
-        this.dlcs = dlcs != null ? dlcs : new ArrayList<>();
-        this.category = category;
+        setPlatform(platform);
+        setDlcs(dlcs);
+        setCategory(category);
     }
     
     // Getters and Setters
@@ -84,12 +82,15 @@ public class Game {
         this.url = url;
     }
     
+    /**
+     * Read-only; replace it through the setter
+     */
     public Map<String, String> getMd5sum() {
-        return md5sum;
+        return md5sum != null ? md5sum : Collections.<String, String>emptyMap();
     }
     
     public void setMd5sum(Map<String, String> md5sum) {
-        this.md5sum = md5sum;
+        this.md5sum = md5sum == null || md5sum.isEmpty() ? null : md5sum;
     }
     
     public long getId() {
@@ -121,15 +122,31 @@ public class Game {
     }
     
     public void setPlatform(String platform) {
-        this.platform = platform;
+        // A handful of distinct values shared by the whole library
+        this.platform = platform != null ? platform.intern() : null;
     }
     
+    /**
+     * Read-only; replace it through the setter
+     */
     public List<DLC> getDlcs() {
-        return dlcs;
+        return dlcs != null ? dlcs : Collections.<DLC>emptyList();
     }
     
     public void setDlcs(List<DLC> dlcs) {
-        this.dlcs = dlcs;
+        this.dlcs = emptyToNull(dlcs);
+    }
+    
+    /**
+     * Installer, patch, language pack and bonus files from the product manifest.
+     * Read-only; replace it through the setter
+     */
+    public List<FileInfo> getFiles() {
+        return files != null ? files : Collections.<FileInfo>emptyList();
+    }
+    
+    public void setFiles(List<FileInfo> files) {
+        this.files = emptyToNull(files);
     }
     
     public String getCategory() {
@@ -137,7 +154,7 @@ public class Game {
     }
     
     public void setCategory(String category) {
-        this.category = category;
+        this.category = category != null ? category.intern() : null;
     }
     
     public String getDescription() {
@@ -148,6 +165,20 @@ public class Game {
         this.description = description;
     }
     
+    /**
+     * Full-size screenshot URLs from the store page
+     */
+    public List<String> getScreenshots() {
+        return screenshots != null ? screenshots : Collections.<String>emptyList();
+    }
+    
+    public void setScreenshots(List<String> screenshots) {
+        this.screenshots = emptyToNull(screenshots);
+    }
+    
+    /**
+     * The installed version, null if not installed or not known
+     */
     public String getVersion() {
         return version;
     }
@@ -156,6 +187,17 @@ public class Game {
         this.version = version;
     }
     
+    /**
+     * Version of the newest Linux installer GOG offers
+     */
+    public String getLatestVersion() {
+        return latestVersion;
+    }
+    
+    public void setLatestVersion(String latestVersion) {
+        this.latestVersion = latestVersion;
+    }
+    
     public long getFileSize() {
         return fileSize;
     }
@@ -177,7 +219,7 @@ public class Game {
     }
     
     public void setLanguage(String language) {
-        this.language = language;
+        this.language = language != null ? language.intern() : null;
     }
     
     public boolean isInstalled() {
@@ -205,27 +247,34 @@ public class Game {
     }
     
     public int getDownloadProgress() {
-        return downloadProgress;
+        return GameProgressTable.getInstance().getProgress(id);
     }
     
+    /**
+     * Ignored unless the game is in flight, so idle games never get a progress entry
+     */
     public void setDownloadProgress(int downloadProgress) {
-        this.downloadProgress = downloadProgress;
+        if (isInFlight()) {
+            GameProgressTable.getInstance().setProgress(id, downloadProgress);
+        }
     }
     
-    public String getDownloadSpeed() {
-        return downloadSpeed;
+    /**
+     * Progress along with speed and remaining time; like
+     * {@link #setDownloadProgress(int)} ignored unless the game is in flight
+     */
+    public void updateDownloadProgress(int downloadProgress, long bytesPerSecond, long remainingSeconds) {
+        if (isInFlight()) {
+            GameProgressTable.getInstance().update(id, downloadProgress, bytesPerSecond, remainingSeconds);
+        }
     }
     
-    public void setDownloadSpeed(String downloadSpeed) {
-        this.downloadSpeed = downloadSpeed;
+    public String getDownloadSpeed() {
+        return Download.formatFileSize(GameProgressTable.getInstance().getBytesPerSecond(id)) + "/s";
     }
     
     public String getDownloadEta() {
-        return downloadEta;
-    }
-    
-    public void setDownloadEta(String downloadEta) {
-        this.downloadEta = downloadEta;
+        return Download.formatTime(GameProgressTable.getInstance().getRemainingSeconds(id));
     }
     
     public DownloadState getDownloadState() {
@@ -234,6 +283,14 @@ public class Game {
     
     public void setDownloadState(DownloadState downloadState) {
         this.downloadState = downloadState;
+        if (!isInFlight()) {
+            GameProgressTable.getInstance().remove(id);
+        }
+    }
+    
+    private boolean isInFlight() {
+        return downloadState == DownloadState.QUEUED || downloadState == DownloadState.DOWNLOADING
+                || downloadState == DownloadState.PAUSED || downloadState == DownloadState.INSTALLING;
     }
     
     // Utility methods
@@ -265,6 +322,10 @@ public class Game {
     }
     
     // Helper methods
+    private static <T> List<T> emptyToNull(List<T> list) {
+        return list == null || list.isEmpty() ? null : list;
+    }
+    
     private static String stripString(String input, boolean toPath) {
         if (input == null) return "";
         
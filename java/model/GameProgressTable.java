@@ -0,0 +1,129 @@
+package com.minigalaxy.android.model;
+
+import java.util.Arrays;
+
+/**
+ * Download and install progress by game id. Only the few games in flight
+ * have an entry, so this lives here rather than as fields on every Game of
+ * a library that may hold thousands. Entries sit in parallel primitive
+ * arrays sorted by id, the same layout as Android's LongSparseArray but
+ * usable off-device, and text is only formatted when a row is displayed.
+ */
+public final class GameProgressTable {
+
+    private static final GameProgressTable INSTANCE = new GameProgressTable();
+    private static final int INITIAL_CAPACITY = 8;
+
+    // Guarded by this
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private int[] progress = new int[INITIAL_CAPACITY];
+    private long[] bytesPerSecond = new long[INITIAL_CAPACITY];
+    private long[] remainingSeconds = new long[INITIAL_CAPACITY];
+    private int size;
+
+    public static GameProgressTable getInstance() {
+        return INSTANCE;
+    }
+
+    private GameProgressTable() {
+    }
+
+    /**
+     * Record the latest progress of a game, adding it if it was not in flight yet
+     */
+    public synchronized void update(long gameId, int percent, long speed, long remaining) {
+        int index = indexOf(gameId);
+        if (index < 0) {
+            index = insert(~index, gameId);
+        }
+        progress[index] = percent;
+        bytesPerSecond[index] = speed;
+        remainingSeconds[index] = remaining;
+    }
+
+    /**
+     * Change only the percentage, keeping speed and remaining time
+     */
+    public synchronized void setProgress(long gameId, int percent) {
+        int index = indexOf(gameId);
+        if (index < 0) {
+            index = insert(~index, gameId);
+        }
+        progress[index] = percent;
+    }
+
+    /**
+     * Progress in percent, 0 when the game is not in flight
+     */
+    public synchronized int getProgress(long gameId) {
+        int index = indexOf(gameId);
+        return index >= 0 ? progress[index] : 0;
+    }
+
+    public synchronized long getBytesPerSecond(long gameId) {
+        int index = indexOf(gameId);
+        return index >= 0 ? bytesPerSecond[index] : 0;
+    }
+
+    /**
+     * Estimated seconds left, 0 when unknown
+     */
+    public synchronized long getRemainingSeconds(long gameId) {
+        int index = indexOf(gameId);
+        return index >= 0 ? remainingSeconds[index] : 0;
+    }
+
+    public synchronized boolean contains(long gameId) {
+        return indexOf(gameId) >= 0;
+    }
+
+    /**
+     * Forget a game once it finished, failed or was cancelled
+     */
+    public synchronized void remove(long gameId) {
+        int index = indexOf(gameId);
+        if (index < 0) {
+            return;
+        }
+        int tail = size - index - 1;
+        System.arraycopy(ids, index + 1, ids, index, tail);
+        System.arraycopy(progress, index + 1, progress, index, tail);
+        System.arraycopy(bytesPerSecond, index + 1, bytesPerSecond, index, tail);
+        System.arraycopy(remainingSeconds, index + 1, remainingSeconds, index, tail);
+        size--;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized void clear() {
+        size = 0;
+    }
+
+    private int indexOf(long gameId) {
+        return Arrays.binarySearch(ids, 0, size, gameId);
+    }
+
+    private int insert(int index, long gameId) {
+        if (size == ids.length) {
+            int capacity = size * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            progress = Arrays.copyOf(progress, capacity);
+            bytesPerSecond = Arrays.copyOf(bytesPerSecond, capacity);
+            remainingSeconds = Arrays.copyOf(remainingSeconds, capacity);
+        }
+        int tail = size - index;
+        System.arraycopy(ids, index, ids, index + 1, tail);
+        System.arraycopy(progress, index, progress, index + 1, tail);
+        System.arraycopy(bytesPerSecond, index, bytesPerSecond, index + 1, tail);
+        System.arraycopy(remainingSeconds, index, remainingSeconds, index + 1, tail);
+
+        ids[index] = gameId;
+        progress[index] = 0;
+        bytesPerSecond[index] = 0;
+        remainingSeconds[index] = 0;
+        size++;
+        return index;
+    }
+}
@@ -0,0 +1,35 @@
+package com.minigalaxy.android.repository;
+
+import com.minigalaxy.android.model.Game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Library filtering shared by the repository and the benchmarks; no Android dependencies
+ */
+public final class GameFilter {
+    
+    private GameFilter() {
+    }
+    
+    /**
+     * Games whose name contains the query, ignoring case. A blank query matches everything.
+     */
+    public static List<Game> searchByName(List<Game> games, String query) {
+        if (query == null || query.trim().isEmpty()) {
+            return new ArrayList<>(games);
+        }
+        
+        String lowerQuery = query.toLowerCase();
+        List<Game> searchResults = new ArrayList<>();
+        
+        for (Game game : games) {
+            if (game.getName().toLowerCase().contains(lowerQuery)) {
+                searchResults.add(game);
+            }
+        }
+        
+        return searchResults;
+    }
+}
@@ -1,19 +1,38 @@
 package com.minigalaxy.android.repository;
 
 import android.content.Context;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
 
+import com.minigalaxy.android.MinigalaxyApplication;
 import com.minigalaxy.android.api.ApiResponse;
+import com.minigalaxy.android.api.Expand;
 import com.minigalaxy.android.api.GogApi;
 import com.minigalaxy.android.config.Config;
+import com.minigalaxy.android.concurrent.AppExecutors;
+import com.minigalaxy.android.concurrent.CoalescingCache;
+import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.install.ChunkManifest;
+import com.minigalaxy.android.install.IntegrityVerifier;
+import com.minigalaxy.android.install.ParallelExtractor;
+import com.minigalaxy.android.metrics.Counter;
+import com.minigalaxy.android.metrics.Gauge;
+import com.minigalaxy.android.metrics.Histogram;
+import com.minigalaxy.android.metrics.MetricsRegistry;
+import com.minigalaxy.android.model.Download;
 import com.minigalaxy.android.model.Game;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Repository for managing game data
@@ -22,22 +41,41 @@ public class GameRepository {
     
     private static final String TAG = "GameRepository";
     
+    private static final Histogram SYNC_DURATION = MetricsRegistry.getInstance().histogram("repository.sync_ms");
+    private static final Counter SYNC_FAILURES = MetricsRegistry.getInstance().counter("repository.sync_failures");
+    private static final Gauge LIBRARY_SIZE = MetricsRegistry.getInstance().gauge("repository.library_size");
+    
     private final GogApi gogApi;
     private final Config config;
-    private final ExecutorService executorService;
     
     // In-memory cache
     private final Map<Long, Game> gameCache = new HashMap<>();
+    private final CoalescingCache<Long, Game> detailsCache;
+    private final CoalescingCache<Long, Game> summaryCache;
     private final List<Game> allGames = new ArrayList<>();
     private long lastSyncTime = 0;
     
+    // Running integrity checks, by game id
+    private final Map<Long, IntegrityVerifier> verifiers = new ConcurrentHashMap<>();
+    private volatile boolean gameRunning;
+    
     // Listeners
     private final List<GameRepositoryListener> listeners = new ArrayList<>();
     
-    public GameRepository(Context context, Config config) {
+    public GameRepository(Config config, GogApi gogApi) {
         this.config = config;
-        this.gogApi = new GogApi(config);
-        this.executorService = Executors.newFixedThreadPool(3);
+        this.gogApi = gogApi;
+        this.detailsCache = new CoalescingCache<>("game_details", Constants.GAME_DETAILS_TTL,
+                Constants.GAME_DETAILS_CACHE_SIZE, AppExecutors.getInstance().io(), this::loadGameDetails);
+        this.summaryCache = new CoalescingCache<>("game_summaries", Constants.GAME_DETAILS_TTL,
+                Constants.GAME_DETAILS_CACHE_SIZE, AppExecutors.getInstance().io(), this::loadGameSummary);
+    }
+    
+    /**
+     * Shared instance owned by the application
+     */
+    public static GameRepository getInstance(Context context) {
+        return MinigalaxyApplication.from(context).getGameRepository();
     }
     
     /**
@@ -53,7 +91,9 @@ public class GameRepository {
             return;
         }
         
-        executorService.execute(() -> {
+        AppExecutors.getInstance().io().execute(() -> {
+            Trace.beginSection("GameRepository.sync");
+            long syncStart = SystemClock.elapsedRealtime();
             try {
                 notifyLoadingStarted();
                 
@@ -74,13 +114,19 @@ public class GameRepository {
                         lastSyncTime = currentTime;
                     }
                     
+                    LIBRARY_SIZE.set(games.size());
                     notifyGamesLoaded(games);
                 } else {
+                    SYNC_FAILURES.increment();
                     notifyError(response.getErrorMessage());
                 }
             } catch (Exception e) {
                 Log.e(TAG, "Error syncing games", e);
+                SYNC_FAILURES.increment();
                 notifyError("Failed to sync games: " + e.getMessage());
+            } finally {
+                SYNC_DURATION.record(SystemClock.elapsedRealtime() - syncStart);
+                Trace.endSection();
             }
         });
     }
@@ -129,20 +175,7 @@ public class GameRepository {
      */
     public List<Game> searchGames(String query) {
         synchronized (this) {
-            if (query == null || query.trim().isEmpty()) {
-                return new ArrayList<>(allGames);
-            }
-            
-            String lowerQuery = query.toLowerCase();
-            List<Game> searchResults = new ArrayList<>();
-            
-            for (Game game : allGames) {
-                if (game.getName().toLowerCase().contains(lowerQuery)) {
-                    searchResults.add(game);
-                }
-            }
-            
-            return searchResults;
+            return GameFilter.searchByName(allGames, query);
         }
     }
     
@@ -156,38 +189,110 @@ public class GameRepository {
     }
     
     /**
-     * Get detailed game information
+     * Get detailed game information. Served from cache for a while after it
+     * was fetched, and concurrent requests for the same game share one call.
      */
     public void getGameDetails(long gameId, GameDetailsCallback callback) {
-        executorService.execute(() -> {
-            try {
-                ApiResponse<Game> response = gogApi.getGameDetails(gameId);
-                
-                if (response.isSuccess()) {
-                    Game detailedGame = response.getData();
-                    
-                    // Update cache
-                    synchronized (this) {
-                        gameCache.put(gameId, detailedGame);
-                        
-                        // Update in allGames list
-                        for (int i = 0; i < allGames.size(); i++) {
-                            if (allGames.get(i).getId() == gameId) {
-                                allGames.set(i, detailedGame);
-                                break;
-                            }
-                        }
-                    }
-                    
-                    callback.onSuccess(detailedGame);
-                } else {
-                    callback.onError(response.getErrorMessage());
-                }
-            } catch (Exception e) {
-                Log.e(TAG, "Error getting game details", e);
-                callback.onError("Failed to get game details: " + e.getMessage());
+        detailsCache.get(gameId, new DetailsCallbackAdapter(callback));
+    }
+    
+    /**
+     * Like {@link #getGameDetails(long, GameDetailsCallback)}, but ignores the cached copy
+     */
+    public void refreshGameDetails(long gameId, GameDetailsCallback callback) {
+        summaryCache.invalidate(gameId);
+        detailsCache.refresh(gameId, new DetailsCallbackAdapter(callback));
+    }
+    
+    /**
+     * Fetch everything the details screen shows for games the user may open
+     * next, a few at a time so the API calls the user is waiting for are not
+     * stuck behind them
+     */
+    public void prefetchGameDetails(Collection<Long> gameIds) {
+        detailsCache.prefetch(gameIds, Constants.GAME_DETAILS_PREFETCH_CONCURRENCY);
+    }
+    
+    /**
+     * Like {@link #prefetchGameDetails(Collection)}, but only what the library
+     * list shows (download sizes, versions). Descriptions are left for the
+     * details screen, which then only has to fetch those.
+     */
+    public void prefetchGameSummaries(Collection<Long> gameIds) {
+        summaryCache.prefetch(gameIds, Constants.GAME_DETAILS_PREFETCH_CONCURRENCY);
+    }
+    
+    /**
+     * Whether full details for the game are cached or already on their way
+     */
+    public boolean hasGameDetails(long gameId) {
+        return detailsCache.isCachedOrLoading(gameId);
+    }
+    
+    /**
+     * Whether at least list-level details for the game are cached or already on their way
+     */
+    public boolean hasGameSummary(long gameId) {
+        return hasGameDetails(gameId) || summaryCache.isCachedOrLoading(gameId);
+    }
+    
+    private Game loadGameDetails(long gameId) throws IOException {
+        Set<Expand> expand = EnumSet.copyOf(Expand.DETAILS);
+        boolean summaryCached = summaryCache.getIfPresent(gameId) != null;
+        synchronized (this) {
+            // Downloads fetched for the library list were merged into the cached game
+            Game game = gameCache.get(gameId);
+            if (summaryCached && game != null && !game.getFiles().isEmpty()) {
+                expand.removeAll(Expand.LIST);
             }
-        });
+        }
+        Game game = mergeDetails(fetchGameDetails(gameId, expand));
+        // Prefetched details also fill in the size the list shows
+        notifyGameUpdated(game);
+        return game;
+    }
+    
+    private Game loadGameSummary(long gameId) throws IOException {
+        Game game = mergeDetails(fetchGameDetails(gameId, Expand.LIST));
+        // The list shows the size as soon as it is known
+        notifyGameUpdated(game);
+        return game;
+    }
+    
+    private Game fetchGameDetails(long gameId, Set<Expand> expand) throws IOException {
+        ApiResponse<Game> response = gogApi.getGameDetails(gameId, expand);
+        if (!response.isSuccess()) {
+            throw new IOException(response.getErrorMessage());
+        }
+        return response.getData();
+    }
+    
+    /**
+     * Copy fetched details onto the cached game, keeping its install and
+     * download state, or cache the fetched game if there is none yet
+     */
+    private Game mergeDetails(Game details) {
+        synchronized (this) {
+            Game game = gameCache.get(details.getId());
+            if (game == null) {
+                gameCache.put(details.getId(), details);
+                return details;
+            }
+            
+            if (!details.getFiles().isEmpty()) {
+                game.setFiles(details.getFiles());
+                game.setFileSize(details.getFileSize());
+                // The installed version is left alone; updates are planned from it
+                game.setLatestVersion(details.getLatestVersion());
+            }
+            if (details.getDescription() != null) {
+                game.setDescription(details.getDescription());
+            }
+            if (!details.getScreenshots().isEmpty()) {
+                game.setScreenshots(details.getScreenshots());
+            }
+            return game;
+        }
     }
     
     /**
@@ -205,25 +310,134 @@ public class GameRepository {
     }
     
     /**
-     * Update game download progress
+     * Update game download progress; speed and remaining time are formatted when displayed
      */
-    public void updateGameProgress(long gameId, int progress, String speed, String eta) {
+    public void updateGameProgress(long gameId, int progress, long bytesPerSecond, long remainingSeconds) {
         synchronized (this) {
             Game game = gameCache.get(gameId);
             if (game != null) {
-                game.setDownloadProgress(progress);
-                game.setDownloadSpeed(speed);
-                game.setDownloadEta(eta);
+                game.updateDownloadProgress(progress, bytesPerSecond, remainingSeconds);
                 notifyGameUpdated(game);
             }
         }
     }
     
+    /**
+     * Extract a downloaded installer into the install directory on all cores,
+     * reporting byte-level progress the same way as a download
+     *
+     * @param version version of the installer, recorded as the installed one; null if not known
+     */
+    public void installFromArchive(long gameId, File archive, File installDir, String version,
+            InstallCallback callback) {
+        AppExecutors.getInstance().disk().execute(() -> {
+            updateGameStatus(gameId, Game.DownloadState.INSTALLING, false);
+            
+            // Reuses the download model for speed and ETA estimates
+            Download progress = new Download();
+            long startTime = System.currentTimeMillis();
+            
+            long installedSize;
+            try {
+                ParallelExtractor extractor = new ParallelExtractor(archive, installDir);
+                extractor.setProgressListener((extractedBytes, totalBytes) -> {
+                    long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                    progress.setTotalSize(totalBytes);
+                    progress.updateProgress(extractedBytes, extractedBytes * 1000.0 / elapsed);
+                    updateGameProgress(gameId, progress.getProgressPercentage(),
+                            (long) progress.getDownloadSpeed(), progress.getRemainingTime());
+                });
+                installedSize = extractor.extract();
+            } catch (IOException | RuntimeException e) {
+                // A malformed archive can fail with e.g. IllegalArgumentException from ZipFile
+                Log.e(TAG, "Error installing game " + gameId, e);
+                updateGameStatus(gameId, Game.DownloadState.FAILED, false);
+                callback.onError(e.getMessage());
+                return;
+            }
+            
+            String installedVersion = version;
+            synchronized (this) {
+                Game game = gameCache.get(gameId);
+                if (game != null) {
+                    game.setInstallDir(installDir.getAbsolutePath());
+                    game.setInstalledSize(installedSize);
+                    if (version != null) {
+                        game.setVersion(version);
+                    }
+                    installedVersion = game.getVersion();
+                }
+            }
+            updateGameStatus(gameId, Game.DownloadState.COMPLETED, true);
+            callback.onSuccess(installedSize);
+            
+            // Record what was installed for later verify, repair and update diffs.
+            // Without a manifest the next verify hashes everything, so this may fail.
+            try {
+                ChunkManifest.refresh(installDir, installedVersion);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to record the manifest of game " + gameId, e);
+            }
+        });
+    }
+    
+    /**
+     * Check an installed game for corrupted or missing files. Per-file results
+     * are streamed to the listener from worker threads.
+     */
+    public void verifyGame(long gameId, boolean full, IntegrityVerifier.Listener listener,
+                           VerifyCallback callback) {
+        Game game = getGameById(gameId);
+        if (game == null || !game.isInstalled() || game.getInstallDir() == null) {
+            callback.onError("Game is not installed");
+            return;
+        }
+        
+        IntegrityVerifier verifier = new IntegrityVerifier(new File(game.getInstallDir()));
+        if (verifiers.putIfAbsent(gameId, verifier) != null) {
+            callback.onError("Verification already running");
+            return;
+        }
+        if (gameRunning) {
+            verifier.setThrottle(Constants.VERIFY_THROTTLED_RATE);
+        }
+        
+        AppExecutors.getInstance().disk().execute(() -> {
+            try {
+                callback.onSuccess(verifier.verify(game.getMd5sum(), full, listener));
+            } catch (IOException e) {
+                if (!verifier.isCancelled()) {
+                    Log.e(TAG, "Error verifying game " + gameId, e);
+                }
+                callback.onError(e.getMessage());
+            } finally {
+                verifiers.remove(gameId);
+            }
+        });
+    }
+    
+    public void cancelVerification(long gameId) {
+        IntegrityVerifier verifier = verifiers.get(gameId);
+        if (verifier != null) {
+            verifier.cancel();
+        }
+    }
+    
+    /**
+     * Slow down running verifications while a game is being played so it keeps its I/O
+     */
+    public void setGameRunning(boolean running) {
+        gameRunning = running;
+        for (IntegrityVerifier verifier : verifiers.values()) {
+            verifier.setThrottle(running ? Constants.VERIFY_THROTTLED_RATE : 0);
+        }
+    }
+    
     /**
      * Check if API is available
      */
     public void checkApiAvailability(ApiAvailabilityCallback callback) {
-        executorService.execute(() -> {
+        AppExecutors.getInstance().io().execute(() -> {
             boolean available = gogApi.isNetworkAvailable();
             callback.onResult(available);
         });
@@ -284,7 +498,6 @@ public class GameRepository {
      * Cleanup resources
      */
     public void cleanup() {
-        executorService.shutdown();
         synchronized (listeners) {
             listeners.clear();
         }
@@ -303,6 +516,41 @@ public class GameRepository {
         void onError(String errorMessage);
     }
     
+    private static class DetailsCallbackAdapter implements CoalescingCache.Callback<Game> {
+        
+        private final GameDetailsCallback callback;
+        
+        DetailsCallbackAdapter(GameDetailsCallback callback) {
+            this.callback = callback;
+        }
+        
+        @Override
+        public void onSuccess(Game game) {
+            callback.onSuccess(game);
+        }
+        
+        @Override
+        public void onError(Exception error) {
+            if (error instanceof IOException) {
+                // Already a message from the API
+                callback.onError(error.getMessage());
+            } else {
+                Log.e(TAG, "Error getting game details", error);
+                callback.onError("Failed to get game details: " + error.getMessage());
+            }
+        }
+    }
+    
+    public interface InstallCallback {
+        void onSuccess(long installedSize);
+        void onError(String errorMessage);
+    }
+    
+    public interface VerifyCallback {
+        void onSuccess(IntegrityVerifier.Summary summary);
+        void onError(String errorMessage);
+    }
+    
     public interface ApiAvailabilityCallback {
         void onResult(boolean available);
     }
@@ -0,0 +1,220 @@
+package com.minigalaxy.android.service;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Build;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.minigalaxy.android.R;
+import com.minigalaxy.android.config.Constants;
+import com.minigalaxy.android.download.DownloadManager;
+import com.minigalaxy.android.model.Download;
+import com.minigalaxy.android.notification.NotificationManager;
+import com.minigalaxy.android.ui.MainActivity;
+
+/**
+ * Foreground service that keeps the process, and with it the shared
+ * {@link DownloadManager}, alive while downloads are running or about to.
+ * It stops while downloads only wait for their constraints and is started
+ * again by the manager once they are met.
+ */
+public class DownloadService extends Service implements DownloadManager.DownloadManagerListener {
+
+    private static final String TAG = "DownloadService";
+
+    // Backstop in case the service is never told to stop; renewed while downloads progress
+    private static final long WAKE_LOCK_TIMEOUT_MS = 10 * 60 * 1000;
+    private static final long WAKE_LOCK_RENEW_INTERVAL_MS = 60 * 1000;
+
+    private DownloadManager downloadManager;
+    private PowerManager.WakeLock wakeLock;
+    private long wakeLockRenewedAt;
+
+    /**
+     * Start the service, or poke it if it is already running
+     */
+    public static void start(Context context) {
+        Intent intent = new Intent(context, DownloadService.class);
+        try {
+            ContextCompat.startForegroundService(context, intent);
+        } catch (IllegalStateException e) {
+            // Background start restrictions; downloads still run while the app is visible
+            Log.e(TAG, "Unable to start download service", e);
+        }
+    }
+
+    /**
+     * Ask a running service to refresh its notification and stop if idle
+     */
+    public static void refresh(Context context) {
+        Intent intent = new Intent(context, DownloadService.class);
+        try {
+            context.startService(intent);
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Unable to refresh download service", e);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Makes sure the notification channels exist before posting
+        NotificationManager.getInstance(this);
+
+        Notification notification = buildNotification();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(Constants.NOTIFICATION_ID_DOWNLOAD_SERVICE, notification,
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(Constants.NOTIFICATION_ID_DOWNLOAD_SERVICE, notification);
+        }
+
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager != null) {
+            wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                    "Minigalaxy:DownloadService");
+            wakeLock.setReferenceCounted(false);
+            renewWakeLock();
+        }
+
+        downloadManager = DownloadManager.getInstance(this);
+        downloadManager.addListener(this);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        updateNotification();
+        if (!stopIfIdle()) {
+            renewWakeLock();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (downloadManager != null) {
+            downloadManager.removeListener(this);
+        }
+
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+
+        super.onDestroy();
+    }
+
+    /**
+     * @return whether the service stopped because nothing is transferring
+     */
+    private boolean stopIfIdle() {
+        if (downloadManager.hasActiveWork()) {
+            return false;
+        }
+
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        stopForeground(true);
+        stopSelf();
+        return true;
+    }
+
+    /**
+     * Acquire the wake lock, or push its timeout back. Not reference counted,
+     * so this can be called any number of times.
+     */
+    private void renewWakeLock() {
+        if (wakeLock == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (!wakeLock.isHeld() || now - wakeLockRenewedAt >= WAKE_LOCK_RENEW_INTERVAL_MS) {
+            wakeLock.acquire(WAKE_LOCK_TIMEOUT_MS);
+            wakeLockRenewedAt = now;
+        }
+    }
+
+    private void updateNotification() {
+        android.app.NotificationManager notificationManager = (android.app.NotificationManager)
+                getSystemService(Context.NOTIFICATION_SERVICE);
+        if (notificationManager != null) {
+            notificationManager.notify(Constants.NOTIFICATION_ID_DOWNLOAD_SERVICE, buildNotification());
+        }
+    }
+
+    private Notification buildNotification() {
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            this, 0, intent,
+            Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ?
+                PendingIntent.FLAG_IMMUTABLE : PendingIntent.FLAG_UPDATE_CURRENT
+        );
+
+        String text;
+        if (downloadManager != null && !downloadManager.areConstraintsSatisfied()) {
+            text = getString(R.string.download_service_waiting);
+        } else {
+            int active = downloadManager != null ? downloadManager.getActiveDownloads().size() : 0;
+            text = getString(R.string.download_service_active, active);
+        }
+
+        return new NotificationCompat.Builder(this, Constants.NOTIFICATION_CHANNEL_DOWNLOADS)
+            .setSmallIcon(R.drawable.ic_download)
+            .setContentTitle(getString(R.string.download_service_title))
+            .setContentText(text)
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .setContentIntent(pendingIntent)
+            .setPriority(NotificationCompat.PRIORITY_LOW)
+            .build();
+    }
+
+    // DownloadManager.DownloadManagerListener implementation
+    @Override
+    public void onDownloadAdded(Download download) {
+        updateNotification();
+    }
+
+    @Override
+    public void onDownloadStarted(Download download) {
+        updateNotification();
+        renewWakeLock();
+    }
+
+    @Override
+    public void onDownloadProgress(Download download) {
+        if (!download.isInProgress()) {
+            updateNotification();
+        } else {
+            renewWakeLock();
+        }
+    }
+
+    @Override
+    public void onDownloadCompleted(Download download) {
+        updateNotification();
+        stopIfIdle();
+    }
+
+    @Override
+    public void onDownloadFailed(Download download, String error) {
+        updateNotification();
+        stopIfIdle();
+    }
+}
@@ -22,12 +22,12 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.bumptech.glide.Glide;
 import com.minigalaxy.android.R;
 import com.minigalaxy.android.api.GameRepository;
+import com.minigalaxy.android.concurrent.AppExecutors;
 import com.minigalaxy.android.download.DownloadManager;
 import com.minigalaxy.android.model.Download;
 import com.minigalaxy.android.model.Game;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class GameDetailsActivity extends AppCompatActivity {
     public static final String EXTRA_GAME_ID = "game_id";
@@ -92,7 +92,7 @@ public class GameDetailsActivity extends AppCompatActivity {
     }
     
     private void initializeServices() {
-        executorService = Executors.newFixedThreadPool(2);
+        executorService = AppExecutors.getInstance().io();
         gameRepository = GameRepository.getInstance(this);
         downloadManager = DownloadManager.getInstance(this);
     }
@@ -297,6 +297,9 @@ public class GameDetailsActivity extends AppCompatActivity {
         if (id == android.R.id.home) {
             finish();
             return true;
+        } else if (id == R.id.action_verify) {
+            verifyGame();
+            return true;
         } else if (id == R.id.action_uninstall) {
             uninstallGame();
             return true;
@@ -308,6 +311,14 @@ public class GameDetailsActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
     
+    private void verifyGame() {
+        if (currentGame != null && currentGame.isInstalled()) {
+            Intent intent = new Intent(this, VerifyGameActivity.class);
+            intent.putExtra(VerifyGameActivity.EXTRA_GAME_ID, currentGame.getId());
+            startActivity(intent);
+        }
+    }
+    
     private void uninstallGame() {
         Toast.makeText(this, "Desinstalação ainda não implementada", Toast.LENGTH_SHORT).show();
     }
@@ -315,12 +326,4 @@ public class GameDetailsActivity extends AppCompatActivity {
     private void removeFromLibrary() {
         Toast.makeText(this, "Remoção da biblioteca ainda não implementada", Toast.LENGTH_SHORT).show();
     }
-    
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (executorService != null) {
-            executorService.shutdown();
-        }
-    }
 }
\ No newline at end of file
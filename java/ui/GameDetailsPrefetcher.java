@@ -0,0 +1,142 @@
+package com.minigalaxy.android.ui;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.minigalaxy.android.model.Game;
+import com.minigalaxy.android.repository.GameRepository;
+import com.minigalaxy.android.ui.adapter.GameAdapter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fetches details for library items that are on screen or about to scroll
+ * onto it, so opening a game usually finds them in the repository's cache.
+ * <p>
+ * Nothing is fetched during a fling, since those items are gone before the
+ * response arrives. When scrolling slowly the next screen in the scroll
+ * direction is included. On metered networks only what is visible, and only
+ * what the list shows, leaving descriptions for the details screen. Requests
+ * come out of a token bucket that caps prefetching at about
+ * {@value #REQUESTS_PER_MINUTE} calls a minute.
+ */
+public class GameDetailsPrefetcher extends RecyclerView.OnScrollListener {
+
+    // Faster than this (px per ms) the user is flinging past
+    private static final float FLING_VELOCITY = 3f;
+    private static final float VELOCITY_EWMA_WEIGHT = 0.3f;
+
+    private static final int REQUESTS_PER_MINUTE = 30;
+    private static final int BURST = 12;
+
+    private final GameRepository gameRepository;
+    private final GameAdapter adapter;
+    private final ConnectivityManager connectivityManager;
+
+    private float velocity; // px per ms, positive when scrolling down
+    private long lastScrollTime;
+
+    private double tokens = BURST;
+    private long lastRefill = SystemClock.elapsedRealtime();
+
+    public GameDetailsPrefetcher(Context context, GameRepository gameRepository, GameAdapter adapter) {
+        this.gameRepository = gameRepository;
+        this.adapter = adapter;
+        this.connectivityManager = (ConnectivityManager)
+                context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        long now = SystemClock.uptimeMillis();
+        long elapsed = now - lastScrollTime;
+        lastScrollTime = now;
+        if (elapsed <= 0 || elapsed > 100) {
+            // First event of a new gesture
+            velocity = 0;
+            return;
+        }
+
+        velocity += VELOCITY_EWMA_WEIGHT * ((float) dy / elapsed - velocity);
+        if (Math.abs(velocity) < FLING_VELOCITY) {
+            prefetch(recyclerView);
+        }
+    }
+
+    @Override
+    public void onScrollStateChanged(@NonNull RecyclerView recyclerView, int newState) {
+        if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+            velocity = 0;
+            prefetch(recyclerView);
+        }
+    }
+
+    /**
+     * Fetch details for what is visible now, e.g. once the library is shown
+     */
+    public void prefetch(RecyclerView recyclerView) {
+        if (!(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = layoutManager.findFirstVisibleItemPosition();
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+
+        boolean metered = isMetered();
+        int visibleCount = last - first + 1;
+        int lookahead = metered ? 0 : visibleCount;
+        boolean upwards = velocity < 0;
+        if (upwards) {
+            first -= lookahead;
+        } else {
+            // At rest people tend to continue downwards
+            last += lookahead;
+        }
+
+        // Visible items first, then the ones they are heading towards
+        int from = Math.max(0, first);
+        int to = Math.min(adapter.getItemCount() - 1, last);
+        List<Long> gameIds = new ArrayList<>();
+        for (int n = 0; n <= to - from; n++) {
+            Game game = adapter.getGame(upwards ? to - n : from + n);
+            boolean known = metered ? gameRepository.hasGameSummary(game.getId())
+                    : gameRepository.hasGameDetails(game.getId());
+            if (!known) {
+                gameIds.add(game.getId());
+            }
+        }
+
+        int budget = takeTokens(gameIds.size());
+        if (budget == 0) {
+            return;
+        }
+        if (metered) {
+            gameRepository.prefetchGameSummaries(gameIds.subList(0, budget));
+        } else {
+            gameRepository.prefetchGameDetails(gameIds.subList(0, budget));
+        }
+    }
+
+    private boolean isMetered() {
+        return connectivityManager == null || connectivityManager.isActiveNetworkMetered();
+    }
+
+    private int takeTokens(int wanted) {
+        long now = SystemClock.elapsedRealtime();
+        tokens = Math.min(BURST, tokens + (now - lastRefill) * REQUESTS_PER_MINUTE / 60000.0);
+        lastRefill = now;
+
+        int granted = (int) Math.min(wanted, Math.floor(tokens));
+        tokens -= granted;
+        return granted;
+    }
+}
@@ -11,6 +11,7 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.google.android.material.button.MaterialButton;
+import com.minigalaxy.android.MinigalaxyApplication;
 import com.minigalaxy.android.R;
 import com.minigalaxy.android.auth.AuthenticationManager;
 import com.minigalaxy.android.config.Config;
@@ -40,8 +41,9 @@ public class LoginActivity extends AppCompatActivity implements
     }
     
     private void initializeComponents() {
-        config = new Config(this);
-        authManager = new AuthenticationManager(this, config);
+        MinigalaxyApplication application = MinigalaxyApplication.from(this);
+        config = application.getConfig();
+        authManager = application.getAuthenticationManager();
     }
     
     private void setupUI() {
@@ -165,10 +167,6 @@ public class LoginActivity extends AppCompatActivity implements
     protected void onDestroy() {
         super.onDestroy();
         
-        if (authManager != null) {
-            authManager.cleanup();
-        }
-        
         if (webViewLogin != null) {
             webViewLogin.destroy();
         }
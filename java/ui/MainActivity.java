@@ -1,6 +1,8 @@
 package com.minigalaxy.android.ui;
 
+import android.content.Context;
 import android.content.Intent;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -13,21 +15,26 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.progressindicator.CircularProgressIndicator;
+import com.google.android.material.snackbar.Snackbar;
 import com.google.android.material.textfield.TextInputEditText;
+import com.minigalaxy.android.MinigalaxyApplication;
 import com.minigalaxy.android.R;
 import com.minigalaxy.android.auth.AuthenticationManager;
-import com.minigalaxy.android.config.Config;
 import com.minigalaxy.android.download.DownloadManager;
+import com.minigalaxy.android.install.GameUpdater;
+import com.minigalaxy.android.install.UpdatePlan;
 import com.minigalaxy.android.model.Download;
 import com.minigalaxy.android.model.Game;
 import com.minigalaxy.android.repository.GameRepository;
+import com.minigalaxy.android.ui.adapter.GameAdapter;
 
 import java.util.ArrayList;
 import java.util.List;
 
 public class MainActivity extends AppCompatActivity implements 
         GameRepository.GameRepositoryListener,
-        DownloadManager.DownloadManagerListener {
+        DownloadManager.DownloadManagerListener,
+        GameUpdater.UpdateCheckListener {
     
     private RecyclerView gamesRecyclerView;
     private TextInputEditText searchEditText;
@@ -35,12 +42,15 @@ public class MainActivity extends AppCompatActivity implements
     private View emptyStateLayout;
     private FloatingActionButton fabRefresh;
     
-    private Config config;
     private AuthenticationManager authManager;
     private GameRepository gameRepository;
     private DownloadManager downloadManager;
     
+    private GameAdapter gameAdapter;
+    private GameDetailsPrefetcher detailsPrefetcher;
+    
     private List<Game> allGames = new ArrayList<>();
+    private boolean updatesChecked;
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -52,14 +62,31 @@ public class MainActivity extends AppCompatActivity implements
         checkAuthentication();
     }
     
+    @Override
+    protected void onResume() {
+        super.onResume();
+        attachDownloadManager();
+    }
+    
     private void initializeComponents() {
-        config = new Config(this);
-        authManager = new AuthenticationManager(this, config);
-        gameRepository = new GameRepository(this, config);
-        downloadManager = new DownloadManager(this, config);
+        MinigalaxyApplication application = MinigalaxyApplication.from(this);
+        authManager = application.getAuthenticationManager();
+        gameRepository = application.getGameRepository();
         
         gameRepository.addListener(this);
-        downloadManager.addListener(this);
+    }
+    
+    /**
+     * The library does not need the download subsystem, so it is not started
+     * just to show this screen; listen once something else has started it.
+     */
+    private void attachDownloadManager() {
+        if (downloadManager == null) {
+            downloadManager = DownloadManager.peekInstance();
+            if (downloadManager != null) {
+                downloadManager.addListener(this);
+            }
+        }
     }
     
     private void setupUI() {
@@ -72,6 +99,12 @@ public class MainActivity extends AppCompatActivity implements
         setSupportActionBar(findViewById(R.id.toolbar));
         
         gamesRecyclerView.setLayoutManager(new GridLayoutManager(this, 2));
+        gameAdapter = new GameAdapter(this, GameAdapter.ViewType.GRID);
+        gamesRecyclerView.setAdapter(gameAdapter);
+        
+        // Details for what the user is looking at are usually cached before they tap
+        detailsPrefetcher = new GameDetailsPrefetcher(this, gameRepository, gameAdapter);
+        gamesRecyclerView.addOnScrollListener(detailsPrefetcher);
         
         fabRefresh.setOnClickListener(v -> refreshLibrary());
     }
@@ -95,12 +128,80 @@ public class MainActivity extends AppCompatActivity implements
     }
     
     private void refreshLibrary() {
+        updatesChecked = false;
         gameRepository.syncGames(true);
     }
     
+    /**
+     * Look for updates to installed games once per sync. Only then is the
+     * updater, and with it the download subsystem, started.
+     */
+    private void checkForUpdates(List<Game> games) {
+        if (updatesChecked) {
+            return;
+        }
+        updatesChecked = true;
+        
+        for (Game game : games) {
+            if (game.isInstalled()) {
+                MinigalaxyApplication.from(this).getGameUpdater().checkForUpdates(games, this);
+                return;
+            }
+        }
+    }
+    
+    // GameUpdater.UpdateCheckListener implementation
+    @Override
+    public void onUpdateAvailable(Game game, UpdatePlan plan) {
+        if (MinigalaxyApplication.from(this).getConfig().getAutoDownloadUpdates()) {
+            runOnUiThread(() -> startUpdate(game, plan));
+            return;
+        }
+        
+        runOnUiThread(() -> {
+            if (isDestroyed()) {
+                return;
+            }
+            Snackbar.make(gamesRecyclerView,
+                    getString(R.string.update_available, game.getName(), plan.getToVersion()),
+                    Snackbar.LENGTH_LONG)
+                    .setAction(R.string.game_update, v -> startUpdate(game, plan))
+                    .show();
+        });
+    }
+    
+    private void startUpdate(Game game, UpdatePlan plan) {
+        // The update outlives this screen, so report with the application context
+        Context context = getApplicationContext();
+        Toast.makeText(context, getString(R.string.update_started, game.getName()), Toast.LENGTH_SHORT).show();
+        
+        MinigalaxyApplication.from(this).getGameUpdater().startUpdate(game, plan, new GameUpdater.UpdateCallback() {
+            @Override
+            public void onUpdateCompleted(Game updated) {
+                runOnUiThread(() -> {
+                    Toast.makeText(context, context.getString(R.string.update_completed,
+                            updated.getName(), updated.getVersion()), Toast.LENGTH_SHORT).show();
+                    if (!isDestroyed()) {
+                        gameAdapter.updateGame(updated);
+                    }
+                });
+            }
+            
+            @Override
+            public void onUpdateFailed(Game failed, String error) {
+                runOnUiThread(() -> Toast.makeText(context, context.getString(R.string.update_failed,
+                        failed.getName(), error), Toast.LENGTH_LONG).show());
+            }
+        });
+    }
+    
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.main_menu, menu);
+        
+        // Metrics are a debugging aid, not something to show in release builds
+        boolean debuggable = (getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        menu.findItem(R.id.action_metrics).setVisible(debuggable);
         return true;
     }
     
@@ -111,6 +212,9 @@ public class MainActivity extends AppCompatActivity implements
         if (id == R.id.action_preferences) {
             startActivity(new Intent(this, PreferencesActivity.class));
             return true;
+        } else if (id == R.id.action_metrics) {
+            startActivity(new Intent(this, MetricsActivity.class));
+            return true;
         } else if (id == R.id.action_logout) {
             authManager.logout();
             startLoginActivity();
@@ -137,6 +241,9 @@ public class MainActivity extends AppCompatActivity implements
             
             allGames.clear();
             allGames.addAll(games);
+            gameAdapter.setGames(games);
+            gamesRecyclerView.post(() -> detailsPrefetcher.prefetch(gamesRecyclerView));
+            checkForUpdates(games);
             
             // Update UI
             if (games.isEmpty()) {
@@ -159,6 +266,7 @@ public class MainActivity extends AppCompatActivity implements
                     break;
                 }
             }
+            gameAdapter.updateGame(game);
         });
     }
     
@@ -207,18 +315,13 @@ public class MainActivity extends AppCompatActivity implements
     protected void onDestroy() {
         super.onDestroy();
         
+        // The managers are application-scoped and outlive the activity
         if (gameRepository != null) {
             gameRepository.removeListener(this);
-            gameRepository.cleanup();
         }
         
         if (downloadManager != null) {
             downloadManager.removeListener(this);
-            downloadManager.cleanup();
-        }
-        
-        if (authManager != null) {
-            authManager.cleanup();
         }
     }
 }
\ No newline at end of file
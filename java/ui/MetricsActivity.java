@@ -0,0 +1,100 @@
+package com.minigalaxy.android.ui;
+
+import android.os.Bundle;
+import android.util.Log;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.minigalaxy.android.R;
+import com.minigalaxy.android.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Debug screen listing everything in the {@link MetricsRegistry}
+ */
+public class MetricsActivity extends AppCompatActivity {
+
+    private static final String TAG = "MetricsActivity";
+
+    private TextView textViewMetrics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_metrics);
+
+        setupToolbar();
+        textViewMetrics = findViewById(R.id.textViewMetrics);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    private void setupToolbar() {
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle(R.string.metrics_title);
+        }
+    }
+
+    private void refresh() {
+        String report = MetricsRegistry.getInstance().format();
+        if (report.isEmpty()) {
+            textViewMetrics.setText(R.string.metrics_empty);
+        } else {
+            textViewMetrics.setText(report);
+        }
+    }
+
+    private void export() {
+        File file = new File(getExternalFilesDir("metrics"), "metrics-" + System.currentTimeMillis() + ".json");
+        try {
+            MetricsRegistry.getInstance().exportTo(file);
+            Toast.makeText(this, getString(R.string.metrics_exported, file.getAbsolutePath()),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Log.e(TAG, "Error exporting metrics", e);
+            Toast.makeText(this, R.string.metrics_export_failed, Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.metrics_menu, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        int id = item.getItemId();
+
+        if (id == android.R.id.home) {
+            finish();
+            return true;
+        } else if (id == R.id.action_refresh) {
+            refresh();
+            return true;
+        } else if (id == R.id.action_export) {
+            export();
+            return true;
+        } else if (id == R.id.action_reset) {
+            MetricsRegistry.getInstance().reset();
+            refresh();
+            return true;
+        }
+
+        return super.onOptionsItemSelected(item);
+    }
+}
@@ -189,6 +189,34 @@ public class PreferencesActivity extends AppCompatActivity {
                     return true;
                 });
             }
+
+            // Download constraints
+            SwitchPreferenceCompat unmeteredOnlyPreference = findPreference("pref_download_unmetered_only");
+            if (unmeteredOnlyPreference != null) {
+                unmeteredOnlyPreference.setChecked(config.getDownloadUnmeteredOnly());
+                unmeteredOnlyPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+                    config.setDownloadUnmeteredOnly((Boolean) newValue);
+                    return true;
+                });
+            }
+
+            SwitchPreferenceCompat chargingOnlyPreference = findPreference("pref_download_charging_only");
+            if (chargingOnlyPreference != null) {
+                chargingOnlyPreference.setChecked(config.getDownloadChargingOnly());
+                chargingOnlyPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+                    config.setDownloadChargingOnly((Boolean) newValue);
+                    return true;
+                });
+            }
+
+            SwitchPreferenceCompat storageNotLowPreference = findPreference("pref_download_storage_not_low");
+            if (storageNotLowPreference != null) {
+                storageNotLowPreference.setChecked(config.getDownloadStorageNotLow());
+                storageNotLowPreference.setOnPreferenceChangeListener((preference, newValue) -> {
+                    config.setDownloadStorageNotLow((Boolean) newValue);
+                    return true;
+                });
+            }
         }
 
         private void setupNotificationPreferences() {
@@ -0,0 +1,151 @@
+package com.minigalaxy.android.ui;
+
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.google.android.material.progressindicator.LinearProgressIndicator;
+import com.minigalaxy.android.MinigalaxyApplication;
+import com.minigalaxy.android.R;
+import com.minigalaxy.android.install.IntegrityVerifier;
+import com.minigalaxy.android.repository.GameRepository;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks an installed game's files and lists damaged or missing ones as
+ * they are found. Leaving the screen cancels the check.
+ */
+public class VerifyGameActivity extends AppCompatActivity implements
+        IntegrityVerifier.Listener,
+        GameRepository.VerifyCallback {
+
+    public static final String EXTRA_GAME_ID = "game_id";
+
+    private static final long PROGRESS_INTERVAL_MS = 250;
+    private static final int PROGRESS_MAX = 1000;
+
+    private GameRepository gameRepository;
+    private long gameId;
+
+    private LinearProgressIndicator progressIndicator;
+    private TextView textViewStatus;
+    private TextView textViewResults;
+
+    private final AtomicInteger checkedFiles = new AtomicInteger();
+    private final AtomicLong lastProgress = new AtomicLong();
+    private volatile boolean finished;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_verify_game);
+
+        gameId = getIntent().getLongExtra(EXTRA_GAME_ID, -1);
+        if (gameId < 0) {
+            finish();
+            return;
+        }
+
+        setupToolbar();
+        progressIndicator = findViewById(R.id.progressIndicator);
+        textViewStatus = findViewById(R.id.textViewStatus);
+        textViewResults = findViewById(R.id.textViewResults);
+        progressIndicator.setMax(PROGRESS_MAX);
+
+        gameRepository = MinigalaxyApplication.from(this).getGameRepository();
+        gameRepository.verifyGame(gameId, false, this, this);
+    }
+
+    private void setupToolbar() {
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+            getSupportActionBar().setTitle(R.string.verify_title);
+        }
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    // IntegrityVerifier.Listener implementation, called from worker threads
+    @Override
+    public void onFileVerified(IntegrityVerifier.FileResult result) {
+        int checked = checkedFiles.incrementAndGet();
+        String line;
+        switch (result.getStatus()) {
+            case CORRUPTED:
+                line = getString(R.string.verify_file_corrupted, result.getPath());
+                break;
+            case MISSING:
+                line = getString(R.string.verify_file_missing, result.getPath());
+                break;
+            default:
+                line = null;
+                break;
+        }
+
+        runOnUiThread(() -> {
+            if (line != null) {
+                textViewResults.append(line + "\n");
+            }
+            if (!finished) {
+                textViewStatus.setText(getString(R.string.verify_progress, checked));
+            }
+        });
+    }
+
+    @Override
+    public void onProgress(long hashedBytes, long totalBytes) {
+        long now = System.currentTimeMillis();
+        long last = lastProgress.get();
+        if (totalBytes <= 0 || now - last < PROGRESS_INTERVAL_MS || !lastProgress.compareAndSet(last, now)) {
+            return;
+        }
+        int progress = (int) (hashedBytes * PROGRESS_MAX / totalBytes);
+        runOnUiThread(() -> progressIndicator.setProgressCompat(progress, true));
+    }
+
+    // GameRepository.VerifyCallback implementation
+    @Override
+    public void onSuccess(IntegrityVerifier.Summary summary) {
+        finished = true;
+        int files = summary.getVerifiedFiles() + summary.getSkippedFiles();
+        String status = summary.isIntact()
+                ? getString(R.string.verify_intact, files)
+                : getString(R.string.verify_damaged, summary.getCorrupted().size(), summary.getMissing().size());
+        runOnUiThread(() -> {
+            progressIndicator.setProgressCompat(PROGRESS_MAX, true);
+            textViewStatus.setText(status);
+        });
+    }
+
+    @Override
+    public void onError(String errorMessage) {
+        finished = true;
+        runOnUiThread(() -> {
+            if (!isFinishing()) {
+                textViewStatus.setText(getString(R.string.verify_failed, errorMessage));
+            }
+        });
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (gameRepository != null && !finished) {
+            gameRepository.cancelVerification(gameId);
+        }
+    }
+}
@@ -136,6 +136,10 @@ public class GameAdapter extends RecyclerView.Adapter<GameAdapter.GameViewHolder
         holder.bind(game);
     }
     
+    public Game getGame(int position) {
+        return filteredGames.get(position);
+    }
+    
     @Override
     public int getItemCount() {
         return filteredGames.size();
@@ -0,0 +1,182 @@
+package com.minigalaxy.android.concurrent;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingCacheTest {
+
+    private static final long LONG_TTL = 60 * 1000;
+
+    private final QueueExecutor executor = new QueueExecutor();
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    public void concurrentRequestsShareOneLoad() {
+        CoalescingCache<String, String> cache = cache(LONG_TTL, this::load);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        cache.get("a", first);
+        cache.get("a", second);
+        assertEquals(1, executor.runAll());
+
+        assertEquals(1, loads.get());
+        assertEquals("a1", first.value);
+        assertEquals("a1", second.value);
+    }
+
+    @Test
+    public void cachedValueIsDeliveredOnTheCallingThread() {
+        CoalescingCache<String, String> cache = cache(LONG_TTL, this::load);
+        cache.get("a", new Recorder());
+        executor.runAll();
+
+        Recorder recorder = new Recorder();
+        cache.get("a", recorder);
+
+        assertEquals(0, executor.runAll());
+        assertEquals(1, loads.get());
+        assertEquals("a1", recorder.value);
+    }
+
+    @Test
+    public void expiredValueIsLoadedAgain() throws InterruptedException {
+        CoalescingCache<String, String> cache = cache(20, this::load);
+        cache.get("a", new Recorder());
+        executor.runAll();
+
+        Thread.sleep(50);
+        assertNull(cache.getIfPresent("a"));
+
+        Recorder recorder = new Recorder();
+        cache.get("a", recorder);
+        executor.runAll();
+
+        assertEquals(2, loads.get());
+        assertEquals("a2", recorder.value);
+    }
+
+    @Test
+    public void failureReachesEveryWaiterAndIsNotCached() {
+        CoalescingCache<String, String> cache = cache(LONG_TTL, key -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IOException("offline");
+            }
+            return key + loads.get();
+        });
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+
+        cache.get("a", first);
+        cache.get("a", second);
+        executor.runAll();
+
+        assertTrue(first.error instanceof IOException);
+        assertTrue(second.error instanceof IOException);
+        assertNull(cache.getIfPresent("a"));
+
+        Recorder retry = new Recorder();
+        cache.get("a", retry);
+        assertEquals(1, executor.runAll());
+        assertEquals("a2", retry.value);
+    }
+
+    @Test
+    public void refreshSkipsTheCachedValueButJoinsARunningLoad() {
+        CoalescingCache<String, String> cache = cache(LONG_TTL, this::load);
+        cache.get("a", new Recorder());
+        executor.runAll();
+
+        Recorder refreshed = new Recorder();
+        Recorder joined = new Recorder();
+        cache.refresh("a", refreshed);
+        cache.refresh("a", joined);
+        assertEquals(1, executor.runAll());
+
+        assertEquals(2, loads.get());
+        assertEquals("a2", refreshed.value);
+        assertEquals("a2", joined.value);
+        assertEquals("a2", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void rejectedLoadIsReportedAndNotLeftInFlight() {
+        CoalescingCache<String, String> cache = new CoalescingCache<>("test", LONG_TTL, 10, command -> {
+            throw new RejectedExecutionException("shut down");
+        }, this::load);
+        Recorder recorder = new Recorder();
+
+        cache.get("a", recorder);
+
+        assertTrue(recorder.error instanceof RejectedExecutionException);
+        assertFalse(cache.isCachedOrLoading("a"));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() {
+        CoalescingCache<String, String> cache = new CoalescingCache<>("test", LONG_TTL, 2, executor, this::load);
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.getIfPresent("a");
+        cache.put("c", "C");
+
+        assertEquals("A", cache.getIfPresent("a"));
+        assertNull(cache.getIfPresent("b"));
+        assertEquals("C", cache.getIfPresent("c"));
+    }
+
+    private String load(String key) {
+        return key + loads.incrementAndGet();
+    }
+
+    private CoalescingCache<String, String> cache(long ttlMillis, CoalescingCache.Loader<String, String> loader) {
+        return new CoalescingCache<>("test", ttlMillis, 10, executor, loader);
+    }
+
+    /**
+     * Runs tasks only when asked, so a test controls when loads complete
+     */
+    private static class QueueExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        int runAll() {
+            int count = 0;
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static class Recorder implements CoalescingCache.Callback<String> {
+        String value;
+        Exception error;
+
+        @Override
+        public void onSuccess(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public void onError(Exception error) {
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.minigalaxy.android.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ConcurrencyControllerTest {
+
+    private static final long WINDOW_MS = 3000;
+    private static final int QUEUED = 5;
+
+    private long now;
+
+    @Test
+    public void errorHalvesTheLimit() {
+        ConcurrencyController controller = controller(4, 1, 8);
+
+        controller.onBytesTransferred(1000);
+        controller.onError();
+        window(controller);
+
+        assertEquals(2, controller.getLimit());
+    }
+
+    @Test
+    public void latencyFromThePreviousNetworkIsForgotten() {
+        ConcurrencyController controller = controller(2, 1, 4);
+        controller.onLatencySample(10);
+        controller.onBytesTransferred(1000);
+        window(controller);
+        assertEquals(3, controller.getLimit());
+
+        // Slower but healthy link, which must not read as congestion
+        controller.onNetworkChanged();
+        controller.onLatencySample(100);
+        controller.onBytesTransferred(2000);
+        window(controller);
+
+        assertEquals(4, controller.getLimit());
+    }
+
+    @Test
+    public void latencyBaselineExpires() {
+        ConcurrencyController controller = controller(1, 1, 4);
+        controller.onLatencySample(10);
+
+        // Every window now starts ten times slower than that first request
+        for (int i = 0; i < 30; i++) {
+            controller.onLatencySample(100);
+            controller.onBytesTransferred(controller.getLimit() * 1000L);
+            window(controller);
+        }
+
+        assertEquals(4, controller.getLimit());
+    }
+
+    private ConcurrencyController controller(int initialLimit, int minLimit, int maxLimit) {
+        ConcurrencyController controller = new ConcurrencyController(initialLimit, minLimit, maxLimit);
+        // Read after construction so every window is at least a full interval long
+        now = System.currentTimeMillis();
+        return controller;
+    }
+
+    private void window(ConcurrencyController controller) {
+        now += WINDOW_MS;
+        controller.sample(now, controller.getLimit(), QUEUED);
+    }
+}
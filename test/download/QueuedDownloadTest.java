@@ -0,0 +1,117 @@
+package com.minigalaxy.android.download;
+
+import com.minigalaxy.android.model.Download;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class QueuedDownloadTest {
+
+    private static final long INTERVAL = QueuedDownload.AGING_INTERVAL_MS;
+
+    @Test
+    public void higherPriorityGoesFirst() {
+        QueuedDownload high = queued(2, 0);
+        QueuedDownload low = queued(1, 0);
+
+        assertTrue(high.compareTo(low) < 0);
+        assertTrue(low.compareTo(high) > 0);
+    }
+
+    @Test
+    public void earlierArrivalGoesFirstAtEqualPriority() {
+        QueuedDownload first = queued(1, 0);
+        QueuedDownload second = queued(1, 1000);
+
+        assertTrue(first.compareTo(second) < 0);
+    }
+
+    @Test
+    public void waitingOneIntervalEarnsOnePriorityLevel() {
+        QueuedDownload download = queued(1, 5000);
+
+        assertEquals(1.0, download.getEffectivePriority(5000), 0.0001);
+        assertEquals(2.0, download.getEffectivePriority(5000 + INTERVAL), 0.0001);
+        assertEquals(1.5, download.getEffectivePriority(5000 + INTERVAL / 2), 0.0001);
+    }
+
+    @Test
+    public void longWaitOutranksHigherPriority() {
+        QueuedDownload waiting = queued(0, 0);
+
+        // Two levels higher but queued only one interval later: still ahead
+        assertTrue(queued(2, INTERVAL).compareTo(waiting) < 0);
+        // Two levels higher but queued three intervals later: the old one has caught up
+        assertTrue(waiting.compareTo(queued(2, 3 * INTERVAL)) < 0);
+    }
+
+    @Test
+    public void queueTakesAgedEntriesFirst() {
+        QueuedDownload old = queued(0, 0);
+        QueuedDownload urgent = queued(3, INTERVAL);
+        QueuedDownload recent = queued(1, 2 * INTERVAL);
+
+        PriorityQueue<QueuedDownload> queue = new PriorityQueue<>();
+        queue.add(recent);
+        queue.add(old);
+        queue.add(urgent);
+
+        // Scores: urgent 3 - 1 = 2, old 0, recent 1 - 2 = -1
+        assertSame(urgent, queue.poll());
+        assertSame(old, queue.poll());
+        assertSame(recent, queue.poll());
+    }
+
+    @Test
+    public void shortestFirstOrdersByRemainingBytes() {
+        QueuedDownload large = queued(3, 0, 500, 0);
+        QueuedDownload nearlyDone = queued(0, 0, 1000, 990);
+        QueuedDownload small = queued(1, 0, 100, 0);
+
+        List<QueuedDownload> order = new ArrayList<>(Arrays.asList(large, nearlyDone, small));
+        Collections.sort(order, QueuedDownload.SHORTEST_FIRST);
+
+        assertEquals(Arrays.asList(nearlyDone, small, large), order);
+    }
+
+    @Test
+    public void shortestFirstFallsBackToPriorityAndAge() {
+        QueuedDownload low = queued(0, 0, 100, 0);
+        QueuedDownload high = queued(2, 0, 100, 0);
+        QueuedDownload highLater = queued(2, 1000, 100, 0);
+
+        List<QueuedDownload> order = new ArrayList<>(Arrays.asList(low, highLater, high));
+        Collections.sort(order, QueuedDownload.SHORTEST_FIRST);
+
+        assertEquals(Arrays.asList(high, highLater, low), order);
+    }
+
+    @Test
+    public void remainingBytesIsNeverNegative() {
+        Download download = new Download();
+        download.setTotalSize(100);
+        download.setDownloadedSize(150);
+
+        assertEquals(0, QueuedDownload.remainingBytes(download));
+    }
+
+    private static QueuedDownload queued(int priority, long queueTime) {
+        return new QueuedDownload(new Download(), priority, queueTime);
+    }
+
+    private static QueuedDownload queued(int priority, long queueTime, long totalSize, long downloadedSize) {
+        Download download = new Download();
+        download.setTotalSize(totalSize);
+        download.setDownloadedSize(downloadedSize);
+        return new QueuedDownload(download, priority, queueTime);
+    }
+}
@@ -0,0 +1,164 @@
+package com.minigalaxy.android.download;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangedTransferTest {
+
+    private static final int FILE_SIZE = 64 * 1024;
+    private static final int ON_DISK = 20000;
+
+    private final byte[] content = new byte[FILE_SIZE];
+
+    private MockWebServer server;
+    private RangedTransfer transfer;
+    private File partialFile;
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+
+        server = new MockWebServer();
+        server.start();
+        transfer = new RangedTransfer(new OkHttpClient(), 4096);
+        partialFile = File.createTempFile("download", ".partial");
+        partialFile.delete();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        partialFile.delete();
+    }
+
+    @Test
+    public void startsWithoutRangeWhenNothingIsOnDisk() throws Exception {
+        server.enqueue(new MockResponse().setBody(body(0)));
+
+        long size = fetch();
+
+        assertNull(server.takeRequest().getHeader("Range"));
+        assertEquals(FILE_SIZE, size);
+        assertContent();
+    }
+
+    @Test
+    public void resumesAfterBytesOnDiskOn206() throws Exception {
+        writePartial(ON_DISK);
+        server.enqueue(new MockResponse()
+                .setResponseCode(206)
+                .setHeader("Content-Range", "bytes " + ON_DISK + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE)
+                .setBody(body(ON_DISK)));
+
+        long size = fetch();
+
+        RecordedRequest request = server.takeRequest();
+        assertEquals("bytes=" + ON_DISK + "-", request.getHeader("Range"));
+        assertEquals(FILE_SIZE, size);
+        assertContent();
+    }
+
+    @Test
+    public void startsOverWhenTheServerIgnoresTheRange() throws Exception {
+        writePartial(ON_DISK);
+        server.enqueue(new MockResponse().setBody(body(0)));
+
+        long size = fetch();
+
+        assertEquals(FILE_SIZE, size);
+        assertContent();
+    }
+
+    @Test
+    public void treats416AsDoneWhenEverythingIsOnDisk() throws Exception {
+        writePartial(FILE_SIZE);
+        server.enqueue(new MockResponse()
+                .setResponseCode(416)
+                .setHeader("Content-Range", "bytes */" + FILE_SIZE));
+
+        long size = fetch();
+
+        assertEquals("bytes=" + FILE_SIZE + "-", server.takeRequest().getHeader("Range"));
+        assertEquals(FILE_SIZE, size);
+        assertContent();
+    }
+
+    @Test
+    public void reports416OnAShortFileAsRangeNotSatisfiable() throws Exception {
+        writePartial(ON_DISK);
+        server.enqueue(new MockResponse()
+                .setResponseCode(416)
+                .setHeader("Content-Range", "bytes */" + FILE_SIZE));
+
+        try {
+            fetch();
+            fail("Expected a DownloadException");
+        } catch (DownloadException e) {
+            assertEquals(DownloadException.Reason.RANGE_NOT_SATISFIABLE, e.getReason());
+        }
+        // Left for the caller to delete before it starts over
+        assertEquals(ON_DISK, partialFile.length());
+    }
+
+    private long fetch() throws IOException {
+        return transfer.fetch(server.url("/file").toString(), partialFile, FILE_SIZE, NO_OP_LISTENER);
+    }
+
+    private Buffer body(int start) {
+        return new Buffer().write(content, start, content.length - start);
+    }
+
+    private void writePartial(int length) throws IOException {
+        try (OutputStream out = new FileOutputStream(partialFile)) {
+            out.write(content, 0, length);
+        }
+    }
+
+    private void assertContent() throws IOException {
+        byte[] actual = new byte[(int) partialFile.length()];
+        try (InputStream in = new FileInputStream(partialFile)) {
+            int offset = 0;
+            int read;
+            while (offset < actual.length && (read = in.read(actual, offset, actual.length - offset)) != -1) {
+                offset += read;
+            }
+        }
+        assertTrue("partial file differs from the served file", Arrays.equals(content, actual));
+    }
+
+    private static final RangedTransfer.Listener NO_OP_LISTENER = new RangedTransfer.Listener() {
+        @Override
+        public void onConnected(long latencyMillis) {
+        }
+
+        @Override
+        public void onSizeKnown(long totalSize) {
+        }
+
+        @Override
+        public void onProgress(long position, int bytesRead) {
+        }
+    };
+}
@@ -0,0 +1,57 @@
+package com.minigalaxy.android.download;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTest {
+
+    private static final long BASE_DELAY_MS = 1000;
+    private static final long MAX_DELAY_MS = 60 * 1000;
+
+    private final RetryPolicy policy = new RetryPolicy(5, BASE_DELAY_MS, MAX_DELAY_MS);
+
+    @Test
+    public void retriesRetryableReasonsUntilMaxAttempts() {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            assertTrue(policy.shouldRetry(DownloadException.Reason.TRANSIENT_NETWORK, attempt));
+        }
+        assertFalse(policy.shouldRetry(DownloadException.Reason.TRANSIENT_NETWORK, 5));
+    }
+
+    @Test
+    public void neverRetriesPermanentFailures() {
+        assertFalse(policy.shouldRetry(DownloadException.Reason.DISK_FULL, 0));
+        assertFalse(policy.shouldRetry(DownloadException.Reason.CLIENT_ERROR, 0));
+        assertFalse(policy.shouldRetry(DownloadException.Reason.LOCAL_IO, 0));
+        assertFalse(policy.shouldRetry(DownloadException.Reason.UNKNOWN, 0));
+    }
+
+    @Test
+    public void retriesRenewedLinksAndRestartedRangesImmediately() {
+        assertEquals(0, policy.getDelay(DownloadException.Reason.LINK_EXPIRED, 3));
+        assertEquals(0, policy.getDelay(DownloadException.Reason.RANGE_NOT_SATISFIABLE, 3));
+    }
+
+    @Test
+    public void delayDoublesWithEqualJitter() {
+        for (int attempt = 0; attempt < 5; attempt++) {
+            long cap = BASE_DELAY_MS << attempt;
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.getDelay(DownloadException.Reason.SERVER_ERROR, attempt);
+                assertTrue("attempt " + attempt + ": " + delay, delay >= cap / 2 && delay <= cap);
+            }
+        }
+    }
+
+    @Test
+    public void delayIsCappedForLateAttempts() {
+        // Also past the point where the shift would overflow
+        for (int attempt : new int[] {6, 20, 63, 100}) {
+            long delay = policy.getDelay(DownloadException.Reason.TRANSIENT_NETWORK, attempt);
+            assertTrue("attempt " + attempt + ": " + delay, delay >= MAX_DELAY_MS / 2 && delay <= MAX_DELAY_MS);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.minigalaxy.android.install;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UpdatePlanTest {
+
+    @Test
+    public void numbersCompareByValue() {
+        assertTrue(UpdatePlan.compareVersions("1.10", "1.9") > 0);
+        assertTrue(UpdatePlan.compareVersions("1.9", "1.10") < 0);
+        assertTrue(UpdatePlan.compareVersions("2.0", "10.0") < 0);
+    }
+
+    @Test
+    public void equalVersionsCompareEqual() {
+        assertEquals(0, UpdatePlan.compareVersions("1.2.3", "1.2.3"));
+        assertEquals(0, UpdatePlan.compareVersions("1.02", "1.2"));
+    }
+
+    @Test
+    public void extraComponentIsNewer() {
+        assertTrue(UpdatePlan.compareVersions("1.2.1", "1.2") > 0);
+        assertTrue(UpdatePlan.compareVersions("1.2", "1.2 (gog-3)") < 0);
+    }
+
+    @Test
+    public void longBuildNumbersDoNotOverflow() {
+        assertTrue(UpdatePlan.compareVersions("1.0.20240101123456789", "1.0.9999999999") > 0);
+    }
+}
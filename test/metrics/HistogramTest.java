@@ -0,0 +1,64 @@
+package com.minigalaxy.android.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void smallValuesHaveTheirOwnBucket() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, Histogram.indexOf(value));
+            assertEquals(value, Histogram.highestValueOf(value));
+        }
+    }
+
+    @Test
+    public void firstSplitPowerOfTwoUsesUnitWideBuckets() {
+        // 8..15 still resolve exactly, 16 starts buckets two wide
+        assertEquals(8, Histogram.indexOf(8));
+        assertEquals(15, Histogram.indexOf(15));
+        assertEquals(16, Histogram.indexOf(16));
+        assertEquals(16, Histogram.indexOf(17));
+        assertEquals(17, Histogram.highestValueOf(16));
+    }
+
+    @Test
+    public void bucketsMeetWithoutGapsOrOverlap() {
+        int last = Histogram.indexOf(Long.MAX_VALUE);
+        for (int index = 0; index < last; index++) {
+            long highest = Histogram.highestValueOf(index);
+            assertEquals("highest value of bucket " + index, index, Histogram.indexOf(highest));
+            assertEquals("value after bucket " + index, index + 1, Histogram.indexOf(highest + 1));
+        }
+        assertEquals(Long.MAX_VALUE, Histogram.highestValueOf(last));
+    }
+
+    @Test
+    public void reportedValueIsWithinAnEighthOfTheRecordedOne() {
+        long[] values = {9, 100, 1000, 12345, 1L << 20, (1L << 40) + 12345, Long.MAX_VALUE / 3};
+        for (long value : values) {
+            long highest = Histogram.highestValueOf(Histogram.indexOf(value));
+            assertTrue(value + " reported as " + highest, highest >= value && highest - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void percentilesAreCappedAtTheMaximum() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        histogram.record(-5);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(101, snapshot.getCount());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(100, snapshot.getPercentile(100));
+
+        long median = snapshot.getPercentile(50);
+        assertTrue("median " + median, median >= 50 && median <= 50 + 50 / 8);
+    }
+}
@@ -0,0 +1,135 @@
+package com.minigalaxy.android.model;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GameProgressTableTest {
+
+    private final GameProgressTable table = GameProgressTable.getInstance();
+
+    @Before
+    public void setUp() {
+        table.clear();
+    }
+
+    @After
+    public void tearDown() {
+        table.clear();
+    }
+
+    @Test
+    public void unknownGameReportsNothing() {
+        assertFalse(table.contains(42));
+        assertEquals(0, table.getProgress(42));
+        assertEquals(0, table.getBytesPerSecond(42));
+        assertEquals(0, table.getRemainingSeconds(42));
+    }
+
+    @Test
+    public void updateInsertsAndOverwrites() {
+        table.update(42, 10, 1000, 60);
+        table.update(42, 20, 2000, 30);
+
+        assertEquals(1, table.size());
+        assertEquals(20, table.getProgress(42));
+        assertEquals(2000, table.getBytesPerSecond(42));
+        assertEquals(30, table.getRemainingSeconds(42));
+    }
+
+    @Test
+    public void setProgressKeepsSpeedAndRemainingTime() {
+        table.update(42, 10, 1000, 60);
+        table.setProgress(42, 15);
+        table.setProgress(7, 5);
+
+        assertEquals(15, table.getProgress(42));
+        assertEquals(1000, table.getBytesPerSecond(42));
+        assertEquals(60, table.getRemainingSeconds(42));
+        assertEquals(5, table.getProgress(7));
+        assertEquals(0, table.getBytesPerSecond(7));
+    }
+
+    @Test
+    public void growsPastItsInitialCapacityInAnyInsertOrder() {
+        // Interleaved so inserts land at the front, back and middle
+        for (int i = 0; i < 50; i++) {
+            long id = i % 2 == 0 ? 1000 - i : 1000 + i;
+            table.update(id, i, i * 10L, i * 100L);
+        }
+
+        assertEquals(50, table.size());
+        for (int i = 0; i < 50; i++) {
+            long id = i % 2 == 0 ? 1000 - i : 1000 + i;
+            assertEquals("progress of " + id, i, table.getProgress(id));
+            assertEquals("speed of " + id, i * 10L, table.getBytesPerSecond(id));
+            assertEquals("remaining time of " + id, i * 100L, table.getRemainingSeconds(id));
+        }
+    }
+
+    @Test
+    public void removeKeepsTheOtherEntries() {
+        table.update(1, 10, 100, 1);
+        table.update(2, 20, 200, 2);
+        table.update(3, 30, 300, 3);
+
+        table.remove(2);
+        table.remove(99);
+
+        assertEquals(2, table.size());
+        assertFalse(table.contains(2));
+        assertEquals(10, table.getProgress(1));
+        assertEquals(300, table.getBytesPerSecond(3));
+        assertEquals(3, table.getRemainingSeconds(3));
+    }
+
+    @Test
+    public void removedGameStartsOverWhenAddedAgain() {
+        table.update(1, 50, 100, 10);
+        table.remove(1);
+        table.setProgress(1, 5);
+
+        assertEquals(5, table.getProgress(1));
+        assertEquals(0, table.getBytesPerSecond(1));
+        assertEquals(0, table.getRemainingSeconds(1));
+    }
+
+    @Test
+    public void gameOnlyHasAnEntryWhileInFlight() {
+        Game game = new Game();
+        game.setId(42);
+
+        game.setDownloadProgress(30);
+        assertFalse(table.contains(42));
+
+        game.setDownloadState(Game.DownloadState.DOWNLOADING);
+        game.setDownloadProgress(30);
+        assertTrue(table.contains(42));
+        assertEquals(30, game.getDownloadProgress());
+
+        game.setDownloadState(Game.DownloadState.PAUSED);
+        assertTrue(table.contains(42));
+
+        game.setDownloadState(Game.DownloadState.COMPLETED);
+        assertFalse(table.contains(42));
+        assertEquals(0, game.getDownloadProgress());
+    }
+
+    @Test
+    public void lateProgressUpdateDoesNotRecreateTheEntry() {
+        Game game = new Game();
+        game.setId(42);
+        game.setDownloadState(Game.DownloadState.INSTALLING);
+        game.updateDownloadProgress(90, 1000, 5);
+        assertEquals(1000, table.getBytesPerSecond(42));
+
+        game.setDownloadState(Game.DownloadState.COMPLETED);
+        game.updateDownloadProgress(100, 1000, 0);
+
+        assertFalse(table.contains(42));
+    }
+}